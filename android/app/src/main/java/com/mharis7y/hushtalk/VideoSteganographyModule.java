@@ -4,6 +4,7 @@ import android.content.ContentValues;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
+import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 import android.util.Log;
 import com.facebook.react.bridge.Arguments;
@@ -16,11 +17,11 @@ import com.mharis7y.hushtalk.parameters.VideoEncodeParams;
 import com.mharis7y.hushtalk.parameters.VideoDecodeParams;
 import com.mharis7y.hushtalk.process.SimpleEncodeProcess;
 import com.mharis7y.hushtalk.process.SimpleDecodeProcess;
+import com.mharis7y.hushtalk.process.SimpleProbeProcess;
+import com.mharis7y.hushtalk.tools.Utils;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 
 public class VideoSteganographyModule extends ReactContextBaseJavaModule {
     private static final String MODULE_NAME = "VideoSteganography";
@@ -36,12 +37,18 @@ public class VideoSteganographyModule extends ReactContextBaseJavaModule {
         return MODULE_NAME;
     }
 
+    /**
+     * @param fragmentDuration duration in seconds of the fragments of a fragmented MP4 output,
+     * whose muxer memory is bounded by a fragment. 0 keeps the regular output.
+     */
     @ReactMethod
-    public void encodeVideo(String videoUri, String textToHide, Promise promise) {
+    public void encodeVideo(String videoUri, String textToHide, int fragmentDuration, Promise promise) {
+        ParcelFileDescriptor videoDescriptor = null;
         try {
-            // Convert URI to actual file path
-            String videoPath = getRealPathFromURI(videoUri);
-            if (videoPath == null || !new File(videoPath).exists()) {
+            // Content URIs are read in place from their descriptor, other URIs are file paths
+            videoDescriptor = openContentDescriptor(videoUri);
+            String videoPath = (videoDescriptor == null ? getRealPathFromURI(videoUri) : null);
+            if (videoDescriptor == null && (videoPath == null || !new File(videoPath).exists())) {
                 promise.reject("INVALID_PATH", "Unable to resolve video file path from URI: " + videoUri);
                 return;
             }
@@ -49,7 +56,7 @@ public class VideoSteganographyModule extends ReactContextBaseJavaModule {
             // Get output directory - use public Movies directory for gallery visibility
             File outputDir;
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                // For Android 10+, we'll use MediaStore, so use a temporary directory
+                // For Android 10+ the video is muxed into MediaStore, this directory only holds temporary streams
                 outputDir = new File(reactContext.getExternalFilesDir(null), "HushTalk");
             } else {
                 // For older versions, save directly to public Movies directory
@@ -63,20 +70,29 @@ public class VideoSteganographyModule extends ReactContextBaseJavaModule {
 
             // Create parameters
             VideoEncodeParams params = new VideoEncodeParams(videoPath, textToHide, outputDirectory);
+            if (videoDescriptor != null) {
+                params.setSourceVideoFileDescriptor(videoDescriptor.getFileDescriptor());
+            }
+            if (fragmentDuration > 0) {
+                // a fragmented output is remuxed, the source cannot be patched in place
+                params.setInPlacePatching(false);
+                params.setFragmentDuration(fragmentDuration);
+            }
 
-            // Execute encoding
+            // Execute encoding, straight into MediaStore or into a file made visible in gallery
             SimpleEncodeProcess encodeProcess = new SimpleEncodeProcess();
-            boolean success = encodeProcess.encode(params);
-
-            if (success) {
-                String outputPath = outputDirectory + params.getOutputFileName();
-                File outputFile = new File(outputPath);
-
-                // Save to MediaStore or legacy storage to make it visible in gallery
-                Uri mediaUri = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
-                    ? saveVideoToMediaStore(outputFile, params.getOutputFileName())
-                    : saveVideoToLegacyStorage(outputFile, params.getOutputFileName());
+            Uri mediaUri;
+            String outputPath = null;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                mediaUri = encodeToMediaStore(encodeProcess, params);
+            } else if (encodeProcess.encode(params)) {
+                outputPath = outputDirectory + params.getOutputFileName();
+                mediaUri = saveVideoToLegacyStorage(new File(outputPath), params.getOutputFileName());
+            } else {
+                mediaUri = null;
+            }
 
+            if (mediaUri != null) {
                 WritableMap result = Arguments.createMap();
                 result.putString("uri", mediaUri.toString());
                 result.putString("path", outputPath);
@@ -89,22 +105,23 @@ public class VideoSteganographyModule extends ReactContextBaseJavaModule {
         } catch (Exception e) {
             Log.e(MODULE_NAME, "Error encoding video", e);
             promise.reject("ENCODE_ERROR", e.getMessage(), e);
+        } finally {
+            closeDescriptor(videoDescriptor);
         }
     }
 
     @ReactMethod
     public void decodeVideo(String videoUri, Promise promise) {
+        DecodeSource source = null;
         try {
-            String videoPath = getRealPathFromURI(videoUri);
-            if (videoPath == null || !new File(videoPath).exists()) {
+            source = openDecodeSource(videoUri);
+            if (source == null) {
                 promise.reject("INVALID_PATH", "Unable to resolve video file path from URI: " + videoUri);
                 return;
             }
 
-            VideoDecodeParams params = new VideoDecodeParams(videoPath);
-
             SimpleDecodeProcess decodeProcess = new SimpleDecodeProcess();
-            boolean success = decodeProcess.decode(params);
+            boolean success = decodeProcess.decode(source.params);
 
             if (success) {
                 String decodedText = decodeProcess.getDecodedText();
@@ -118,14 +135,59 @@ public class VideoSteganographyModule extends ReactContextBaseJavaModule {
         } catch (Exception e) {
             Log.e(MODULE_NAME, "Error decoding video", e);
             promise.reject("DECODE_ERROR", e.getMessage(), e);
+        } finally {
+            if (source != null) {
+                source.close();
+            }
+        }
+    }
+
+    /**
+     * Fast check for a hidden payload: only the LSB header of the first audio samples is read.
+     * Resolves with {hasPayload, payloadBytes, bitsPerByte}.
+     */
+    @ReactMethod
+    public void probeVideo(String videoUri, Promise promise) {
+        DecodeSource source = null;
+        try {
+            source = openDecodeSource(videoUri);
+            if (source == null) {
+                promise.reject("INVALID_PATH", "Unable to resolve video file path from URI: " + videoUri);
+                return;
+            }
+
+            SimpleProbeProcess probeProcess = new SimpleProbeProcess();
+            boolean success = probeProcess.probe(source.params);
+
+            if (success) {
+                WritableMap result = Arguments.createMap();
+                result.putBoolean("hasPayload", probeProcess.hasPayload());
+                result.putInt("payloadBytes", probeProcess.getPayloadBytes());
+                result.putInt("bitsPerByte", probeProcess.getBitsPerByte());
+                promise.resolve(result);
+            } else {
+                String errorMessage = probeProcess.getLastError();
+                promise.reject("PROBE_FAILED", errorMessage != null ? errorMessage : "Video probing failed");
+            }
+        } catch (Exception e) {
+            Log.e(MODULE_NAME, "Error probing video", e);
+            promise.reject("PROBE_ERROR", e.getMessage(), e);
+        } finally {
+            if (source != null) {
+                source.close();
+            }
         }
     }
 
     /**
-     * Save video to MediaStore to make it visible in gallery (Android 10+ / API 29+)
+     * Encodes straight into a new MediaStore entry (Android 10+ / API 29+). The entry stays
+     * pending while the muxer writes to its file descriptor, so the video is written once
+     * with no intermediate file.
+     * @return the published entry, or null if encoding failed, the entry being deleted
      */
-    private Uri saveVideoToMediaStore(File videoFile, String fileName) throws IOException {
+    private Uri encodeToMediaStore(SimpleEncodeProcess encodeProcess, VideoEncodeParams params) throws IOException {
         android.content.ContentResolver contentResolver = reactContext.getContentResolver();
+        String fileName = "HushTalk_" + Utils.getCurrentDateAndTime() + ".mp4";
 
         ContentValues contentValues = new ContentValues();
         contentValues.put(MediaStore.Video.Media.DISPLAY_NAME, fileName);
@@ -138,49 +200,34 @@ public class VideoSteganographyModule extends ReactContextBaseJavaModule {
             throw new IOException("Failed to create MediaStore entry");
         }
 
-        OutputStream outputStream = null;
-        FileInputStream inputStream = null;
+        ParcelFileDescriptor outputDescriptor = null;
+        boolean published = false;
         try {
-            outputStream = contentResolver.openOutputStream(uri);
-            if (outputStream == null) {
-                throw new IOException("Failed to open output stream");
+            // Read and write access, the in place patcher writes samples at their offsets
+            outputDescriptor = contentResolver.openFileDescriptor(uri, "rw");
+            if (outputDescriptor == null) {
+                throw new IOException("Failed to open MediaStore entry");
             }
-
-            inputStream = new FileInputStream(videoFile);
-            byte[] buffer = new byte[1024];
-            int length;
-            while ((length = inputStream.read(buffer)) > 0) {
-                outputStream.write(buffer, 0, length);
+            params.setOutputFileName(fileName);
+            params.setOutputFileDescriptor(outputDescriptor.getFileDescriptor());
+            if (!encodeProcess.encode(params)) {
+                return null;
             }
-            outputStream.flush();
+            outputDescriptor.close();
+            outputDescriptor = null;
 
             // Mark as not pending so it appears in gallery
             contentValues.clear();
             contentValues.put(MediaStore.Video.Media.IS_PENDING, 0);
             contentResolver.update(uri, contentValues, null, null);
+            published = true;
 
             Log.d(MODULE_NAME, "Video saved to MediaStore: " + uri.toString());
             return uri;
-        } catch (Exception e) {
-            // Clean up on failure
-            if (uri != null) {
-                contentResolver.delete(uri, null, null);
-            }
-            throw new IOException("Failed to save video to MediaStore", e);
         } finally {
-            if (outputStream != null) {
-                try {
-                    outputStream.close();
-                } catch (IOException e) {
-                    // Ignore
-                }
-            }
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                } catch (IOException e) {
-                    // Ignore
-                }
+            closeDescriptor(outputDescriptor);
+            if (!published) {
+                contentResolver.delete(uri, null, null);
             }
         }
     }
@@ -200,6 +247,54 @@ public class VideoSteganographyModule extends ReactContextBaseJavaModule {
         return Uri.fromFile(videoFile);
     }
 
+    /**
+     * Builds the decode parameters of a video URI, content URIs being read in place from
+     * their descriptor.
+     * @return the parameters and their descriptor, to be closed by the caller, or null if the
+     * URI does not resolve to a video file
+     */
+    private DecodeSource openDecodeSource(String videoUri) throws IOException {
+        ParcelFileDescriptor videoDescriptor = openContentDescriptor(videoUri);
+        if (videoDescriptor != null) {
+            return new DecodeSource(new VideoDecodeParams(videoDescriptor.getFileDescriptor()), videoDescriptor);
+        }
+
+        String videoPath = getRealPathFromURI(videoUri);
+        if (videoPath == null || !new File(videoPath).exists()) {
+            return null;
+        }
+        return new DecodeSource(new VideoDecodeParams(videoPath), null);
+    }
+
+    /**
+     * Opens a content URI for reading. MediaStore DATA paths are not readable under scoped
+     * storage, the descriptor is read in place instead of copying the video.
+     * @return the descriptor, to be closed by the caller, or null if the URI is not a content URI
+     */
+    private ParcelFileDescriptor openContentDescriptor(String uriString) throws IOException {
+        Uri uri = Uri.parse(uriString);
+
+        if (!"content".equals(uri.getScheme())) {
+            return null;
+        }
+        ParcelFileDescriptor descriptor = reactContext.getContentResolver().openFileDescriptor(uri, "r");
+        if (descriptor == null) {
+            throw new IOException("Unable to open video from URI: " + uriString);
+        }
+        return descriptor;
+    }
+
+    private void closeDescriptor(ParcelFileDescriptor descriptor) {
+        if (descriptor == null) {
+            return;
+        }
+        try {
+            descriptor.close();
+        } catch (IOException e) {
+            Log.w(MODULE_NAME, "Unable to close video descriptor", e);
+        }
+    }
+
     private String getRealPathFromURI(String uriString) {
         try {
             Uri uri = Uri.parse(uriString);
@@ -208,33 +303,6 @@ public class VideoSteganographyModule extends ReactContextBaseJavaModule {
             if (scheme == null || scheme.equals("file")) {
                 // Already a file path
                 return uri.getPath();
-            } else if (scheme.equals("content")) {
-                // Content URI - need to resolve to file path
-                android.database.Cursor cursor = reactContext.getContentResolver().query(
-                    uri,
-                    new String[]{android.provider.MediaStore.Video.Media.DATA},
-                    null,
-                    null,
-                    null
-                );
-
-                if (cursor != null) {
-                    if (cursor.moveToFirst()) {
-                        int columnIndex = cursor.getColumnIndex(android.provider.MediaStore.Video.Media.DATA);
-                        if (columnIndex >= 0) {
-                            String path = cursor.getString(columnIndex);
-                            cursor.close();
-                            return path;
-                        }
-                    }
-                    cursor.close();
-                }
-
-                // Fallback: try to get path from URI directly
-                String path = uri.getPath();
-                if (path != null && new File(path).exists()) {
-                    return path;
-                }
             }
 
             // Last resort: try as direct file path
@@ -244,4 +312,21 @@ public class VideoSteganographyModule extends ReactContextBaseJavaModule {
             return null;
         }
     }
+
+    /**
+     * Decode parameters with the descriptor they read from, if any
+     */
+    private class DecodeSource {
+        private final VideoDecodeParams params;
+        private final ParcelFileDescriptor descriptor;
+
+        DecodeSource(VideoDecodeParams params, ParcelFileDescriptor descriptor) {
+            this.params = params;
+            this.descriptor = descriptor;
+        }
+
+        void close() {
+            closeDescriptor(descriptor);
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package com.mharis7y.hushtalk.algorithms;
 
 import com.googlecode.mp4parser.DataSource;
+import com.googlecode.mp4parser.authoring.Track;
 import com.mharis7y.hushtalk.mp4.MP4MediaReader;
 
 public interface ISteganographyContainer {
@@ -14,7 +15,10 @@ public interface ISteganographyContainer {
 	public long getMaxContentToHide();
 	public byte[] getUnHideData();
 	public DataSource getDataSource();	
+	public Track getTrack();
 	public void setFileStreamDirectory(String directory);
+	public void setPayloadCodec(int codec);
+	public int getPayloadCodec();
 	public String getFileStreamDirectory();
 	
 	public void cleanUpResources();
@@ -1,19 +1,33 @@
 package com.mharis7y.hushtalk.algorithms.steganography.audio;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.googlecode.mp4parser.authoring.Sample;
+import com.mharis7y.hushtalk.lsb.ILSBEncoder;
 import com.mharis7y.hushtalk.lsb.LSBDecode;
 import com.mharis7y.hushtalk.lsb.LSBEncode;
+import com.mharis7y.hushtalk.lsb.LSBHeader;
+import com.mharis7y.hushtalk.lsb.LSBRangeDecode;
+import com.mharis7y.hushtalk.lsb.LSBWordEncode;
 
 public class AACSteganographyContainerLsb extends AACSteganographyContainer {
 
 	private final int BYTE_SIZE = 8;
+	private final int PARALLEL_BATCH_SIZE = 4096; // samples buffered per parallel pass
+	private final int PROBE_MAX_SAMPLE_COUNT = 8;
 	
 	protected int _nbBitToHideInOneByte;
+	protected boolean _wordEncoding;
+	protected boolean _parallelEncoding;
+	protected boolean _parallelDecoding;
 
 	public AACSteganographyContainerLsb() {
 		_nbBitToHideInOneByte = 1;
+		_wordEncoding = true;
+		_parallelEncoding = true;
+		_parallelDecoding = true;
 	}
 
 	//Parent methods
@@ -24,12 +38,17 @@ public class AACSteganographyContainerLsb extends AACSteganographyContainer {
 		if (_sampleList == null) {
 			return;
 		}
+		if (_parallelDecoding) {
+			unHideDataParallel();
+			return;
+		}
 		
 		for (Sample sample : _sampleList) {
 			byte[] frame = sampleToByteArray(sample);
 			
 			_unHideData = decoder.decodeFrame(frame);
 			if (_unHideData != null){
+				_payloadCodec = decoder.getHeader().getCodec();
 				break;
 			}
 		}
@@ -38,22 +57,59 @@ public class AACSteganographyContainerLsb extends AACSteganographyContainer {
 	@Override
 	public void hideData(byte[] dataToHide) {
 		
-		if (_sampleList == null || dataToHide == null) {
+		if (_sampleList == null || _track == null || dataToHide == null) {
+			return;
+		}
+		if (_parallelEncoding && _wordEncoding) {
+			hideDataParallel(dataToHide);
 			return;
 		}
 			
-		LSBEncode encoder = new LSBEncode(dataToHide, _nbBitToHideInOneByte);
+		ILSBEncoder encoder = createEncoder(dataToHide);
 		for (Sample sample : _sampleList) {
+			// the samples after the payload are left untouched
+			if (encoder.isComplete()) {
+				break;
+			}
 			byte[] frame = sampleToByteArray(sample);
 
 			frame = encoder.encodeNextFrame(frame);
-			writeHeader(frame.length);
-			this.addData(frame);
-			
-			_sampleListPosition++;
+			storeSample(frame);
 		}
 	}
 	
+	/**
+	 * Reads the LSB header from the first audio samples only and checks it is plausible for
+	 * this track: a non empty payload that fits in the audio capacity.
+	 * @return the decoder holding the header, or null if the track does not carry a payload
+	 */
+	public LSBDecode probeHeader() {
+		LSBDecode decoder = new LSBDecode();
+		long carrierLength;
+		long capacity;
+		int sampleCount;
+
+		if (_sampleList == null) {
+			return null;
+		}
+		sampleCount = Math.min(PROBE_MAX_SAMPLE_COUNT, _sampleList.size());
+		for (int i = 0; i < sampleCount && !decoder.isHeaderDecoded(); ++i) {
+			if (!decoder.decodeHeader(sampleToByteArray(_sampleList.get(i)))) {
+				return null;
+			}
+		}
+		if (!decoder.isHeaderDecoded() || decoder.getContentLength() <= 0) {
+			return null;
+		}
+
+		carrierLength = getCarrierLength();
+		capacity = (carrierLength - decoder.getHeader().getBitSize()) * decoder.getNbBitToDecodeInOneByte() / BYTE_SIZE;
+		if (decoder.getContentLength() > capacity) {
+			return null;
+		}
+		return decoder;
+	}
+
 	@Override
 	public byte[] getUnHideData() {
 		return _unHideData;
@@ -61,21 +117,154 @@ public class AACSteganographyContainerLsb extends AACSteganographyContainer {
 
 	@Override
 	public long getMaxContentToHide() {
-		long ret = 0;
-		float sizeNeededToHideOneByte = (float) Math.ceil((float) BYTE_SIZE / _nbBitToHideInOneByte);
-		
-		if (_sampleList != null) {
-			for (Sample s : _sampleList) {
-				ret += s.getSize();
-			}
-		}
+		// the header takes one carrier byte per bit, the payload _nbBitToHideInOneByte bits per byte
+		long ret = getCarrierLength() - LSBHeader.SIZE * BYTE_SIZE;
 
-		ret -= (8 * sizeNeededToHideOneByte);
-		ret /= Math.floor(sizeNeededToHideOneByte);
-		return ret;
+		return Math.max(0, ret * _nbBitToHideInOneByte / BYTE_SIZE);
 	}
 	
+	public void setWordEncoding(boolean wordEncoding) {
+		_wordEncoding = wordEncoding;
+	}
+
+	public boolean isWordEncoding() {
+		return _wordEncoding;
+	}
+
+	public void setParallelEncoding(boolean parallelEncoding) {
+		_parallelEncoding = parallelEncoding;
+	}
+
+	public boolean isParallelEncoding() {
+		return _parallelEncoding;
+	}
+
+	public void setParallelDecoding(boolean parallelDecoding) {
+		_parallelDecoding = parallelDecoding;
+	}
+
+	public boolean isParallelDecoding() {
+		return _parallelDecoding;
+	}
+
+	protected ILSBEncoder createEncoder(byte[] dataToHide) {
+		if (_wordEncoding) {
+			return new LSBWordEncode(dataToHide, _nbBitToHideInOneByte, _payloadCodec);
+		}
+		return new LSBEncode(dataToHide, _nbBitToHideInOneByte, _payloadCodec);
+	}
+
 	// Private methods
+	/**
+	 * AAC samples keep their size once embedded, so the payload bits carried by each sample
+	 * are known from the prefix sum of the sample capacities. Samples are read by batch on
+	 * the calling thread, embedded concurrently, then stored in order. Reading stops at the
+	 * last sample carrying the payload.
+	 */
+	private void hideDataParallel(byte[] dataToHide) {
+		LSBWordEncode encoder = new LSBWordEncode(dataToHide, _nbBitToHideInOneByte, _payloadCodec);
+		ForkJoinPool pool = new ForkJoinPool();
+		int sampleCount = getCarrierSampleCount(encoder.getCarrierLength());
+		byte[][] frames = new byte[Math.min(PARALLEL_BATCH_SIZE, sampleCount)][];
+		int[] cursors = new int[frames.length];
+		int bitLength = encoder.getBitLength();
+		int cursor = 0;
+		int batchLength;
+
+		try {
+			for (int batchStart = 0; batchStart < sampleCount && cursor < bitLength; batchStart += batchLength) {
+				batchLength = 0;
+				// only the samples carrying payload bits are materialized
+				while (batchLength < frames.length && batchStart + batchLength < sampleCount && cursor < bitLength) {
+					frames[batchLength] = sampleToByteArray(_sampleList.get(batchStart + batchLength));
+					cursors[batchLength] = cursor;
+					cursor = encoder.advanceCursor(cursor, frames[batchLength].length);
+					batchLength++;
+				}
+				pool.invoke(new EmbedTask(encoder, frames, cursors, 0, batchLength));
+				for (int i = 0; i < batchLength; ++i) {
+					storeSample(frames[i]);
+					frames[i] = null;
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Once the header is read the payload bit range of every sample is known, so
+	 * only the samples carrying the payload are read, and they are extracted concurrently
+	 * into a preallocated content array.
+	 */
+	private void unHideDataParallel() {
+		LSBDecode headerDecoder = new LSBDecode();
+		LSBHeader header;
+		ForkJoinPool pool;
+		ExtractTask task;
+		int sampleCount = _sampleList.size();
+		byte[][] frames;
+		int[] cursors;
+		byte[] content;
+		int bitLength;
+		int cursor = 0;
+		int batchLength;
+
+		for (int i = 0; i < sampleCount && !headerDecoder.isHeaderDecoded(); ++i) {
+			if (!headerDecoder.decodeHeader(sampleToByteArray(_sampleList.get(i)))) {
+				_unHideData = new byte[0];
+				return;
+			}
+		}
+		if (!headerDecoder.isHeaderDecoded()) {
+			return;
+		}
+
+		header = headerDecoder.getHeader();
+		content = new byte[header.getContentLength()];
+		bitLength = LSBRangeDecode.getBitLength(header);
+		sampleCount = getCarrierSampleCount(LSBRangeDecode.getCarrierLength(header));
+		frames = new byte[Math.min(PARALLEL_BATCH_SIZE, sampleCount)][];
+		cursors = new int[frames.length];
+		pool = new ForkJoinPool();
+		try {
+			for (int batchStart = 0; batchStart < sampleCount && cursor < bitLength; batchStart += batchLength) {
+				batchLength = 0;
+				while (batchLength < frames.length && batchStart + batchLength < sampleCount && cursor < bitLength) {
+					frames[batchLength] = sampleToByteArray(_sampleList.get(batchStart + batchLength));
+					cursors[batchLength] = cursor;
+					cursor = LSBRangeDecode.advanceCursor(cursor, frames[batchLength].length, header);
+					batchLength++;
+				}
+				task = new ExtractTask(content, header, frames, cursors, 0, batchLength);
+				pool.invoke(task);
+				task.mergeEdges();
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		if (cursor >= bitLength) {
+			// corrupted content is reported like a missing one
+			_unHideData = (header.checkContent(content) ? content : new byte[0]);
+			_payloadCodec = header.getCodec();
+		}
+	}
+
+	/**
+	 * @return the number of leading samples holding carrierLength bytes, found from the
+	 * sample table index when there is one so that the batch buffers fit the payload
+	 */
+	private int getCarrierSampleCount(long carrierLength) {
+		int lastSample;
+
+		if (_sampleIndex == null || carrierLength <= 0) {
+			return _sampleList.size();
+		}
+		lastSample = _sampleIndex.findSample(carrierLength - 1);
+		return (lastSample == -1 ? _sampleList.size() : lastSample + 1);
+	}
+
 	private byte[] sampleToByteArray(Sample sample) {
 		ByteBuffer buf = sample.asByteBuffer();
 		byte[] frame = new byte[buf.capacity()];
@@ -84,4 +273,99 @@ public class AACSteganographyContainerLsb extends AACSteganographyContainer {
 		return frame;
 	}
 
+	private static class EmbedTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private static final int SPLIT_THRESHOLD = 64;
+
+		private final LSBWordEncode _encoder;
+		private final byte[][] _frames;
+		private final int[] _cursors;
+		private final int _start;
+		private final int _end;
+
+		EmbedTask(LSBWordEncode encoder, byte[][] frames, int[] cursors, int start, int end) {
+			_encoder = encoder;
+			_frames = frames;
+			_cursors = cursors;
+			_start = start;
+			_end = end;
+		}
+
+		@Override
+		protected void compute() {
+			LSBWordEncode encoder;
+			int middle;
+
+			if (_cursors[_start] >= _encoder.getBitLength()) {
+				return;
+			}
+			if (_end - _start > SPLIT_THRESHOLD) {
+				middle = (_start + _end) >>> 1;
+				invokeAll(new EmbedTask(_encoder, _frames, _cursors, _start, middle),
+						new EmbedTask(_encoder, _frames, _cursors, middle, _end));
+				return;
+			}
+			encoder = _encoder.fork(_cursors[_start]);
+			for (int i = _start; i < _end && !encoder.isComplete(); ++i) {
+				encoder.encodeNextFrame(_frames[i]);
+			}
+		}
+	}
+
+	private static class ExtractTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private static final int SPLIT_THRESHOLD = 64;
+
+		private final byte[] _content;
+		private final LSBHeader _header;
+		private final byte[][] _frames;
+		private final int[] _cursors;
+		private final int _start;
+		private final int _end;
+
+		private ExtractTask _left;
+		private ExtractTask _right;
+		private LSBRangeDecode _decoder;
+
+		ExtractTask(byte[] content, LSBHeader header, byte[][] frames, int[] cursors, int start, int end) {
+			_content = content;
+			_header = header;
+			_frames = frames;
+			_cursors = cursors;
+			_start = start;
+			_end = end;
+		}
+
+		@Override
+		protected void compute() {
+			int middle;
+
+			if (_end - _start > SPLIT_THRESHOLD) {
+				middle = (_start + _end) >>> 1;
+				_left = new ExtractTask(_content, _header, _frames, _cursors, _start, middle);
+				_right = new ExtractTask(_content, _header, _frames, _cursors, middle, _end);
+				invokeAll(_left, _right);
+				return;
+			}
+			_decoder = new LSBRangeDecode(_content, _header, _cursors[_start]);
+			for (int i = _start; i < _end && !_decoder.isComplete(); ++i) {
+				_decoder.decodeFrame(_frames[i]);
+				_frames[i] = null;
+			}
+			_decoder.finish();
+		}
+
+		// Must be called from a single thread once the whole task tree is done
+		void mergeEdges() {
+			if (_decoder != null) {
+				_decoder.mergeEdges();
+			}
+			if (_left != null) {
+				_left.mergeEdges();
+				_right.mergeEdges();
+			}
+		}
+	}
 }
@@ -7,18 +7,22 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import com.coremedia.iso.IsoTypeReaderVariable;
 import com.coremedia.iso.boxes.mdat.SampleList;
 import com.googlecode.mp4parser.DataSource;
 import com.googlecode.mp4parser.FileDataSourceImpl;
 import com.googlecode.mp4parser.authoring.Sample;
+import com.googlecode.mp4parser.authoring.Track;
 import com.mharis7y.hushtalk.algorithms.ISteganographyContainer;
-import com.mharis7y.hushtalk.h264.NaluParser;
+import com.mharis7y.hushtalk.lsb.LSBHeader;
+import com.mharis7y.hushtalk.h264.H264AnalysisIndex;
+import com.mharis7y.hushtalk.h264.ParameterSetRegistry;
 import com.mharis7y.hushtalk.h264.PictureParameterSetParser;
 import com.mharis7y.hushtalk.h264.SeqParameterSetParser;
-import com.mharis7y.hushtalk.h264.SliceParser;
 import com.mharis7y.hushtalk.mp4.MP4MediaReader;
+import com.mharis7y.hushtalk.mp4.SampleTableIndex;
 import com.mharis7y.hushtalk.mp4.SteganosMemoryDataSourceImpl;
 
 public class H264SteganographyContainer implements ISteganographyContainer {
@@ -28,11 +32,17 @@ public class H264SteganographyContainer implements ISteganographyContainer {
 
 	protected SeqParameterSetParser _seqParameterSetParser;
 	protected PictureParameterSetParser _pictureParameterSetParser;
+	protected ParameterSetRegistry _parameterSets;
 	
 	protected OutputStream _content;
 	protected DataSource _dataSource;
 	protected SampleList _sampleList;
+	protected SampleTableIndex _sampleIndex;
+	protected H264AnalysisIndex _analysisIndex;
+	protected String _analysisIndexPath;
+	protected boolean _parallelAnalysis;
 	protected String _fileStreamDirectory;
+	protected int _payloadCodec;
 	protected int _sampleLengthSize;
 	protected int _sampleListPosition;
 	protected int _subSampleIdx;
@@ -44,11 +54,17 @@ public class H264SteganographyContainer implements ISteganographyContainer {
 		_content = null;
 		_dataSource = null;
 		_sampleList = null;
+		_parameterSets = new ParameterSetRegistry();
+		_sampleIndex = null;
+		_analysisIndex = null;
+		_analysisIndexPath = null;
+		_parallelAnalysis = true;
 		_fileStreamDirectory = null;
 		_sampleLengthSize = 0;
 		_sampleListPosition = 0;
 		_subSampleIdx = 0;
 		_subSampleOffset = 0;
+		_payloadCodec = LSBHeader.CODEC_RAW;
 		
 		_unHideData = null;
 	}
@@ -56,37 +72,25 @@ public class H264SteganographyContainer implements ISteganographyContainer {
 	// Interface methods
 	@Override
 	public boolean loadData(MP4MediaReader mediaReader) {
-		byte[] sps;
-		byte[] pps;
-		NaluParser naluParser;
-		
 		if (mediaReader != null) {
 			_content = new ByteArrayOutputStream();
 			_sampleList = mediaReader.getVideoSampleList();
+			_sampleIndex = mediaReader.getVideoSampleIndex();
+			if (_sampleIndex != null && (_sampleList == null || _sampleIndex.getSampleCount() != _sampleList.size())) {
+				// fragmented tracks have samples outside of the sample table
+				_sampleIndex = null;
+			}
 			_sampleLengthSize = mediaReader.getVideoSampleLengthSize() + 1;
+			_analysisIndex = null;
 			_sampleListPosition = 0;
 			_subSampleIdx = 0;
 			_subSampleOffset = 0;
 			
-			sps = mediaReader.getSequenceParameterSets();
-			if (sps != null && sps.length > 0) {
-				this.addData(new byte[]{0, 0, 0, 1});
-				this.addData(sps);
-				naluParser = new NaluParser();
-				_seqParameterSetParser = new SeqParameterSetParser();
-				naluParser.parseNaluData(sps);
-				_seqParameterSetParser.parseSeqParameterSetData(naluParser.getRbsp());
-			}
-
-			pps = mediaReader.getPictureParameterSets();
-			if (pps != null && pps.length > 0) {
-				this.addData(new byte[]{0, 0, 0, 1});
-				this.addData(pps);
-				naluParser = new NaluParser();
-				_pictureParameterSetParser = new PictureParameterSetParser(_seqParameterSetParser);
-				naluParser.parseNaluData(pps);
-				_pictureParameterSetParser.parsePictureParameterSet(naluParser.getRbsp());
-			}
+			_parameterSets = new ParameterSetRegistry();
+			addParameterSets(mediaReader.getSequenceParameterSetList());
+			addParameterSets(mediaReader.getPictureParameterSetList());
+			_seqParameterSetParser = _parameterSets.getFirstSeqParameterSet();
+			_pictureParameterSetParser = _parameterSets.getFirstPictureParameterSet();
 			return true;
 		}
 		return false;
@@ -139,14 +143,7 @@ public class H264SteganographyContainer implements ISteganographyContainer {
 	
 	@Override
 	public long getMaxContentToHide() {
-		long ret = 0;
-
-		if (_sampleList != null) {
-			for (Sample s : _sampleList) {
-				ret += s.getSize();
-			}
-		}
-		return ret;
+		return getSampleDataSize();
 	}
 	
 	@Override
@@ -154,6 +151,11 @@ public class H264SteganographyContainer implements ISteganographyContainer {
 		return _unHideData;
 	}
 
+	// The video stream is rebuilt from its NAL units, see getDataSource
+	public Track getTrack() {
+		return null;
+	}
+
 	public DataSource getDataSource() {
 		if (_dataSource != null) {
 			cleanDataSource();
@@ -184,13 +186,45 @@ public class H264SteganographyContainer implements ISteganographyContainer {
 	public String getFileStreamDirectory() {
 		return _fileStreamDirectory;
 	}
+
+	/**
+	 * @param path file the analysis index is read from when it matches the track, and saved
+	 * to once built, null to keep it in memory only
+	 */
+	public void setAnalysisIndexPath(String path) {
+		_analysisIndexPath = path;
+	}
+
+	public String getAnalysisIndexPath() {
+		return _analysisIndexPath;
+	}
+
+	public void setParallelAnalysis(boolean parallelAnalysis) {
+		_parallelAnalysis = parallelAnalysis;
+	}
+
+	public boolean isParallelAnalysis() {
+		return _parallelAnalysis;
+	}
+
+	public void setPayloadCodec(int codec) {
+		_payloadCodec = codec;
+	}
+
+	public int getPayloadCodec() {
+		return _payloadCodec;
+	}
 	
 	// Specific methods
 	protected void addData(byte[] content) {
+		addData(content, 0, content.length);
+	}
+
+	protected void addData(byte[] content, int offset, int length) {
 		switchOutputStreamToFile();
 		if (_content != null) {
 			try {
-				_content.write(content);
+				_content.write(content, offset, length);
 			} catch (IOException e) {
 				System.err.println("[H264 Steganography container]: Unable to add data: " +  e.getMessage());
 			}
@@ -220,6 +254,50 @@ public class H264SteganographyContainer implements ISteganographyContainer {
 	}
 
 	//Private methods
+	// Every parameter set is written to the stream and registered by its id
+	private void addParameterSets(List<byte[]> parameterSets) {
+		if (parameterSets == null) {
+			return;
+		}
+		for (byte[] parameterSet : parameterSets) {
+			if (parameterSet != null && parameterSet.length > 0) {
+				this.addData(new byte[]{0, 0, 0, 1});
+				this.addData(parameterSet);
+				_parameterSets.addNal(parameterSet);
+			}
+		}
+	}
+
+	private long getSampleDataSize() {
+		long ret = 0;
+
+		if (_sampleIndex != null) {
+			return _sampleIndex.getTotalSize();
+		}
+		if (_sampleList != null) {
+			for (Sample s : _sampleList) {
+				ret += s.getSize();
+			}
+		}
+		return ret;
+	}
+
+	private int[] getSampleSizes() {
+		int[] sizes = new int[_sampleList.size()];
+		int i = 0;
+
+		if (_sampleIndex != null) {
+			for (i = 0; i < sizes.length; ++i) {
+				sizes[i] = _sampleIndex.getSampleSize(i);
+			}
+			return sizes;
+		}
+		for (Sample s : _sampleList) {
+			sizes[i++] = (int) s.getSize();
+		}
+		return sizes;
+	}
+
 	private void cleanDataSource() {
 		if (_dataSource != null) {
 			try {
@@ -247,18 +325,31 @@ public class H264SteganographyContainer implements ISteganographyContainer {
 	}
 	
 	protected int getSliceLayerWithoutPartitioningIdrDataOffset(ByteBuffer sample) {		
-		NaluParser parser = new NaluParser();
-		byte tmp[] = new byte[sample.remaining()];
-		
-		sample.get(tmp);
-		parser.parseNaluData(tmp);
-		// 5 = slice layer without partitioning IDR
-		if (parser.getNalUnitType() == 5) {
-			SliceParser sp = new SliceParser(_seqParameterSetParser, _pictureParameterSetParser, parser.getNalUnitType(), parser.getNalRefIdc());
-			sp.parseSlice(parser.getRbsp());
-			return (sp.getSliceDataOffset() + parser.getNaluHeaderSize());
+		int offset = H264AnalysisIndex.getSliceDataOffset(sample, _parameterSets);
+
+		sample.position(sample.limit());
+		return offset;
+	}
+
+	/**
+	 * @return the NAL units of every sample, parsed once per track, or null without samples
+	 */
+	protected H264AnalysisIndex getAnalysisIndex() {
+		File file;
+
+		if (_analysisIndex != null || _sampleList == null) {
+			return _analysisIndex;
+		}
+		file = (_analysisIndexPath == null ? null : new File(_analysisIndexPath));
+		_analysisIndex = (file == null ? null : H264AnalysisIndex.read(file, getSampleSizes(), _sampleLengthSize));
+		if (_analysisIndex == null) {
+			_analysisIndex = (_parallelAnalysis ? H264AnalysisIndex.buildParallel(_sampleList, _sampleLengthSize, _parameterSets)
+					: H264AnalysisIndex.build(_sampleList, _sampleLengthSize, _parameterSets));
+			if (file != null) {
+				_analysisIndex.write(file);
+			}
 		}
-		return -1;
+		return _analysisIndex;
 	}
 	
 	private void switchOutputStreamToFile() {
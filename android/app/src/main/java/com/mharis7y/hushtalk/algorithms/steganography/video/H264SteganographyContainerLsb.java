@@ -1,101 +1,124 @@
 package com.mharis7y.hushtalk.algorithms.steganography.video;
 
-import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 
-import com.coremedia.iso.IsoTypeReaderVariable;
-import com.googlecode.mp4parser.authoring.Sample;
+import com.mharis7y.hushtalk.h264.EmulationPrevention;
+import com.mharis7y.hushtalk.h264.H264AnalysisIndex;
+import com.mharis7y.hushtalk.lsb.ILSBEncoder;
 import com.mharis7y.hushtalk.lsb.LSBDecode;
 import com.mharis7y.hushtalk.lsb.LSBEncode;
+import com.mharis7y.hushtalk.lsb.LSBHeader;
+import com.mharis7y.hushtalk.lsb.LSBWordEncode;
 
 public class H264SteganographyContainerLsb extends H264SteganographyContainer {
 
 	private final int BYTE_SIZE = 8;
 	
 	protected int _nbBitToHideInOneByte;
+	protected boolean _wordEncoding;
 	
 	private long _maxContentToHide;
+	// reused between NAL units
+	private byte[] _nalBuffer;
+	private byte[] _escapeBuffer;
 	
 	public H264SteganographyContainerLsb() {
 		super();
 		_nbBitToHideInOneByte = 1;
+		_wordEncoding = true;
 		_maxContentToHide = -1;
+		_nalBuffer = null;
+		_escapeBuffer = null;
 	}
 	
 	// Parent methods
 	@Override
 	public void hideData(byte[] dataToHide) {
-		LSBEncode encoder;
+		H264AnalysisIndex analysisIndex;
+		ILSBEncoder encoder;
 		ByteBuffer currentSampleBuffer;
-		byte sample[];
-		int currentSampleLength;
+		byte nal[];
+		byte escaped[];
+		int nalPosition;
+		int nalLength;
 		int sliceDataOffset;
+		int precedingZeroCount;
+		int sampleLength;
 		
-		if (_sampleList == null || dataToHide == null) {
+		analysisIndex = getAnalysisIndex();
+		if (analysisIndex == null || dataToHide == null) {
 			return;
 		}
 
-		encoder = new LSBEncode(dataToHide, _nbBitToHideInOneByte);
-		for (Sample s : _sampleList) {
-			currentSampleBuffer = s.asByteBuffer();
-			while (currentSampleBuffer.hasRemaining()) {
-				currentSampleLength = (int) IsoTypeReaderVariable.read(currentSampleBuffer, _sampleLengthSize);
+		encoder = createEncoder(dataToHide);
+		for (; _sampleListPosition < analysisIndex.getSampleCount(); _sampleListPosition++) {
+			currentSampleBuffer = _sampleList.get(_sampleListPosition).asByteBuffer();
+			for (int i = analysisIndex.getFirstNal(_sampleListPosition); i < analysisIndex.getFirstNal(_sampleListPosition + 1); ++i) {
+				nalPosition = analysisIndex.getNalPosition(i);
+				nalLength = analysisIndex.getNalLength(i);
+				sliceDataOffset = analysisIndex.getSliceDataOffset(i);
 				this.addData(new byte[] {0x00, 0x00, 0x01});
-				sliceDataOffset = this.getSliceLayerWithoutPartitioningIdrDataOffset((ByteBuffer) currentSampleBuffer.slice().limit(currentSampleLength));
+				currentSampleBuffer.position(nalPosition);
 	
 				if (sliceDataOffset == -1) {
-					this.addData((ByteBuffer) currentSampleBuffer.slice().limit(currentSampleLength));
-					currentSampleBuffer.position(currentSampleBuffer.position() + currentSampleLength);	
+					this.addData((ByteBuffer) currentSampleBuffer.slice().limit(nalLength));
 					continue;
 				}
 
-				this.addData((ByteBuffer) currentSampleBuffer.slice().limit(sliceDataOffset));
-				currentSampleBuffer.position(currentSampleBuffer.position() + sliceDataOffset);
+				nal = getNalBuffer(nalLength);
+				currentSampleBuffer.get(nal, 0, nalLength);
+				this.addData(nal, 0, sliceDataOffset);
+				precedingZeroCount = EmulationPrevention.countTrailingZeros(nal, 0, sliceDataOffset);
 	
-				// Sample
-				sample = new byte[currentSampleLength - sliceDataOffset];
-				currentSampleBuffer.get(sample);
-				encoder.encodeNextFrame(sample);
-				sample = insertEscapeSequence(sample);
-				this.addData(sample);
-				_subSampleIdx++;
+				// Sample, embedded in place in the slice data moved to the start of nal without
+				// emulation prevention bytes
+				sampleLength = EmulationPrevention.unescape(nal, sliceDataOffset, nalLength - sliceDataOffset, precedingZeroCount, nal);
+				encoder.encodeNextFrame(nal, 0, sampleLength);
+				escaped = getEscapeBuffer(EmulationPrevention.getMaxEscapedLength(sampleLength));
+				this.addData(escaped, 0, EmulationPrevention.escape(nal, 0, sampleLength, precedingZeroCount, escaped));
 			}
 			_subSampleIdx = 0;
-			_sampleListPosition++;
 		}		
 	}
 
 	@Override
 	public void unHideData() {
+		H264AnalysisIndex analysisIndex;
 		LSBDecode decoder;
 		ByteBuffer currentSampleBuffer;
-		byte[] sample;
-		int currentSampleLength;
+		byte[] nal;
+		int nalLength;
 		int sliceDataOffset;
+		int sampleLength;
+		int precedingZeroCount;
 		
-		if (_sampleList == null) {
+		analysisIndex = getAnalysisIndex();
+		if (analysisIndex == null) {
 			return;
 		}
 		decoder = new LSBDecode();
-		for (Sample s : _sampleList) {
-			currentSampleBuffer = s.asByteBuffer();
-			while (currentSampleBuffer.hasRemaining()) {
-				currentSampleLength = (int) IsoTypeReaderVariable.read(currentSampleBuffer, _sampleLengthSize);
-				sliceDataOffset = this.getSliceLayerWithoutPartitioningIdrDataOffset((ByteBuffer) currentSampleBuffer.slice().limit(currentSampleLength));
-	
+		for (int i = 0; i < analysisIndex.getSampleCount(); ++i) {
+			// samples without slice data are never read
+			if (!analysisIndex.hasEmbeddableNal(i)) {
+				continue;
+			}
+			currentSampleBuffer = _sampleList.get(i).asByteBuffer();
+			for (int j = analysisIndex.getFirstNal(i); j < analysisIndex.getFirstNal(i + 1); ++j) {
+				sliceDataOffset = analysisIndex.getSliceDataOffset(j);
 				if (sliceDataOffset == -1) {
-					currentSampleBuffer.position(currentSampleBuffer.position() + currentSampleLength);
 					continue;
 				}
-				
-				currentSampleBuffer.position(currentSampleBuffer.position() + sliceDataOffset);
+				nalLength = analysisIndex.getNalLength(j);
+				nal = getNalBuffer(nalLength);
+				currentSampleBuffer.position(analysisIndex.getNalPosition(j));
+				currentSampleBuffer.get(nal, 0, nalLength);
+				precedingZeroCount = EmulationPrevention.countTrailingZeros(nal, 0, sliceDataOffset);
 	
 				// Sample
-				sample = new byte[currentSampleLength - sliceDataOffset];
-				currentSampleBuffer.get(sample);
-				sample = removeEscapeSequence(sample);
-				_unHideData = decoder.decodeFrame(sample);
-				if (_unHideData != null) {					
+				sampleLength = EmulationPrevention.unescape(nal, sliceDataOffset, nalLength - sliceDataOffset, precedingZeroCount, nal);
+				_unHideData = decoder.decodeFrame(nal, 0, sampleLength);
+				if (_unHideData != null) {
+					_payloadCodec = decoder.getHeader().getCodec();
 					return;
 				}
 			}
@@ -110,70 +133,45 @@ public class H264SteganographyContainerLsb extends H264SteganographyContainer {
 		return _maxContentToHide;
 	}
 
-	// Private methods
-	private byte[] insertEscapeSequence(byte sample[]) {
-		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+	public void setWordEncoding(boolean wordEncoding) {
+		_wordEncoding = wordEncoding;
+	}
 
-		if (sample == null) {
-			return byteArrayOutputStream.toByteArray();
-		}
-		
-		for (int i = 0; i < sample.length; ++i) {
-			if (i + 2 < sample.length && sample[i] == 0x00 && sample[i + 1] == 0x00 && sample[i + 2] == 0x01) {
-				byteArrayOutputStream.write(sample[i]);
-				byteArrayOutputStream.write(sample[i + 1]);
-				byteArrayOutputStream.write(0x03);
-				byteArrayOutputStream.write(sample[i + 2]);
-				i += 2;
-			} else {
-				byteArrayOutputStream.write(sample[i]);
-			}
+	public boolean isWordEncoding() {
+		return _wordEncoding;
+	}
+
+	protected ILSBEncoder createEncoder(byte[] dataToHide) {
+		if (_wordEncoding) {
+			return new LSBWordEncode(dataToHide, _nbBitToHideInOneByte, _payloadCodec);
 		}
-		return byteArrayOutputStream.toByteArray();
+		return new LSBEncode(dataToHide, _nbBitToHideInOneByte, _payloadCodec);
 	}
 
-	private byte[] removeEscapeSequence(byte sample[]) {
-		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-		
-		if (sample == null) {
-			return byteArrayOutputStream.toByteArray();
+	// Private methods
+	private byte[] getNalBuffer(int length) {
+		if (_nalBuffer == null || _nalBuffer.length < length) {
+			_nalBuffer = new byte[length];
 		}
-		for (int i = 0; i < sample.length; ++i) {
-			if (i + 2 < sample.length && sample[i] == 0x00 && sample[i + 1] == 0x00 && sample[i + 2] == 0x03) {
-				byteArrayOutputStream.write(sample[i]);
-				byteArrayOutputStream.write(sample[i + 1]);
-				i += 2;
-			} else {
-				byteArrayOutputStream.write(sample[i]);
-			}
+		return _nalBuffer;
+	}
+
+	private byte[] getEscapeBuffer(int length) {
+		if (_escapeBuffer == null || _escapeBuffer.length < length) {
+			_escapeBuffer = new byte[length];
 		}
-		return byteArrayOutputStream.toByteArray();
+		return _escapeBuffer;
 	}
 
 	private void reckonMaxContentToHide() {
-		ByteBuffer currentSampleBuffer;
-		int currentSampleLength;
-		int sliceDataOffset;
+		H264AnalysisIndex analysisIndex = getAnalysisIndex();
 		long ret = 0;
-		float sizeNeededToHideOneByte = (float) Math.ceil((float) BYTE_SIZE / _nbBitToHideInOneByte);
-				
-		if (_sampleList != null) {
-			for (Sample s : _sampleList) {
-				currentSampleBuffer = s.asByteBuffer();
-				while (currentSampleBuffer.hasRemaining()) {
-					currentSampleLength = (int) IsoTypeReaderVariable.read(currentSampleBuffer, _sampleLengthSize);
-					sliceDataOffset = this.getSliceLayerWithoutPartitioningIdrDataOffset((ByteBuffer) currentSampleBuffer.slice().limit(currentSampleLength));		
-					currentSampleBuffer.position(currentSampleBuffer.position() + currentSampleLength);	
 
-					if (sliceDataOffset == -1) {
-						continue;
-					}
-					ret += (currentSampleLength - sliceDataOffset);
-				}			
-			}
-		}		
-		ret -= (8 * sizeNeededToHideOneByte);
-		ret /= Math.floor(sizeNeededToHideOneByte);
-		_maxContentToHide = ret;
+		if (analysisIndex != null) {
+			ret = analysisIndex.getEmbeddableSize();
+		}
+		// the header takes one carrier byte per bit, the payload _nbBitToHideInOneByte bits per byte
+		ret -= LSBHeader.SIZE * BYTE_SIZE;
+		_maxContentToHide = Math.max(0, ret * _nbBitToHideInOneByte / BYTE_SIZE);
 	}
 }
@@ -0,0 +1,334 @@
+package com.mharis7y.hushtalk.h264;
+
+import java.util.Arrays;
+
+import com.mharis7y.hushtalk.tools.IBitReader;
+
+/**
+ * residual_block_cavlc (7.3.5.3.2): coeff_token, trailing ones, levels, total_zeros and
+ * run_before, each variable length code being decoded with table lookups (9.2).
+ * The level and run buffers are reused from one block to the next.
+ */
+public class CavlcResidualParser {
+
+	public static final int NC_CHROMA_DC_420 = -1;
+	public static final int NC_CHROMA_DC_422 = -2;
+
+	private static final int MAX_COEFF_COUNT = 16;
+	private static final int MAX_RUN_BEFORE_TABLE = 7;
+	private static final int LEVEL_PREFIX_PEEK_BITS = 16;
+
+	// Table 9-5, coeff_token by TotalCoeff * 4 + TrailingOnes for 0 <= nC < 2, 2 <= nC < 4,
+	// 4 <= nC < 8 and 8 <= nC
+	private static final int[][] COEFF_TOKEN_LENGTHS = {
+		{
+			1, 0, 0, 0,		6, 2, 0, 0,		8, 6, 3, 0,		9, 8, 7, 5,
+			10, 9, 8, 6,	11, 10, 9, 7,	13, 11, 10, 8,	13, 13, 11, 9,
+			13, 13, 13, 10,	14, 14, 13, 11,	14, 14, 14, 13,	15, 15, 14, 14,
+			15, 15, 15, 14,	16, 15, 15, 15,	16, 16, 16, 15,	16, 16, 16, 16,
+			16, 16, 16, 16
+		}, {
+			2, 0, 0, 0,		6, 2, 0, 0,		6, 5, 3, 0,		7, 6, 6, 4,
+			8, 6, 6, 4,		8, 7, 7, 5,		9, 8, 8, 6,		11, 9, 9, 6,
+			11, 11, 11, 7,	12, 11, 11, 9,	12, 12, 12, 11,	12, 12, 12, 11,
+			13, 13, 13, 12,	13, 13, 13, 13,	13, 14, 13, 13,	14, 14, 14, 13,
+			14, 14, 14, 14
+		}, {
+			4, 0, 0, 0,		6, 4, 0, 0,		6, 5, 4, 0,		6, 5, 5, 4,
+			7, 5, 5, 4,		7, 5, 5, 4,		7, 6, 6, 4,		7, 6, 6, 4,
+			8, 7, 7, 5,		8, 8, 7, 6,		9, 8, 8, 7,		9, 9, 8, 8,
+			9, 9, 9, 8,		10, 9, 9, 9,	10, 10, 10, 10,	10, 10, 10, 10,
+			10, 10, 10, 10
+		}, {
+			6, 0, 0, 0,		6, 6, 0, 0,		6, 6, 6, 0,		6, 6, 6, 6,
+			6, 6, 6, 6,		6, 6, 6, 6,		6, 6, 6, 6,		6, 6, 6, 6,
+			6, 6, 6, 6,		6, 6, 6, 6,		6, 6, 6, 6,		6, 6, 6, 6,
+			6, 6, 6, 6,		6, 6, 6, 6,		6, 6, 6, 6,		6, 6, 6, 6,
+			6, 6, 6, 6
+		}
+	};
+
+	private static final int[][] COEFF_TOKEN_CODES = {
+		{
+			1, 0, 0, 0,		5, 1, 0, 0,		7, 4, 1, 0,		7, 6, 5, 3,
+			7, 6, 5, 3,		7, 6, 5, 4,		15, 6, 5, 4,	11, 14, 5, 4,
+			8, 10, 13, 4,	15, 14, 9, 4,	11, 10, 13, 12,	15, 14, 9, 12,
+			11, 10, 13, 8,	15, 1, 9, 12,	11, 14, 13, 8,	7, 10, 9, 12,
+			4, 6, 5, 8
+		}, {
+			3, 0, 0, 0,		11, 2, 0, 0,	7, 7, 3, 0,		7, 10, 9, 5,
+			7, 6, 5, 4,		4, 6, 5, 6,		7, 6, 5, 8,		15, 6, 5, 4,
+			11, 14, 13, 4,	15, 10, 9, 4,	11, 14, 13, 12,	8, 10, 9, 8,
+			15, 14, 13, 12,	11, 10, 9, 12,	7, 11, 6, 8,	9, 8, 10, 1,
+			7, 6, 5, 4
+		}, {
+			15, 0, 0, 0,	15, 14, 0, 0,	11, 15, 13, 0,	8, 12, 14, 12,
+			15, 10, 11, 11,	11, 8, 9, 10,	9, 14, 13, 9,	8, 10, 9, 8,
+			15, 14, 13, 13,	11, 14, 10, 12,	15, 10, 13, 12,	11, 14, 9, 12,
+			8, 10, 13, 8,	13, 7, 9, 12,	9, 12, 11, 10,	5, 8, 7, 6,
+			1, 4, 3, 2
+		}, {
+			3, 0, 0, 0,		0, 1, 0, 0,		4, 5, 6, 0,		8, 9, 10, 11,
+			12, 13, 14, 15,	16, 17, 18, 19,	20, 21, 22, 23,	24, 25, 26, 27,
+			28, 29, 30, 31,	32, 33, 34, 35,	36, 37, 38, 39,	40, 41, 42, 43,
+			44, 45, 46, 47,	48, 49, 50, 51,	52, 53, 54, 55,	56, 57, 58, 59,
+			60, 61, 62, 63
+		}
+	};
+
+	// Table 9-5, coeff_token for nC == -1 and nC == -2
+	private static final int[] CHROMA_DC_420_COEFF_TOKEN_LENGTHS = {
+		2, 0, 0, 0,		6, 1, 0, 0,		6, 6, 3, 0,		6, 7, 7, 6,		6, 8, 8, 7
+	};
+	private static final int[] CHROMA_DC_420_COEFF_TOKEN_CODES = {
+		1, 0, 0, 0,		7, 1, 0, 0,		4, 6, 1, 0,		3, 3, 2, 5,		2, 3, 2, 0
+	};
+	private static final int[] CHROMA_DC_422_COEFF_TOKEN_LENGTHS = {
+		1, 0, 0, 0,		7, 2, 0, 0,		7, 7, 3, 0,		9, 7, 7, 5,		9, 9, 7, 6,
+		10, 10, 9, 7,	11, 11, 10, 7,	12, 12, 11, 10,	13, 12, 12, 11
+	};
+	private static final int[] CHROMA_DC_422_COEFF_TOKEN_CODES = {
+		1, 0, 0, 0,		15, 1, 0, 0,	14, 13, 1, 0,	7, 12, 11, 1,	6, 5, 10, 1,
+		7, 6, 4, 9,		7, 6, 5, 8,		7, 6, 5, 4,		7, 5, 4, 4
+	};
+
+	// Tables 9-7 and 9-8, total_zeros of 4x4 blocks by TotalCoeff - 1
+	private static final int[][] TOTAL_ZEROS_LENGTHS = {
+		{1, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 9},
+		{3, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 6, 6, 6, 6},
+		{4, 3, 3, 3, 4, 4, 3, 3, 4, 5, 5, 6, 5, 6},
+		{5, 3, 4, 4, 3, 3, 3, 4, 3, 4, 5, 5, 5},
+		{4, 4, 4, 3, 3, 3, 3, 3, 4, 5, 4, 5},
+		{6, 5, 3, 3, 3, 3, 3, 3, 4, 3, 6},
+		{6, 5, 3, 3, 3, 2, 3, 4, 3, 6},
+		{6, 4, 5, 3, 2, 2, 3, 3, 6},
+		{6, 6, 4, 2, 2, 3, 2, 5},
+		{5, 5, 3, 2, 2, 2, 4},
+		{4, 4, 3, 3, 1, 3},
+		{4, 4, 2, 1, 3},
+		{3, 3, 1, 2},
+		{2, 2, 1},
+		{1, 1}
+	};
+	private static final int[][] TOTAL_ZEROS_CODES = {
+		{1, 3, 2, 3, 2, 3, 2, 3, 2, 3, 2, 3, 2, 3, 2, 1},
+		{7, 6, 5, 4, 3, 5, 4, 3, 2, 3, 2, 3, 2, 1, 0},
+		{5, 7, 6, 5, 4, 3, 4, 3, 2, 3, 2, 1, 1, 0},
+		{3, 7, 5, 4, 6, 5, 4, 3, 3, 2, 2, 1, 0},
+		{5, 4, 3, 7, 6, 5, 4, 3, 2, 1, 1, 0},
+		{1, 1, 7, 6, 5, 4, 3, 2, 1, 1, 0},
+		{1, 1, 5, 4, 3, 3, 2, 1, 1, 0},
+		{1, 1, 1, 3, 3, 2, 2, 1, 0},
+		{1, 0, 1, 3, 2, 1, 1, 1},
+		{1, 0, 1, 3, 2, 1, 1},
+		{0, 1, 1, 2, 1, 3},
+		{0, 1, 1, 1, 1},
+		{0, 1, 1, 1},
+		{0, 1, 1},
+		{0, 1}
+	};
+
+	// Table 9-9, total_zeros of chroma DC blocks by TotalCoeff - 1
+	private static final int[][] CHROMA_DC_420_TOTAL_ZEROS_LENGTHS = {
+		{1, 2, 3, 3}, {1, 2, 2}, {1, 1}
+	};
+	private static final int[][] CHROMA_DC_420_TOTAL_ZEROS_CODES = {
+		{1, 1, 1, 0}, {1, 1, 0}, {1, 0}
+	};
+	private static final int[][] CHROMA_DC_422_TOTAL_ZEROS_LENGTHS = {
+		{1, 3, 3, 4, 4, 4, 5, 5},
+		{3, 2, 3, 3, 3, 3, 3},
+		{3, 3, 2, 2, 3, 3},
+		{3, 2, 2, 2, 3},
+		{2, 2, 2, 2},
+		{2, 2, 1},
+		{1, 1}
+	};
+	private static final int[][] CHROMA_DC_422_TOTAL_ZEROS_CODES = {
+		{1, 2, 3, 2, 3, 1, 1, 0},
+		{0, 1, 1, 4, 5, 6, 7},
+		{0, 1, 1, 2, 6, 7},
+		{6, 0, 1, 2, 7},
+		{0, 1, 2, 3},
+		{0, 1, 1},
+		{0, 1}
+	};
+
+	// Table 9-10, run_before by Min(zerosLeft, 7) - 1
+	private static final int[][] RUN_BEFORE_LENGTHS = {
+		{1, 1},
+		{1, 2, 2},
+		{2, 2, 2, 2},
+		{2, 2, 2, 3, 3},
+		{2, 2, 3, 3, 3, 3},
+		{2, 3, 3, 3, 3, 3, 3},
+		{3, 3, 3, 3, 3, 3, 3, 4, 5, 6, 7, 8, 9, 10, 11}
+	};
+	private static final int[][] RUN_BEFORE_CODES = {
+		{1, 0},
+		{1, 1, 0},
+		{3, 2, 1, 0},
+		{3, 2, 1, 1, 0},
+		{3, 2, 3, 2, 1, 0},
+		{3, 0, 1, 3, 2, 5, 4},
+		{7, 6, 5, 4, 3, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1}
+	};
+
+	private static final VlcTable[] COEFF_TOKEN_TABLES = createTables(COEFF_TOKEN_LENGTHS, COEFF_TOKEN_CODES);
+	private static final VlcTable CHROMA_DC_420_COEFF_TOKEN_TABLE = new VlcTable(CHROMA_DC_420_COEFF_TOKEN_LENGTHS, CHROMA_DC_420_COEFF_TOKEN_CODES);
+	private static final VlcTable CHROMA_DC_422_COEFF_TOKEN_TABLE = new VlcTable(CHROMA_DC_422_COEFF_TOKEN_LENGTHS, CHROMA_DC_422_COEFF_TOKEN_CODES);
+	private static final VlcTable[] TOTAL_ZEROS_TABLES = createTables(TOTAL_ZEROS_LENGTHS, TOTAL_ZEROS_CODES);
+	private static final VlcTable[] CHROMA_DC_420_TOTAL_ZEROS_TABLES = createTables(CHROMA_DC_420_TOTAL_ZEROS_LENGTHS, CHROMA_DC_420_TOTAL_ZEROS_CODES);
+	private static final VlcTable[] CHROMA_DC_422_TOTAL_ZEROS_TABLES = createTables(CHROMA_DC_422_TOTAL_ZEROS_LENGTHS, CHROMA_DC_422_TOTAL_ZEROS_CODES);
+	private static final VlcTable[] RUN_BEFORE_TABLES = createTables(RUN_BEFORE_LENGTHS, RUN_BEFORE_CODES);
+
+	private int[] _levelVal;
+	private int[] _runVal;
+
+	public CavlcResidualParser() {
+		_levelVal = new int[MAX_COEFF_COUNT];
+		_runVal = new int[MAX_COEFF_COUNT];
+	}
+
+	/**
+	 * Parses residual_block_cavlc(coeffLevel, startIdx, endIdx, maxNumCoeff).
+	 * @param coeffLevel receives the coefficients from startIdx to endIdx, may be null when
+	 * only the position in the data matters
+	 * @param nC coeff_token context, NC_CHROMA_DC_420 or NC_CHROMA_DC_422 for chroma DC
+	 * @return TotalCoeff(coeff_token)
+	 */
+	public int parseResidualBlock(IBitReader bitBufferReader, int[] coeffLevel, int startIdx, int endIdx, int maxNumCoeff, int nC) {
+		int coeffToken = getCoeffTokenTable(nC).read(bitBufferReader);
+		int totalCoeff = coeffToken >> 2;
+		int trailingOnes = coeffToken & 3;
+		int zerosLeft = 0;
+		int coeffNum = -1;
+
+		if (coeffLevel != null) {
+			Arrays.fill(coeffLevel, startIdx, Math.min(coeffLevel.length, endIdx + 1), 0);
+		}
+		if (totalCoeff == 0) {
+			return 0;
+		}
+		if (totalCoeff > maxNumCoeff) {
+			throw new IllegalStateException("Invalid coeff_token " + totalCoeff + " for " + maxNumCoeff + " coefficients");
+		}
+
+		readLevels(bitBufferReader, totalCoeff, trailingOnes);
+		if (totalCoeff < endIdx - startIdx + 1) {
+			zerosLeft = getTotalZerosTable(maxNumCoeff, totalCoeff).read(bitBufferReader);
+		}
+		for (int i = 0; i < totalCoeff - 1; ++i) {
+			if (zerosLeft > 0) {
+				_runVal[i] = RUN_BEFORE_TABLES[Math.min(zerosLeft, MAX_RUN_BEFORE_TABLE) - 1].read(bitBufferReader);
+				zerosLeft -= _runVal[i];
+			} else {
+				_runVal[i] = 0;
+			}
+		}
+		if (zerosLeft < 0) {
+			throw new IllegalStateException("Invalid run_before");
+		}
+		_runVal[totalCoeff - 1] = zerosLeft;
+
+		for (int i = totalCoeff - 1; i >= 0; i--) {
+			coeffNum += _runVal[i] + 1;
+			if (coeffLevel != null && startIdx + coeffNum < coeffLevel.length) {
+				coeffLevel[startIdx + coeffNum] = _levelVal[i];
+			}
+		}
+		return totalCoeff;
+	}
+
+	// Private methods
+	// 9.2.2.1
+	private void readLevels(IBitReader bitBufferReader, int totalCoeff, int trailingOnes) {
+		int suffixLength = (totalCoeff > 10 && trailingOnes < 3 ? 1 : 0);
+		int levelPrefix;
+		int levelSuffixSize;
+		int levelCode;
+
+		for (int i = 0; i < totalCoeff; ++i) {
+			if (i < trailingOnes) {
+				_levelVal[i] = 1 - 2 * (int) bitBufferReader.readNBits(1);
+				continue;
+			}
+			levelPrefix = readLevelPrefix(bitBufferReader);
+			levelCode = (Math.min(15, levelPrefix) << suffixLength);
+			levelSuffixSize = (levelPrefix == 14 && suffixLength == 0 ? 4 : (levelPrefix >= 15 ? levelPrefix - 3 : suffixLength));
+			if (levelSuffixSize > 0) {
+				levelCode += (int) bitBufferReader.readNBits(levelSuffixSize);
+			}
+			if (levelPrefix >= 15 && suffixLength == 0) {
+				levelCode += 15;
+			}
+			if (levelPrefix >= 16) {
+				levelCode += (1 << (levelPrefix - 3)) - 4096;
+			}
+			if (i == trailingOnes && trailingOnes < 3) {
+				levelCode += 2;
+			}
+			_levelVal[i] = ((levelCode & 1) == 0 ? (levelCode + 2) >> 1 : (-levelCode - 1) >> 1);
+
+			if (suffixLength == 0) {
+				suffixLength = 1;
+			}
+			if (Math.abs(_levelVal[i]) > (3 << (suffixLength - 1)) && suffixLength < 6) {
+				suffixLength++;
+			}
+		}
+	}
+
+	// Number of leading zero bits before the first one
+	private int readLevelPrefix(IBitReader bitBufferReader) {
+		int bits = bitBufferReader.peekNBits(LEVEL_PREFIX_PEEK_BITS);
+		int levelPrefix;
+
+		if (bits != 0) {
+			levelPrefix = Integer.numberOfLeadingZeros(bits) - (Integer.SIZE - LEVEL_PREFIX_PEEK_BITS);
+			bitBufferReader.readNBits(levelPrefix + 1);
+			return levelPrefix;
+		}
+		bitBufferReader.readNBits(LEVEL_PREFIX_PEEK_BITS);
+		levelPrefix = LEVEL_PREFIX_PEEK_BITS;
+		while (bitBufferReader.readNBits(1) == 0) {
+			if (++levelPrefix > Integer.SIZE || !bitBufferReader.hasMoreData()) {
+				throw new IllegalStateException("Invalid level_prefix");
+			}
+		}
+		return levelPrefix;
+	}
+
+	private VlcTable getCoeffTokenTable(int nC) {
+		if (nC == NC_CHROMA_DC_420) {
+			return CHROMA_DC_420_COEFF_TOKEN_TABLE;
+		} else if (nC == NC_CHROMA_DC_422) {
+			return CHROMA_DC_422_COEFF_TOKEN_TABLE;
+		} else if (nC < 2) {
+			return COEFF_TOKEN_TABLES[0];
+		} else if (nC < 4) {
+			return COEFF_TOKEN_TABLES[1];
+		} else if (nC < 8) {
+			return COEFF_TOKEN_TABLES[2];
+		}
+		return COEFF_TOKEN_TABLES[3];
+	}
+
+	private VlcTable getTotalZerosTable(int maxNumCoeff, int totalCoeff) {
+		if (maxNumCoeff == 4) {
+			return CHROMA_DC_420_TOTAL_ZEROS_TABLES[totalCoeff - 1];
+		} else if (maxNumCoeff == 8) {
+			return CHROMA_DC_422_TOTAL_ZEROS_TABLES[totalCoeff - 1];
+		}
+		return TOTAL_ZEROS_TABLES[totalCoeff - 1];
+	}
+
+	private static VlcTable[] createTables(int[][] lengths, int[][] codes) {
+		VlcTable[] tables = new VlcTable[lengths.length];
+
+		for (int i = 0; i < lengths.length; ++i) {
+			tables[i] = new VlcTable(lengths[i], codes[i]);
+		}
+		return tables;
+	}
+}
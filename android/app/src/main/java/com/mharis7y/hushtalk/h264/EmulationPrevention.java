@@ -0,0 +1,116 @@
+package com.mharis7y.hushtalk.h264;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Emulation prevention of NAL units (7.4.1): an 0x03 byte is inserted after every two zero
+ * bytes followed by a byte lower than or equal to 0x03, and after a final zero pair.
+ * The data is scanned 8 bytes at a time, and words without zero bytes are copied in bulk.
+ * Output goes to a caller provided buffer, which may be the input buffer when unescaping:
+ * unescaping writes from index 0 and never overtakes its reads.
+ */
+public final class EmulationPrevention {
+
+	private static final int LONG_SIZE = 8;
+	private static final long LOW_BITS = 0x0101010101010101L;
+	private static final long HIGH_BITS = 0x8080808080808080L;
+	private static final byte EMULATION_PREVENTION_BYTE = 0x03;
+
+	private EmulationPrevention() {
+	}
+
+	/**
+	 * @return the size of a buffer large enough for length escaped bytes
+	 */
+	public static int getMaxEscapedLength(int length) {
+		return length + length / 2 + 1;
+	}
+
+	/**
+	 * @param precedingZeroCount number of zero bytes, up to 2, right before src in the NAL unit
+	 * @param dst buffer of at least getMaxEscapedLength(length) bytes, written from 0
+	 * @return the number of bytes written to dst
+	 */
+	public static int escape(byte[] src, int offset, int length, int precedingZeroCount, byte[] dst) {
+		ByteBuffer words = ByteBuffer.wrap(src);
+		int end = offset + length;
+		int zeroCount = Math.min(precedingZeroCount, 2);
+		int runStart = offset;
+		int written = 0;
+		int i = offset;
+
+		while (i < end) {
+			if (zeroCount == 0 && i + LONG_SIZE <= end && !hasZeroByte(words.getLong(i))) {
+				i += LONG_SIZE;
+				continue;
+			}
+			if (zeroCount == 2 && (src[i] & 0xFF) <= EMULATION_PREVENTION_BYTE) {
+				System.arraycopy(src, runStart, dst, written, i - runStart);
+				written += i - runStart;
+				dst[written++] = EMULATION_PREVENTION_BYTE;
+				runStart = i;
+				zeroCount = 0;
+			}
+			zeroCount = (src[i] == 0 ? zeroCount + 1 : 0);
+			i++;
+		}
+		System.arraycopy(src, runStart, dst, written, end - runStart);
+		written += end - runStart;
+		// a trailing cabac_zero_word is escaped too
+		if (zeroCount == 2) {
+			dst[written++] = EMULATION_PREVENTION_BYTE;
+		}
+		return written;
+	}
+
+	/**
+	 * @param precedingZeroCount number of zero bytes, up to 2, right before src in the NAL unit
+	 * @param dst buffer of at least length bytes written from 0. dst may be src, whatever the
+	 * offset, writes never overtake reads
+	 * @return the number of bytes written to dst
+	 */
+	public static int unescape(byte[] src, int offset, int length, int precedingZeroCount, byte[] dst) {
+		ByteBuffer words = ByteBuffer.wrap(src);
+		int end = offset + length;
+		int zeroCount = Math.min(precedingZeroCount, 2);
+		int runStart = offset;
+		int written = 0;
+		int i = offset;
+
+		while (i < end) {
+			if (zeroCount == 0 && i + LONG_SIZE <= end && !hasZeroByte(words.getLong(i))) {
+				i += LONG_SIZE;
+				continue;
+			}
+			if (zeroCount == 2 && src[i] == EMULATION_PREVENTION_BYTE) {
+				System.arraycopy(src, runStart, dst, written, i - runStart);
+				written += i - runStart;
+				runStart = i + 1;
+				zeroCount = 0;
+				i++;
+				continue;
+			}
+			zeroCount = (src[i] == 0 ? zeroCount + 1 : 0);
+			i++;
+		}
+		System.arraycopy(src, runStart, dst, written, end - runStart);
+		return written + end - runStart;
+	}
+
+	/**
+	 * @return the number of zero bytes, up to 2, ending src before end
+	 */
+	public static int countTrailingZeros(byte[] src, int offset, int end) {
+		int count = 0;
+
+		while (count < 2 && end - count > offset && src[end - count - 1] == 0) {
+			count++;
+		}
+		return count;
+	}
+
+	// Private methods
+	private static boolean hasZeroByte(long word) {
+		return ((word - LOW_BITS) & ~word & HIGH_BITS) != 0;
+	}
+}
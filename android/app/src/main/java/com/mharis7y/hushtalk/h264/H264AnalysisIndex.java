@@ -0,0 +1,464 @@
+package com.mharis7y.hushtalk.h264;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.coremedia.iso.IsoTypeReaderVariable;
+import com.googlecode.mp4parser.authoring.Sample;
+
+/**
+ * Result of a single parsing pass over the samples of an H264 track: for every NAL unit of
+ * every sample, its position and length in the sample, its type and the offset of its slice
+ * data, -1 if it cannot carry data. Capacity, embedding and extraction read it instead of
+ * parsing the NAL units again, and it can be saved beside the media file.
+ */
+public class H264AnalysisIndex {
+
+	private static final int FILE_MAGIC = 0x48324958; // "H2IX"
+	private static final int FILE_VERSION = 2;
+	private static final long HASH_OFFSET_BASIS = 0xCBF29CE484222325L; // 64-bit FNV-1a
+	private static final long HASH_PRIME = 0x100000001B3L;
+	// 5 = slice layer without partitioning IDR
+	private static final int NAL_UNIT_TYPE_IDR = 5;
+	private static final int NAL_UNIT_TYPE_SPS = 7;
+	private static final int NAL_UNIT_TYPE_PPS = 8;
+	private static final int PARALLEL_BATCH_SIZE = 4096; // samples buffered per parallel pass
+
+	private int[] _firstNals;
+	private int[] _nalPositions;
+	private int[] _nalLengths;
+	private byte[] _nalUnitTypes;
+	private int[] _sliceDataOffsets;
+	private int _nalCount;
+	private long _sampleDataSize;
+	private long _sampleTableHash;
+	private int _sampleLengthSize;
+	private long _embeddableSize;
+
+	private H264AnalysisIndex(int sampleCount, int nalCapacity, int sampleLengthSize) {
+		_firstNals = new int[sampleCount + 1];
+		_nalPositions = new int[nalCapacity];
+		_nalLengths = new int[nalCapacity];
+		_nalUnitTypes = new byte[nalCapacity];
+		_sliceDataOffsets = new int[nalCapacity];
+		_nalCount = 0;
+		_sampleDataSize = 0;
+		_sampleTableHash = HASH_OFFSET_BASIS;
+		_sampleLengthSize = sampleLengthSize;
+		_embeddableSize = 0;
+	}
+
+	/**
+	 * @param samples samples of the track, each made of NAL units prefixed by their length
+	 * @param sampleLengthSize size in bytes of the NAL unit length prefix
+	 * @param parameterSets parameter sets of the track, in band ones are added as they are met
+	 */
+	public static H264AnalysisIndex build(List<Sample> samples, int sampleLengthSize, ParameterSetRegistry parameterSets) {
+		H264AnalysisIndex index = new H264AnalysisIndex(samples.size(), samples.size() + 16, sampleLengthSize);
+		int sampleIndex = 0;
+
+		for (Sample sample : samples) {
+			index.addSample(sampleIndex++, sample.asByteBuffer(), sampleLengthSize, parameterSets);
+		}
+		index._firstNals[sampleIndex] = index._nalCount;
+		return index;
+	}
+
+	/**
+	 * Builds the same index as build, the samples being parsed concurrently. Samples are read
+	 * by batch on the calling thread, since sample lists are not thread safe, then split
+	 * between the threads of a pool, each with its own parsers. In band parameter sets are
+	 * found beforehand, so each thread starts from the parameter sets in use at its first
+	 * sample, and they are added to parameterSets in stream order.
+	 */
+	public static H264AnalysisIndex buildParallel(List<Sample> samples, int sampleLengthSize, ParameterSetRegistry parameterSets) {
+		int sampleCount = samples.size();
+		H264AnalysisIndex index = new H264AnalysisIndex(sampleCount, sampleCount + 16, sampleLengthSize);
+		ForkJoinPool pool = new ForkJoinPool();
+		ByteBuffer[] sampleBuffers = new ByteBuffer[Math.min(PARALLEL_BATCH_SIZE, sampleCount)];
+		ParameterSetRegistry[] sampleParameterSets = new ParameterSetRegistry[sampleBuffers.length];
+		ParameterSetRegistry batchParameterSets;
+		AnalysisTask task;
+		int batchLength;
+
+		try {
+			for (int batchStart = 0; batchStart < sampleCount; batchStart += batchLength) {
+				batchLength = Math.min(sampleBuffers.length, sampleCount - batchStart);
+				batchParameterSets = new ParameterSetRegistry(parameterSets);
+				for (int i = 0; i < batchLength; ++i) {
+					sampleBuffers[i] = samples.get(batchStart + i).asByteBuffer();
+					sampleParameterSets[i] = batchParameterSets;
+					if (addParameterSets(sampleBuffers[i].duplicate(), sampleLengthSize, parameterSets)) {
+						batchParameterSets = new ParameterSetRegistry(parameterSets);
+					}
+				}
+				task = new AnalysisTask(sampleBuffers, sampleParameterSets, sampleLengthSize, 0, batchLength);
+				pool.invoke(task);
+				task.merge(index, batchStart);
+				for (int i = 0; i < batchLength; ++i) {
+					sampleBuffers[i] = null;
+					sampleParameterSets[i] = null;
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		index._firstNals[sampleCount] = index._nalCount;
+		return index;
+	}
+
+	/**
+	 * @return the slice data offset in nal of an IDR slice without partitioning, -1 for the
+	 * other NAL units. Only the NAL and slice headers are read, the slice data is never unescaped.
+	 */
+	public static int getSliceDataOffset(ByteBuffer nal, ParameterSetRegistry parameterSets) {
+		NaluParser parser = new NaluParser();
+		RbspBitReader rbspReader;
+		SliceParser sliceParser;
+
+		rbspReader = parser.parseNaluHeader(nal);
+		if (parser.getNalUnitType() != NAL_UNIT_TYPE_IDR) {
+			return -1;
+		}
+		sliceParser = new SliceParser(parameterSets, parser.getNalUnitType(), parser.getNalRefIdc());
+		sliceParser.parseHeader(rbspReader);
+		return rbspReader.getNalOffset(sliceParser.getSliceDataOffset());
+	}
+
+	/**
+	 * @param sampleSizes size of every sample of the track
+	 * @return the index saved in file, or null if it is missing, unreadable, inconsistent or
+	 * does not describe samples of these sizes
+	 */
+	public static H264AnalysisIndex read(File file, int[] sampleSizes, int sampleLengthSize) {
+		DataInputStream input = null;
+		H264AnalysisIndex index;
+		long sampleDataSize = 0;
+		long sampleTableHash = HASH_OFFSET_BASIS;
+		int sampleCount = sampleSizes.length;
+		int nalCount;
+
+		if (file == null || !file.isFile()) {
+			return null;
+		}
+		for (int sampleSize : sampleSizes) {
+			sampleDataSize += sampleSize;
+			sampleTableHash = hashSampleSize(sampleTableHash, sampleSize);
+		}
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION
+					|| input.readInt() != sampleCount || input.readLong() != sampleDataSize
+					|| input.readLong() != sampleTableHash || input.readInt() != sampleLengthSize) {
+				return null;
+			}
+			nalCount = input.readInt();
+			// every NAL unit is prefixed by its length in the samples
+			if (nalCount < 0 || nalCount > sampleDataSize / sampleLengthSize) {
+				return null;
+			}
+			index = new H264AnalysisIndex(sampleCount, nalCount, sampleLengthSize);
+			index._nalCount = nalCount;
+			index._sampleDataSize = sampleDataSize;
+			index._sampleTableHash = sampleTableHash;
+			for (int i = 0; i <= sampleCount; ++i) {
+				index._firstNals[i] = input.readInt();
+			}
+			for (int i = 0; i < nalCount; ++i) {
+				index._nalPositions[i] = input.readInt();
+				index._nalLengths[i] = input.readInt();
+				index._nalUnitTypes[i] = input.readByte();
+				index._sliceDataOffsets[i] = input.readInt();
+				index._embeddableSize += index.getEmbeddableSize(i);
+			}
+			return (index.isConsistent(sampleSizes) ? index : null);
+		} catch (IOException e) {
+			System.err.println("[H264 Analysis Index]: Unable to read the index: " + e.getMessage());
+			return null;
+		} finally {
+			close(input);
+		}
+	}
+
+	public boolean write(File file) {
+		DataOutputStream output = null;
+
+		try {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			output.writeInt(FILE_MAGIC);
+			output.writeInt(FILE_VERSION);
+			output.writeInt(getSampleCount());
+			output.writeLong(_sampleDataSize);
+			output.writeLong(_sampleTableHash);
+			output.writeInt(_sampleLengthSize);
+			output.writeInt(_nalCount);
+			for (int firstNal : _firstNals) {
+				output.writeInt(firstNal);
+			}
+			for (int i = 0; i < _nalCount; ++i) {
+				output.writeInt(_nalPositions[i]);
+				output.writeInt(_nalLengths[i]);
+				output.writeByte(_nalUnitTypes[i]);
+				output.writeInt(_sliceDataOffsets[i]);
+			}
+			return true;
+		} catch (IOException e) {
+			System.err.println("[H264 Analysis Index]: Unable to write the index: " + e.getMessage());
+			return false;
+		} finally {
+			close(output);
+		}
+	}
+
+	public int getSampleCount() {
+		return _firstNals.length - 1;
+	}
+
+	/**
+	 * @return the index of the first NAL unit of the sample, the NAL units of a sample are
+	 * numbered from getFirstNal(sample) to getFirstNal(sample + 1) excluded
+	 */
+	public int getFirstNal(int sample) {
+		return _firstNals[sample];
+	}
+
+	public int getNalCount() {
+		return _nalCount;
+	}
+
+	/**
+	 * @return the offset in its sample of the NAL unit, after its length prefix
+	 */
+	public int getNalPosition(int nal) {
+		return _nalPositions[nal];
+	}
+
+	public int getNalLength(int nal) {
+		return _nalLengths[nal];
+	}
+
+	public int getNalUnitType(int nal) {
+		return _nalUnitTypes[nal];
+	}
+
+	/**
+	 * @return the offset of the slice data in the NAL unit, -1 if it cannot carry data
+	 */
+	public int getSliceDataOffset(int nal) {
+		return _sliceDataOffsets[nal];
+	}
+
+	public int getEmbeddableSize(int nal) {
+		return (_sliceDataOffsets[nal] == -1 ? 0 : _nalLengths[nal] - _sliceDataOffsets[nal]);
+	}
+
+	/**
+	 * @return the number of slice data bytes of every NAL unit able to carry data
+	 */
+	public long getEmbeddableSize() {
+		return _embeddableSize;
+	}
+
+	public boolean hasEmbeddableNal(int sample) {
+		for (int i = _firstNals[sample]; i < _firstNals[sample + 1]; ++i) {
+			if (_sliceDataOffsets[i] != -1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Private methods
+	private void addSample(int sampleIndex, ByteBuffer sampleBuffer, int sampleLengthSize, ParameterSetRegistry parameterSets) {
+		int nalLength;
+		int nalPosition;
+
+		_firstNals[sampleIndex] = _nalCount;
+		_sampleDataSize += sampleBuffer.remaining();
+		_sampleTableHash = hashSampleSize(_sampleTableHash, sampleBuffer.remaining());
+		while (sampleBuffer.remaining() > sampleLengthSize) {
+			nalLength = (int) IsoTypeReaderVariable.read(sampleBuffer, sampleLengthSize);
+			nalLength = Math.min(nalLength, sampleBuffer.remaining());
+			nalPosition = sampleBuffer.position();
+			addNal(nalPosition, nalLength, (ByteBuffer) sampleBuffer.slice().limit(nalLength), parameterSets);
+			sampleBuffer.position(nalPosition + nalLength);
+		}
+	}
+
+	/**
+	 * Adds the parameter sets of the sample to parameterSets, only the first byte of the other
+	 * NAL units is read.
+	 * @return true if the sample holds a parameter set
+	 */
+	private static boolean addParameterSets(ByteBuffer sampleBuffer, int sampleLengthSize, ParameterSetRegistry parameterSets) {
+		boolean found = false;
+		int nalLength;
+		int nalPosition;
+		int nalUnitType;
+
+		while (sampleBuffer.remaining() > sampleLengthSize) {
+			nalLength = (int) IsoTypeReaderVariable.read(sampleBuffer, sampleLengthSize);
+			nalLength = Math.min(nalLength, sampleBuffer.remaining());
+			nalPosition = sampleBuffer.position();
+			nalUnitType = (nalLength > 0 ? sampleBuffer.get(nalPosition) & 0x1F : 0);
+			if (nalUnitType == NAL_UNIT_TYPE_SPS || nalUnitType == NAL_UNIT_TYPE_PPS) {
+				parameterSets.addNal((ByteBuffer) sampleBuffer.slice().limit(nalLength));
+				found = true;
+			}
+			sampleBuffer.position(nalPosition + nalLength);
+		}
+		return found;
+	}
+
+	private void addNal(int position, int length, ByteBuffer nal, ParameterSetRegistry parameterSets) {
+		int nalUnitType = (length > 0 ? nal.get(0) & 0x1F : 0);
+		int sliceDataOffset = -1;
+
+		if (length > 0) {
+			try {
+				if (nalUnitType == NAL_UNIT_TYPE_SPS || nalUnitType == NAL_UNIT_TYPE_PPS) {
+					// in band parameter sets apply to the slices which follow them
+					parameterSets.addNal(nal);
+				} else {
+					sliceDataOffset = getSliceDataOffset(nal, parameterSets);
+				}
+			} catch (RuntimeException e) {
+				// truncated or unsupported slice header, the NAL unit is left untouched
+				System.err.println("[H264 Analysis Index]: Unable to parse NAL unit: " + e.getMessage());
+			}
+			if (sliceDataOffset > length) {
+				sliceDataOffset = -1;
+			}
+		}
+		appendNal(position, length, nalUnitType, sliceDataOffset);
+	}
+
+	private void appendNal(int position, int length, int nalUnitType, int sliceDataOffset) {
+		if (_nalCount == _nalPositions.length) {
+			_nalPositions = Arrays.copyOf(_nalPositions, _nalCount * 2);
+			_nalLengths = Arrays.copyOf(_nalLengths, _nalCount * 2);
+			_nalUnitTypes = Arrays.copyOf(_nalUnitTypes, _nalCount * 2);
+			_sliceDataOffsets = Arrays.copyOf(_sliceDataOffsets, _nalCount * 2);
+		}
+		_nalPositions[_nalCount] = position;
+		_nalLengths[_nalCount] = length;
+		_nalUnitTypes[_nalCount] = (byte) nalUnitType;
+		_sliceDataOffsets[_nalCount] = sliceDataOffset;
+		_embeddableSize += getEmbeddableSize(_nalCount);
+		_nalCount++;
+	}
+
+	// The NAL units of every sample follow each other inside the sample
+	private boolean isConsistent(int[] sampleSizes) {
+		int nal;
+
+		if (_firstNals[0] != 0 || _firstNals[sampleSizes.length] != _nalCount) {
+			return false;
+		}
+		for (int sample = 0; sample < sampleSizes.length; ++sample) {
+			if (_firstNals[sample + 1] < _firstNals[sample] || _firstNals[sample + 1] > _nalCount) {
+				return false;
+			}
+			for (nal = _firstNals[sample]; nal < _firstNals[sample + 1]; ++nal) {
+				if (_nalPositions[nal] < _sampleLengthSize || _nalLengths[nal] < 0
+						|| (long) _nalPositions[nal] + _nalLengths[nal] > sampleSizes[sample]
+						|| _sliceDataOffsets[nal] < -1 || _sliceDataOffsets[nal] > _nalLengths[nal]) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static long hashSampleSize(long hash, int sampleSize) {
+		return (hash ^ sampleSize) * HASH_PRIME;
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				System.err.println("[H264 Analysis Index]: Unable to close file: " + e.getMessage());
+			}
+		}
+	}
+
+	private static class AnalysisTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private static final int SPLIT_THRESHOLD = 64;
+
+		private final ByteBuffer[] _sampleBuffers;
+		private final ParameterSetRegistry[] _sampleParameterSets;
+		private final int _sampleLengthSize;
+		private final int _start;
+		private final int _end;
+
+		private AnalysisTask _left;
+		private AnalysisTask _right;
+		private H264AnalysisIndex _index;
+
+		/**
+		 * @param sampleParameterSets parameter sets in use at the start of each sample
+		 */
+		AnalysisTask(ByteBuffer[] sampleBuffers, ParameterSetRegistry[] sampleParameterSets, int sampleLengthSize, int start, int end) {
+			_sampleBuffers = sampleBuffers;
+			_sampleParameterSets = sampleParameterSets;
+			_sampleLengthSize = sampleLengthSize;
+			_start = start;
+			_end = end;
+		}
+
+		@Override
+		protected void compute() {
+			ParameterSetRegistry parameterSets;
+			int middle;
+
+			if (_end - _start > SPLIT_THRESHOLD) {
+				middle = (_start + _end) >>> 1;
+				_left = new AnalysisTask(_sampleBuffers, _sampleParameterSets, _sampleLengthSize, _start, middle);
+				_right = new AnalysisTask(_sampleBuffers, _sampleParameterSets, _sampleLengthSize, middle, _end);
+				invokeAll(_left, _right);
+				return;
+			}
+			// in band parameter sets are added again to a copy shared by no other task
+			parameterSets = new ParameterSetRegistry(_sampleParameterSets[_start]);
+			_index = new H264AnalysisIndex(_end - _start, (_end - _start) * 2, _sampleLengthSize);
+			for (int i = _start; i < _end; ++i) {
+				_index.addSample(i - _start, _sampleBuffers[i].duplicate(), _sampleLengthSize, parameterSets);
+			}
+			_index._firstNals[_end - _start] = _index._nalCount;
+		}
+
+		// Appends the partial indexes to index in sample order
+		void merge(H264AnalysisIndex index, int batchStart) {
+			if (_index == null) {
+				_left.merge(index, batchStart);
+				_right.merge(index, batchStart);
+				return;
+			}
+			for (int i = _start; i < _end; ++i) {
+				index._firstNals[batchStart + i] = index._nalCount;
+				index._sampleDataSize += _sampleBuffers[i].remaining();
+				index._sampleTableHash = hashSampleSize(index._sampleTableHash, _sampleBuffers[i].remaining());
+				for (int nal = _index._firstNals[i - _start]; nal < _index._firstNals[i - _start + 1]; ++nal) {
+					index.appendNal(_index._nalPositions[nal], _index._nalLengths[nal], _index._nalUnitTypes[nal], _index._sliceDataOffsets[nal]);
+				}
+			}
+			_index = null;
+		}
+	}
+}
@@ -3,7 +3,7 @@ package com.mharis7y.hushtalk.h264;
 import java.util.ArrayList;
 import java.util.List;
 
-import com.mharis7y.hushtalk.tools.BitBufferReader;
+import com.mharis7y.hushtalk.tools.IBitReader;
 import com.mharis7y.hushtalk.tools.Pair;
 
 public class MacroblockLayerParser {
@@ -19,12 +19,38 @@ public class MacroblockLayerParser {
 		Pred_L1
 	}
 	
+	// SI macroblock of SI slices (Table 7-12), Intra_4x4 predicted but not an I_NxN one
+	private static final int MB_TYPE_SI = 26;
+
+	// Table 9-4, coded_block_pattern by codeNum for ChromaArrayType 1 or 2, then 0 or 3
+	private static final int[] CODED_BLOCK_PATTERN_INTRA = {
+		47, 31, 15, 0, 23, 27, 29, 30, 7, 11, 13, 14, 39, 43, 45, 46,
+		16, 3, 5, 10, 12, 19, 21, 26, 28, 35, 37, 42, 44, 1, 2, 4,
+		8, 17, 18, 20, 24, 6, 9, 22, 25, 32, 33, 34, 36, 40, 38, 41
+	};
+	private static final int[] CODED_BLOCK_PATTERN_INTER = {
+		0, 16, 1, 2, 4, 8, 32, 3, 5, 10, 12, 15, 47, 7, 11, 13,
+		14, 6, 9, 31, 35, 37, 42, 44, 33, 34, 36, 40, 39, 43, 45, 46,
+		17, 18, 20, 24, 19, 21, 26, 28, 23, 27, 29, 30, 22, 25, 38, 41
+	};
+	private static final int[] CODED_BLOCK_PATTERN_INTRA_MONOCHROME = {
+		15, 0, 7, 11, 13, 14, 3, 5, 10, 12, 1, 2, 4, 8, 6, 9
+	};
+	private static final int[] CODED_BLOCK_PATTERN_INTER_MONOCHROME = {
+		0, 1, 2, 4, 8, 3, 5, 10, 12, 15, 7, 11, 13, 14, 6, 9
+	};
+	
 	private SeqParameterSetParser _seqParameterSetParser;
 	private PictureParameterSetParser _pictureParameterSetParser;
 	private int _sliceType;
 	private int _fieldPicFlag;
 	private int _mbFieldDecodingFlag;
 	private List<Pair<Integer, Integer>> _macroblockResidualOffset;
+	private int _numRefIdxL0ActiveMinus1;
+	private int _numRefIdxL1ActiveMinus1;
+	private CavlcResidualParser _cavlcResidualParser;
+	private TotalCoeffMap _totalCoeffMap;
+	private int _mbAddr;
 	
 	// Layer Attributes
 	private int _mb_type;
@@ -54,6 +80,8 @@ public class MacroblockLayerParser {
 	private int _i16x16AClevel[][];
 	private int _level4x4[][];
 	private int _level8x8[][];
+	private int _chromaDCLevel[][];
+	private int _chromaACLevel[][][];
 	private int _coeff_token;
 	private int _trailing_ones_sign_flag;
 	private int _level_prefix;
@@ -66,9 +94,33 @@ public class MacroblockLayerParser {
 		_fieldPicFlag = fieldPicFlag;
 		_mbFieldDecodingFlag = mbFieldDecodingFlag;
 		_macroblockResidualOffset = new ArrayList<Pair<Integer, Integer>>();
+		_numRefIdxL0ActiveMinus1 = pictureParameterSetParser.getNumRefIdxL0DefaultActiveMinus1();
+		_numRefIdxL1ActiveMinus1 = pictureParameterSetParser.getNumRefIdxL1DefaultActiveMinus1();
+		_cavlcResidualParser = null;
+		_totalCoeffMap = null;
+		_mbAddr = 0;
+	}
+
+	/**
+	 * Active reference counts of the slice, the PPS defaults unless the slice header overrides them.
+	 */
+	public void setNumRefIdxActive(int numRefIdxL0ActiveMinus1, int numRefIdxL1ActiveMinus1) {
+		_numRefIdxL0ActiveMinus1 = numRefIdxL0ActiveMinus1;
+		_numRefIdxL1ActiveMinus1 = numRefIdxL1ActiveMinus1;
+	}
+
+	/**
+	 * @param totalCoeffMap coefficient counts of the macroblocks already parsed in the slice,
+	 * updated with the ones of this macroblock
+	 * @param mbAddr address of this macroblock
+	 */
+	public void setResidualContext(CavlcResidualParser cavlcResidualParser, TotalCoeffMap totalCoeffMap, int mbAddr) {
+		_cavlcResidualParser = cavlcResidualParser;
+		_totalCoeffMap = totalCoeffMap;
+		_mbAddr = mbAddr;
 	}
 	
-	public void parseMacroblockLayer(BitBufferReader bitBufferReader) {
+	public void parseMacroblockLayer(IBitReader bitBufferReader) {
 		int entropyCodingMode = _pictureParameterSetParser.getEntropyCodingModeFlag();
 		int mbWidthC = (_seqParameterSetParser.getChromaFormatIdc() == 0 || 
 				_seqParameterSetParser.getSeparateColourPlaneFlag() == 1 ? 0 : 16 / getSubWidthC());
@@ -77,9 +129,14 @@ public class MacroblockLayerParser {
 		int direct8x8InterferenceFlag = _seqParameterSetParser.getDirect8x8InterferenceFlag();
 		int transform8x8ModeFlag = _pictureParameterSetParser.getTransform8x8ModeFlag();
 		boolean noSubMbPartSizeLessThan8x8Flag = false;
+		int intraMbType;
 		
 		_mb_type = (entropyCodingMode == 0 ? (int) bitBufferReader.readUE() : bitBufferReader.readAE());
-		if (_mb_type == 25) {
+		intraMbType = getIntraMbType(_mb_type);
+		if (_totalCoeffMap != null) {
+			_totalCoeffMap.startMacroblock(_mbAddr);
+		}
+		if (intraMbType == 25) {
 			while (bitBufferReader.getCurrentBitOffset() != 0) {
 				_pcm_alignment_zero_bit = (int) bitBufferReader.readNBits(1);
 			}
@@ -93,10 +150,12 @@ public class MacroblockLayerParser {
 			for (int i = 0; i < 2 * mbWidthC * mbHeightC; i++) {
 				_pcm_sample_chroma[i] = (int) bitBufferReader.readNBits(8 + _seqParameterSetParser.getBitDepthChromaMinus8());
 			}
+			if (_totalCoeffMap != null) {
+				_totalCoeffMap.setPcm(_mbAddr);
+			}
 		} else {
 			noSubMbPartSizeLessThan8x8Flag = true;
-			if (_mb_type != 0 && mbPartPredMode(_mb_type, 0) != PredictionMode.Intra_16x16 && 
-					getNumMbPart(_mb_type) == 4) {
+			if (intraMbType == -1 && getNumMbPart(_mb_type) == 4) {
 				readSubMacroblockPrediction(bitBufferReader, _mb_type);
 				for (int mbPartIdx = 0; mbPartIdx < 4; mbPartIdx++ ) {
 					if (_sub_mb_type[mbPartIdx] != 0) {
@@ -108,26 +167,28 @@ public class MacroblockLayerParser {
 					}
 				}
 			} else {
-				if(transform8x8ModeFlag == 1 && _mb_type == 0) {
+				if(transform8x8ModeFlag == 1 && intraMbType == 0) {
 					_transform_size_8x8_flag = (entropyCodingMode == 0 ? (int) bitBufferReader.readNBits(1) : bitBufferReader.readAE());
 				}
 				readMacroblockPred(bitBufferReader, _mb_type);
 			}
 			if (mbPartPredMode(_mb_type, 0) != PredictionMode.Intra_16x16) {
-				_coded_block_pattern = (entropyCodingMode == 0 ? (int) bitBufferReader.readUE() : bitBufferReader.readAE());
-				if (_coded_block_pattern % 16 > 0 && transform8x8ModeFlag == 1 && _mb_type != 0 &&
-					noSubMbPartSizeLessThan8x8Flag && (_mb_type != 0 || direct8x8InterferenceFlag == 1)) {
+				_coded_block_pattern = (entropyCodingMode == 0 ? readCodedBlockPattern(bitBufferReader, intraMbType != -1) : bitBufferReader.readAE());
+				if (_coded_block_pattern % 16 > 0 && transform8x8ModeFlag == 1 && intraMbType != 0 &&
+					noSubMbPartSizeLessThan8x8Flag && (!isBDirect16x16(_mb_type) || direct8x8InterferenceFlag == 1)) {
 					_transform_size_8x8_flag = (entropyCodingMode == 0 ? (int) bitBufferReader.readNBits(1) : bitBufferReader.readAE());
 				}
+			} else {
+				// Table 7-11, the coded block pattern of Intra_16x16 macroblocks is in their type
+				_coded_block_pattern = (((intraMbType - 1) / 4) % 3) << 4 | (intraMbType >= 13 ? 15 : 0);
 			}
 			if (_coded_block_pattern % 16 > 0 || _coded_block_pattern / 16 > 0 ||
 				mbPartPredMode(_mb_type, 0) == PredictionMode.Intra_16x16) {
 				_mb_qp_delta = (entropyCodingMode == 0 ? (int) bitBufferReader.readSE() : bitBufferReader.readAE());
-//				residual(0, 15);
 				Pair<Integer, Integer> offset = new Pair<Integer, Integer>();
 				offset.setFirst(bitBufferReader.getCurrentOffset());
-				for (int i = 0; i < 32; ++i) {
-					bitBufferReader.readNBits(8);
+				if (entropyCodingMode == 0) {
+					readResidual(bitBufferReader, 0, 15);
 				}
 				offset.setSecond(bitBufferReader.getCurrentOffset());
 				_macroblockResidualOffset.add(offset);
@@ -135,11 +196,160 @@ public class MacroblockLayerParser {
 		}
 	}
 	
-	private void readMacroblockPred(BitBufferReader bitBufferReader, int mbType) {
+	// 7.3.5.3 with residual_block_cavlc
+	private void readResidual(IBitReader bitBufferReader, int startIdx, int endIdx) {
+		int chromaArrayType = (_seqParameterSetParser.getSeparateColourPlaneFlag() == 0 ? _seqParameterSetParser.getChromaFormatIdc() : 0);
+		int numC8x8;
+		int chromaWidth;
+		int chromaHeight;
+		int blkIdx;
+		int totalCoeff;
+
+		if (_cavlcResidualParser == null) {
+			_cavlcResidualParser = new CavlcResidualParser();
+		}
+		if (_totalCoeffMap == null) {
+			// without neighbours every nC is taken from the macroblock itself
+			_totalCoeffMap = new TotalCoeffMap(1, 1);
+			_mbAddr = 0;
+			_totalCoeffMap.startMacroblock(_mbAddr);
+		}
+
+		_i16x16DClevel = new int[16];
+		_i16x16AClevel = new int[16][15];
+		_level4x4 = new int[16][16];
+		_level8x8 = new int[4][64];
+		readResidualLuma(bitBufferReader, TotalCoeffMap.LUMA, _i16x16DClevel, _i16x16AClevel, _level4x4, _level8x8, startIdx, endIdx);
+
+		if (chromaArrayType == 1 || chromaArrayType == 2) {
+			numC8x8 = 4 / (getSubWidthC() * getSubHeightC());
+			chromaWidth = 2;
+			chromaHeight = 2 * numC8x8;
+			_chromaDCLevel = new int[2][4 * numC8x8];
+			_chromaACLevel = new int[2][4 * numC8x8][15];
+			for (int iCbCr = 0; iCbCr < 2; iCbCr++) {
+				if ((_coded_block_pattern >> 4 & 3) != 0 && startIdx == 0) {
+					_cavlcResidualParser.parseResidualBlock(bitBufferReader, _chromaDCLevel[iCbCr], 0, 4 * numC8x8 - 1, 4 * numC8x8,
+							(chromaArrayType == 1 ? CavlcResidualParser.NC_CHROMA_DC_420 : CavlcResidualParser.NC_CHROMA_DC_422));
+				}
+			}
+			for (int iCbCr = 0; iCbCr < 2; iCbCr++) {
+				for (int i8x8 = 0; i8x8 < numC8x8; i8x8++) {
+					for (int i4x4 = 0; i4x4 < 4; i4x4++) {
+						blkIdx = i8x8 * 4 + i4x4;
+						totalCoeff = 0;
+						if ((_coded_block_pattern >> 4 & 2) != 0) {
+							totalCoeff = _cavlcResidualParser.parseResidualBlock(bitBufferReader, _chromaACLevel[iCbCr][blkIdx], Math.max(0, startIdx - 1), endIdx - 1, 15,
+									_totalCoeffMap.getNC(_mbAddr, TotalCoeffMap.CB + iCbCr, blkIdx % chromaWidth, blkIdx / chromaWidth, chromaWidth, chromaHeight));
+						}
+						_totalCoeffMap.setTotalCoeff(_mbAddr, TotalCoeffMap.CB + iCbCr, blkIdx % chromaWidth, blkIdx / chromaWidth, chromaWidth, totalCoeff);
+					}
+				}
+			}
+		} else if (chromaArrayType == 3) {
+			// Cb and Cr are coded like luma, their coefficients are not kept
+			readResidualLuma(bitBufferReader, TotalCoeffMap.CB, new int[16], new int[16][15], new int[16][16], new int[4][64], startIdx, endIdx);
+			readResidualLuma(bitBufferReader, TotalCoeffMap.CR, new int[16], new int[16][15], new int[16][16], new int[4][64], startIdx, endIdx);
+		}
+	}
+
+	// 7.3.5.3.1
+	private void readResidualLuma(IBitReader bitBufferReader, int component, int[] i16x16DClevel, int[][] i16x16AClevel,
+			int[][] level4x4, int[][] level8x8, int startIdx, int endIdx) {
+		boolean intra16x16 = (mbPartPredMode(_mb_type, 0) == PredictionMode.Intra_16x16);
+		int blkIdx;
+		int blkX;
+		int blkY;
+		int totalCoeff;
+
+		if (startIdx == 0 && intra16x16) {
+			_cavlcResidualParser.parseResidualBlock(bitBufferReader, i16x16DClevel, 0, 15, 16, _totalCoeffMap.getNC(_mbAddr, component, 0, 0, 4, 4));
+		}
+		for (int i8x8 = 0; i8x8 < 4; i8x8++) {
+			for (int i4x4 = 0; i4x4 < 4; i4x4++) {
+				blkIdx = i8x8 * 4 + i4x4;
+				// 6.4.3, position of the 4x4 block in the macroblock
+				blkX = (i8x8 % 2) * 2 + i4x4 % 2;
+				blkY = (i8x8 / 2) * 2 + i4x4 / 2;
+				totalCoeff = 0;
+				if ((_coded_block_pattern & (1 << i8x8)) != 0) {
+					if (intra16x16) {
+						totalCoeff = _cavlcResidualParser.parseResidualBlock(bitBufferReader, i16x16AClevel[blkIdx], Math.max(0, startIdx - 1), endIdx - 1, 15,
+								_totalCoeffMap.getNC(_mbAddr, component, blkX, blkY, 4, 4));
+					} else {
+						totalCoeff = _cavlcResidualParser.parseResidualBlock(bitBufferReader, level4x4[blkIdx], startIdx, endIdx, 16,
+								_totalCoeffMap.getNC(_mbAddr, component, blkX, blkY, 4, 4));
+						if (_transform_size_8x8_flag == 1) {
+							// 8x8 blocks are sent as four interleaved 4x4 blocks
+							for (int i = 0; i < 16; i++) {
+								level8x8[i8x8][4 * i + i4x4] = level4x4[blkIdx][i];
+							}
+						}
+					}
+				}
+				_totalCoeffMap.setTotalCoeff(_mbAddr, component, blkX, blkY, 4, totalCoeff);
+			}
+		}
+	}
+
+	// Table 9-4, me(v) mapping of coded_block_pattern
+	private int readCodedBlockPattern(IBitReader bitBufferReader, boolean intra) {
+		int chromaArrayType = (_seqParameterSetParser.getSeparateColourPlaneFlag() == 0 ? _seqParameterSetParser.getChromaFormatIdc() : 0);
+		int codeNum = bitBufferReader.readUE();
+		int[] mapping;
+
+		if (chromaArrayType == 1 || chromaArrayType == 2) {
+			mapping = (intra ? CODED_BLOCK_PATTERN_INTRA : CODED_BLOCK_PATTERN_INTER);
+		} else {
+			mapping = (intra ? CODED_BLOCK_PATTERN_INTRA_MONOCHROME : CODED_BLOCK_PATTERN_INTER_MONOCHROME);
+		}
+		if (codeNum >= mapping.length) {
+			throw new IllegalStateException("Invalid coded_block_pattern " + codeNum);
+		}
+		return mapping[codeNum];
+	}
+
+	// 7.4.5, te(v) of a syntax element in the range 0 to range
+	private int readTruncatedExpGolomb(IBitReader bitBufferReader, int range) {
+		if (range == 1) {
+			return 1 - (int) bitBufferReader.readNBits(1);
+		}
+		return bitBufferReader.readUE();
+	}
+
+	/**
+	 * @return the I slice mb_type of an intra macroblock (Tables 7-11 and 7-12), MB_TYPE_SI
+	 * for the SI macroblock, or -1 for an inter macroblock
+	 */
+	private int getIntraMbType(int mbType) {
+		if (_sliceType == 2 || _sliceType == 7) {
+			return mbType;
+		} else if (_sliceType == 4 || _sliceType == 9) {
+			return (mbType == 0 ? MB_TYPE_SI : mbType - 1);
+		} else if (_sliceType == 0 || _sliceType == 5 || _sliceType == 3 || _sliceType == 8) {
+			return (mbType >= 5 ? mbType - 5 : -1);
+		} else if (_sliceType == 1 || _sliceType == 6) {
+			return (mbType >= 23 ? mbType - 23 : -1);
+		}
+		return -1;
+	}
+
+	// field macroblocks of an MBAFF frame address twice as many references (7.4.5.1)
+	private int getRefIdxRange(int numRefIdxActiveMinus1) {
+		boolean mbaffFrame = (_seqParameterSetParser.getMbAdaptiveFrameFieldFlag() == 1 && _fieldPicFlag == 0);
+
+		return (mbaffFrame && _mbFieldDecodingFlag == 1 ? 2 * numRefIdxActiveMinus1 + 1 : numRefIdxActiveMinus1);
+	}
+
+	private boolean isBDirect16x16(int mbType) {
+		return (_sliceType == 1 || _sliceType == 6) && mbType == 0;
+	}
+	
+	private void readMacroblockPred(IBitReader bitBufferReader, int mbType) {
 		int entropyCodingMode = _pictureParameterSetParser.getEntropyCodingModeFlag();
 		int chromaArrayType = (_seqParameterSetParser.getSeparateColourPlaneFlag() == 0 ? _seqParameterSetParser.getChromaFormatIdc() : 0);
-		int numRefIdxL0ActiveMinus1 = _pictureParameterSetParser.getNumRefIdxL0DefaultActiveMinus1();
-		int numRefIdxL1ActiveMinus1 = _pictureParameterSetParser.getNumRefIdxL1DefaultActiveMinus1();
+		int numRefIdxL0ActiveMinus1 = getRefIdxRange(_numRefIdxL0ActiveMinus1);
+		int numRefIdxL1ActiveMinus1 = getRefIdxRange(_numRefIdxL1ActiveMinus1);
 		
 		if (mbPartPredMode(mbType, 0) == PredictionMode.Intra_4x4 || 
 				mbPartPredMode(mbType, 0) == PredictionMode.Intra_8x8 ||
@@ -172,7 +382,7 @@ public class MacroblockLayerParser {
 			for (int i = 0; i < getNumMbPart(mbType); ++i) {
 				if ((numRefIdxL0ActiveMinus1 > 0 || _mbFieldDecodingFlag != _fieldPicFlag) && 
 						mbPartPredMode(mbType, i) != PredictionMode.Pred_L1) {
-					_ref_idx_l0[i] = (entropyCodingMode == 0 ? bitBufferReader.readUE() : bitBufferReader.readAE());
+					_ref_idx_l0[i] = (entropyCodingMode == 0 ? readTruncatedExpGolomb(bitBufferReader, numRefIdxL0ActiveMinus1) : bitBufferReader.readAE());
 				}
 			}
 
@@ -180,7 +390,7 @@ public class MacroblockLayerParser {
 			for (int i = 0; i < getNumMbPart(mbType); ++i) {
 				if ((numRefIdxL1ActiveMinus1 > 0 || _mbFieldDecodingFlag != _fieldPicFlag) && 
 						mbPartPredMode(mbType, i) != PredictionMode.Pred_L0) {
-					_ref_idx_l1[i] = (entropyCodingMode == 0 ? bitBufferReader.readUE() : bitBufferReader.readAE());
+					_ref_idx_l1[i] = (entropyCodingMode == 0 ? readTruncatedExpGolomb(bitBufferReader, numRefIdxL1ActiveMinus1) : bitBufferReader.readAE());
 				}
 			}
 			
@@ -204,10 +414,10 @@ public class MacroblockLayerParser {
 		}
 	}
 	
-	private void readSubMacroblockPrediction(BitBufferReader bitBufferReader, int mbType) {
+	private void readSubMacroblockPrediction(IBitReader bitBufferReader, int mbType) {
 		int entropyCodingMode = _pictureParameterSetParser.getEntropyCodingModeFlag();
-		int numRefIdxL0ActiveMinus1 = _pictureParameterSetParser.getNumRefIdxL0DefaultActiveMinus1();
-		int numRefIdxL1ActiveMinus1 = _pictureParameterSetParser.getNumRefIdxL1DefaultActiveMinus1();
+		int numRefIdxL0ActiveMinus1 = getRefIdxRange(_numRefIdxL0ActiveMinus1);
+		int numRefIdxL1ActiveMinus1 = getRefIdxRange(_numRefIdxL1ActiveMinus1);
 
 		_sub_mb_type = new int[4];
 		for (int mbPartIdx = 0; mbPartIdx < 4; mbPartIdx++) {
@@ -218,7 +428,7 @@ public class MacroblockLayerParser {
 		for (int mbPartIdx = 0; mbPartIdx < 4; mbPartIdx++) {
 			if ((numRefIdxL0ActiveMinus1 > 0 || _mbFieldDecodingFlag != _fieldPicFlag ) &&
 			_mb_type != 4 && _sub_mb_type[mbPartIdx] != 0 && getSubMbPredMode(_sub_mb_type[mbPartIdx]) != PredictionMode.Pred_L1) {
-				_ref_idx_l0[mbPartIdx] = (entropyCodingMode == 0 ? (int) bitBufferReader.readUE() : bitBufferReader.readAE());
+				_ref_idx_l0[mbPartIdx] = (entropyCodingMode == 0 ? readTruncatedExpGolomb(bitBufferReader, numRefIdxL0ActiveMinus1) : bitBufferReader.readAE());
 			}
 		}
 
@@ -226,7 +436,7 @@ public class MacroblockLayerParser {
 		for (int mbPartIdx = 0; mbPartIdx < 4; mbPartIdx++) {
 			if ((numRefIdxL1ActiveMinus1 > 0 || _mbFieldDecodingFlag != _fieldPicFlag ) &&
 			_sub_mb_type[mbPartIdx] != 0 && getSubMbPredMode(_sub_mb_type[mbPartIdx]) != PredictionMode.Pred_L0) {
-				_ref_idx_l1[mbPartIdx] = (entropyCodingMode == 0 ? (int) bitBufferReader.readUE() : bitBufferReader.readAE());
+				_ref_idx_l1[mbPartIdx] = (entropyCodingMode == 0 ? readTruncatedExpGolomb(bitBufferReader, numRefIdxL1ActiveMinus1) : bitBufferReader.readAE());
 			}
 		}
 		
@@ -318,11 +528,12 @@ public class MacroblockLayerParser {
 	
 	private PredictionMode mbPartPredMode(int mbType, int value) {
 		PredictionMode ret = PredictionMode.None;
+		int intraMbType = getIntraMbType(mbType);
 		
-		if (_sliceType == 7 || _sliceType == 2) {
-			ret = mbPartPredModeISlice(mbType, value);
-		} else if (_sliceType == 4 || _sliceType == 9) {
+		if (intraMbType == MB_TYPE_SI) {
 			ret = mbPartPredModeSISlice(mbType, value);
+		} else if (intraMbType != -1) {
+			ret = mbPartPredModeISlice(intraMbType, value);
 		} else if (_sliceType == 0 || _sliceType == 5 || _sliceType == 3 || _sliceType == 8) {
 			ret = mbPartPredModePAndSPSlice(mbType, value);
 		} else if (_sliceType == 1 || _sliceType == 6) {
@@ -334,8 +545,7 @@ public class MacroblockLayerParser {
 	private PredictionMode mbPartPredModeISlice(int mbType, int value) {
 		if (value == 0) {
 			if (mbType == 0) {
-				return (_pictureParameterSetParser.getTransform8x8ModeFlag() == 0 ? 
-						PredictionMode.Intra_4x4 : PredictionMode.Intra_8x8);
+				return (_transform_size_8x8_flag == 0 ? PredictionMode.Intra_4x4 : PredictionMode.Intra_8x8);
 			} else if (mbType > 0 && mbType < 25) {
 				return PredictionMode.Intra_16x16;
 			}
@@ -1,11 +1,14 @@
 package com.mharis7y.hushtalk.h264;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 
-import com.mharis7y.hushtalk.tools.BitBufferReader;
+import com.mharis7y.hushtalk.tools.CachedBitBufferReader;
+import com.mharis7y.hushtalk.tools.IBitReader;
 
 public class NaluParser {
 
+	private static final int MAX_NALU_HEADER_SIZE = 4;
+
 	private int _naluHeaderSize;
 	
 	// nal unit header
@@ -68,9 +71,21 @@ public class NaluParser {
 	}
 	
 	public void parseNaluData(byte[] data) {
-		ByteArrayOutputStream outputStream;
-		BitBufferReader bitBufferReader = new BitBufferReader(data);
+		_rbsp = parseNaluHeader(ByteBuffer.wrap(data)).readRemainingBytes();
+	}
+	
+	/**
+	 * Parses only the NAL unit header, from the position of nal.
+	 * @return a reader over the RBSP which unescapes the NAL lazily, nal is left untouched
+	 */
+	public RbspBitReader parseNaluHeader(ByteBuffer nal) {
+		byte[] header = new byte[Math.min(MAX_NALU_HEADER_SIZE, nal.remaining())];
+		IBitReader bitBufferReader;
 		
+		for (int i = 0; i < header.length; ++i) {
+			header[i] = nal.get(nal.position() + i);
+		}
+		bitBufferReader = new CachedBitBufferReader(header);
 		_forbidden_zero_bit = (int) bitBufferReader.readNBits(1);
 		_nal_ref_idc = (int) bitBufferReader.readNBits(2);
 		_nal_unit_type = (int) bitBufferReader.readNBits(5);
@@ -85,22 +100,10 @@ public class NaluParser {
 			}
 			_naluHeaderSize += 3;
 		}
-		
-		outputStream = new ByteArrayOutputStream();
-		for (int i = _naluHeaderSize; i < data.length; ++i) {			
-			if (i + 2 < data.length && data[i] == 0x00 && data[i + 1] == 0x00 && data[i + 2] == 0x03) {
-				outputStream.write((byte) bitBufferReader.readNBits(8));
-				outputStream.write((byte) bitBufferReader.readNBits(8));
-				bitBufferReader.readNBits(8);
-				i += 2;
-			} else {
-				outputStream.write((byte) bitBufferReader.readNBits(8));
-			}
-		}
-		_rbsp = outputStream.toByteArray();
+		return new RbspBitReader(nal, Math.min(_naluHeaderSize, nal.remaining()));
 	}
 	
-	private void getSvcExtensionAttributes(BitBufferReader bitBufferReader) {
+	private void getSvcExtensionAttributes(IBitReader bitBufferReader) {
 		_idr_flag = (int) bitBufferReader.readNBits(1);
 		_priority_id = (int) bitBufferReader.readNBits(6);
 		
@@ -115,7 +118,7 @@ public class NaluParser {
 		_reserved_three_2bits = (int) bitBufferReader.readNBits(2);
 	}
 	
-	private void getMvcExtensionAttributes(BitBufferReader bitBufferReader) {
+	private void getMvcExtensionAttributes(IBitReader bitBufferReader) {
 		_non_idr_flag = (int) bitBufferReader.readNBits(1);
 		_priority_id = (int) bitBufferReader.readNBits(6);
 		
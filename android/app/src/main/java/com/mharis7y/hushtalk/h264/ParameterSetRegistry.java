@@ -0,0 +1,166 @@
+package com.mharis7y.hushtalk.h264;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.mharis7y.hushtalk.tools.CachedBitBufferReader;
+import com.mharis7y.hushtalk.tools.IBitReader;
+
+/**
+ * Sequence and picture parameter sets of a stream, parsed once and stored by their
+ * seq_parameter_set_id and pic_parameter_set_id. Parameter sets received later, in the avcC
+ * box or in band, replace the ones with the same id for the slices that follow. A parameter
+ * set already parsed by the registry or by its copies, as the ones repeated before every IDR
+ * picture, keeps its parser and the slice group maps cached by it.
+ */
+public class ParameterSetRegistry {
+
+	// 7.4.2.1.1 and 7.4.2.2
+	private static final int MAX_SEQ_PARAMETER_SET_COUNT = 32;
+	private static final int MAX_PIC_PARAMETER_SET_COUNT = 256;
+	private static final int NAL_UNIT_TYPE_SPS = 7;
+	private static final int NAL_UNIT_TYPE_PPS = 8;
+
+	private SeqParameterSetParser[] _seqParameterSets;
+	private PictureParameterSetParser[] _pictureParameterSets;
+	private SeqParameterSetParser _firstSeqParameterSet;
+	private PictureParameterSetParser _firstPictureParameterSet;
+	// parsers by RBSP, shared with the copies of the registry
+	private Map<ByteBuffer, SeqParameterSetParser> _parsedSeqParameterSets;
+	private Map<ByteBuffer, PictureParameterSetParser> _parsedPictureParameterSets;
+
+	public ParameterSetRegistry() {
+		_seqParameterSets = new SeqParameterSetParser[MAX_SEQ_PARAMETER_SET_COUNT];
+		_pictureParameterSets = new PictureParameterSetParser[MAX_PIC_PARAMETER_SET_COUNT];
+		_firstSeqParameterSet = null;
+		_firstPictureParameterSet = null;
+		_parsedSeqParameterSets = Collections.synchronizedMap(new HashMap<ByteBuffer, SeqParameterSetParser>());
+		_parsedPictureParameterSets = Collections.synchronizedMap(new HashMap<ByteBuffer, PictureParameterSetParser>());
+	}
+
+	/**
+	 * Copies the parameter sets of registry, which are shared since they are not modified
+	 * once parsed. Sets added to the copy are not seen by registry.
+	 */
+	public ParameterSetRegistry(ParameterSetRegistry registry) {
+		_seqParameterSets = registry._seqParameterSets.clone();
+		_pictureParameterSets = registry._pictureParameterSets.clone();
+		_firstSeqParameterSet = registry._firstSeqParameterSet;
+		_firstPictureParameterSet = registry._firstPictureParameterSet;
+		_parsedSeqParameterSets = registry._parsedSeqParameterSets;
+		_parsedPictureParameterSets = registry._parsedPictureParameterSets;
+	}
+
+	/**
+	 * Parses nal if it is a sequence or picture parameter set, other NAL units are ignored.
+	 * @param nal NAL unit from its position to its limit, left untouched
+	 * @return true if nal was a parameter set and has been stored
+	 */
+	public boolean addNal(ByteBuffer nal) {
+		NaluParser parser = new NaluParser();
+		RbspBitReader rbspReader;
+
+		if (!nal.hasRemaining()) {
+			return false;
+		}
+		rbspReader = parser.parseNaluHeader(nal);
+		if (parser.getNalUnitType() == NAL_UNIT_TYPE_SPS) {
+			return addSeqParameterSet(rbspReader.readRemainingBytes());
+		}
+		if (parser.getNalUnitType() == NAL_UNIT_TYPE_PPS) {
+			return addPictureParameterSet(rbspReader.readRemainingBytes());
+		}
+		return false;
+	}
+
+	public boolean addNal(byte[] nal) {
+		return (nal != null && addNal(ByteBuffer.wrap(nal)));
+	}
+
+	/**
+	 * @return the parameter set, or null if no parameter set has this id
+	 */
+	public SeqParameterSetParser getSeqParameterSet(int id) {
+		return (id >= 0 && id < MAX_SEQ_PARAMETER_SET_COUNT ? _seqParameterSets[id] : null);
+	}
+
+	/**
+	 * @return the parameter set, or null if no parameter set has this id
+	 */
+	public PictureParameterSetParser getPictureParameterSet(int id) {
+		return (id >= 0 && id < MAX_PIC_PARAMETER_SET_COUNT ? _pictureParameterSets[id] : null);
+	}
+
+	// First parameter set added, the one a single parameter set stream uses
+	public SeqParameterSetParser getFirstSeqParameterSet() {
+		return _firstSeqParameterSet;
+	}
+
+	// First parameter set added, the one a single parameter set stream uses
+	public PictureParameterSetParser getFirstPictureParameterSet() {
+		return _firstPictureParameterSet;
+	}
+
+	// Private methods
+	private boolean addSeqParameterSet(byte[] rbsp) {
+		ByteBuffer key = ByteBuffer.wrap(rbsp);
+		SeqParameterSetParser parser = _parsedSeqParameterSets.get(key);
+		int id;
+
+		if (parser == null) {
+			parser = new SeqParameterSetParser();
+			try {
+				parser.parseSeqParameterSetData(rbsp);
+			} catch (RuntimeException e) {
+				System.err.println("[Parameter Set Registry]: Unable to parse sequence parameter set: " + e.getMessage());
+				return false;
+			}
+			id = parser.getSeqParameterSetId();
+			if (id < 0 || id >= MAX_SEQ_PARAMETER_SET_COUNT) {
+				System.err.println("[Parameter Set Registry]: Invalid sequence parameter set id " + id);
+				return false;
+			}
+			_parsedSeqParameterSets.put(key, parser);
+		}
+		_seqParameterSets[parser.getSeqParameterSetId()] = parser;
+		if (_firstSeqParameterSet == null) {
+			_firstSeqParameterSet = parser;
+		}
+		return true;
+	}
+
+	private boolean addPictureParameterSet(byte[] rbsp) {
+		ByteBuffer key = ByteBuffer.wrap(rbsp);
+		IBitReader bitBufferReader = new CachedBitBufferReader(rbsp);
+		PictureParameterSetParser parser;
+		SeqParameterSetParser seqParameterSet;
+		int id;
+
+		try {
+			// the PPS syntax depends on its SPS, which is known from the second field
+			id = bitBufferReader.readUE();
+			seqParameterSet = getSeqParameterSet(bitBufferReader.readUE());
+			if (id < 0 || id >= MAX_PIC_PARAMETER_SET_COUNT || seqParameterSet == null) {
+				System.err.println("[Parameter Set Registry]: Invalid picture parameter set " + id);
+				return false;
+			}
+			parser = _parsedPictureParameterSets.get(key);
+			// the same RBSP is parsed again when its SPS has been replaced
+			if (parser == null || parser.getSeqParameterSet() != seqParameterSet) {
+				parser = new PictureParameterSetParser(seqParameterSet);
+				parser.parsePictureParameterSet(rbsp);
+				_parsedPictureParameterSets.put(key, parser);
+			}
+		} catch (RuntimeException e) {
+			System.err.println("[Parameter Set Registry]: Unable to parse picture parameter set: " + e.getMessage());
+			return false;
+		}
+		_pictureParameterSets[id] = parser;
+		if (_firstPictureParameterSet == null) {
+			_firstPictureParameterSet = parser;
+		}
+		return true;
+	}
+}
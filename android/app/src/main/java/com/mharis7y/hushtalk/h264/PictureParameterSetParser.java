@@ -1,6 +1,10 @@
 package com.mharis7y.hushtalk.h264;
 
-import com.mharis7y.hushtalk.tools.BitBufferReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.mharis7y.hushtalk.tools.CachedBitBufferReader;
+import com.mharis7y.hushtalk.tools.IBitReader;
 
 public class PictureParameterSetParser {
 
@@ -37,13 +41,43 @@ public class PictureParameterSetParser {
 	private int _pic_scaling_matrix_present_flag;
 	private int _pic_scaling_list_present_flag[];
 	private int _second_chroma_qp_index_offset;
+
+	// slice group maps by field_pic_flag and slice_group_change_cycle
+	private Map<Long, SliceGroupMap> _sliceGroupMaps;
 	
 	public PictureParameterSetParser(SeqParameterSetParser parser) {
 		_parameterSetParser = parser;
+		_sliceGroupMaps = new HashMap<Long, SliceGroupMap>();
+	}
+	
+	// Sequence parameter set the PPS was parsed with
+	public SeqParameterSetParser getSeqParameterSet() {
+		return _parameterSetParser;
+	}
+
+	/**
+	 * @return the slice group map of the slices using this PPS, built once per
+	 * field_pic_flag and slice_group_change_cycle
+	 */
+	public synchronized SliceGroupMap getSliceGroupMap(SeqParameterSetParser seqParameterSet, int fieldPicFlag, int sliceGroupChangeCycle) {
+		SliceGroupMap map;
+		Long key;
+
+		// only the box-out, raster and wipe maps evolve with the change cycle
+		if (_num_slice_groups_minus1 == 0 || _slice_group_map_type < 3 || _slice_group_map_type > 5) {
+			sliceGroupChangeCycle = 0;
+		}
+		key = ((long) fieldPicFlag << 32) | (sliceGroupChangeCycle & 0xFFFFFFFFL);
+		map = _sliceGroupMaps.get(key);
+		if (map == null || map.getSeqParameterSet() != seqParameterSet) {
+			map = new SliceGroupMap(seqParameterSet, this, fieldPicFlag, sliceGroupChangeCycle);
+			_sliceGroupMaps.put(key, map);
+		}
+		return map;
 	}
 	
 	public void parsePictureParameterSet(byte data[]) {
-		BitBufferReader bitBufferReader = new BitBufferReader(data);
+		IBitReader bitBufferReader = new CachedBitBufferReader(data);
 		
 		_pic_parameter_set_id = bitBufferReader.readUE();
 		_seq_parameter_set_id = bitBufferReader.readUE();
@@ -0,0 +1,139 @@
+package com.mharis7y.hushtalk.h264;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.mharis7y.hushtalk.tools.CachedBitBufferReader;
+
+/**
+ * Reads the RBSP of a NAL unit directly over the NAL bytes: emulation prevention bytes
+ * (the 0x03 of 0x000003) are dropped as the bytes are reached, so only the part of the NAL
+ * actually parsed is ever visited. Offsets are RBSP offsets, getNalOffset maps them back.
+ */
+public class RbspBitReader extends CachedBitBufferReader {
+
+	private ByteBuffer _nal;
+	private int _rbspStart;
+	private int _nalOffset;
+	private int _end;
+	// NAL offset of the second zero of an escape sequence being read, -1 if none
+	private int _escapeOffset;
+	private int _rbspByteCount;
+
+	// RBSP offsets before which an emulation prevention byte was dropped, ascending
+	private int[] _escapes;
+	private int _escapeCount;
+
+	/**
+	 * @param nal the NAL unit, from its position to its limit, left untouched
+	 * @param rbspStart offset of the RBSP in nal, i.e. the NAL header size
+	 */
+	public RbspBitReader(ByteBuffer nal, int rbspStart) {
+		_nal = nal;
+		_rbspStart = rbspStart;
+		_nalOffset = nal.position() + rbspStart;
+		_end = nal.limit();
+		_escapeOffset = -1;
+		_rbspByteCount = 0;
+		_escapes = new int[4];
+		_escapeCount = 0;
+	}
+
+	/**
+	 * @param rbspOffset RBSP offset, bytes after the ones already read are looked up without
+	 * moving the reader
+	 * @return the matching offset in the NAL unit, header included
+	 */
+	public int getNalOffset(int rbspOffset) {
+		int escapeCount = 0;
+		int nalOffset = _nalOffset;
+		int escapeOffset = _escapeOffset;
+
+		if (rbspOffset < _rbspByteCount) {
+			while (escapeCount < _escapeCount && _escapes[escapeCount] <= rbspOffset) {
+				escapeCount++;
+			}
+			return _rbspStart + rbspOffset + escapeCount;
+		}
+		// _nalOffset holds the RBSP byte _rbspByteCount, walk forward from there
+		for (int i = _rbspByteCount; i < rbspOffset; ++i) {
+			if (nalOffset == escapeOffset) {
+				nalOffset += 2;
+				escapeOffset = -1;
+			} else {
+				if (isEscapeSequence(nalOffset)) {
+					escapeOffset = nalOffset + 1;
+				}
+				nalOffset++;
+			}
+		}
+		return nalOffset - _nal.position();
+	}
+
+	/**
+	 * @return the RBSP bytes from the current byte offset to the end of the NAL unit
+	 */
+	public byte[] readRemainingBytes() {
+		byte[] content = new byte[Math.max(0, _end - _nalOffset) + 8];
+		int length = 0;
+
+		while (hasMoreData()) {
+			if (length == content.length) {
+				content = Arrays.copyOf(content, length * 2);
+			}
+			content[length++] = (byte) readNBits(8);
+		}
+		return Arrays.copyOf(content, length);
+	}
+
+	// Source methods
+	@Override
+	protected int readSourceByte() {
+		int value;
+
+		if (_nalOffset >= _end) {
+			return -1;
+		}
+		value = _nal.get(_nalOffset) & 0xFF;
+		if (_nalOffset == _escapeOffset) {
+			// skip the emulation prevention byte following this zero
+			_nalOffset += 2;
+			_escapeOffset = -1;
+			addEscape(_rbspByteCount + 1);
+		} else {
+			if (isEscapeSequence(_nalOffset)) {
+				_escapeOffset = _nalOffset + 1;
+			}
+			_nalOffset++;
+		}
+		_rbspByteCount++;
+		return value;
+	}
+
+	@Override
+	protected long skipSourceBytes(long count) {
+		long skipped = 0;
+
+		while (skipped < count && readSourceByte() >= 0) {
+			skipped++;
+		}
+		return skipped;
+	}
+
+	@Override
+	protected boolean hasMoreSourceBytes() {
+		return _nalOffset < _end;
+	}
+
+	// Private methods
+	private boolean isEscapeSequence(int nalOffset) {
+		return nalOffset + 2 < _end && _nal.get(nalOffset) == 0 && _nal.get(nalOffset + 1) == 0 && _nal.get(nalOffset + 2) == 3;
+	}
+
+	private void addEscape(int rbspOffset) {
+		if (_escapeCount == _escapes.length) {
+			_escapes = Arrays.copyOf(_escapes, _escapeCount * 2);
+		}
+		_escapes[_escapeCount++] = rbspOffset;
+	}
+}
@@ -2,7 +2,8 @@ package com.mharis7y.hushtalk.h264;
 
 import java.util.List;
 
-import com.mharis7y.hushtalk.tools.BitBufferReader;
+import com.mharis7y.hushtalk.tools.CachedBitBufferReader;
+import com.mharis7y.hushtalk.tools.IBitReader;
 
 public class SeqParameterSetParser {
 
@@ -109,7 +110,7 @@ public class SeqParameterSetParser {
 	} 
 	
 	public void parseSeqParameterSetData(byte[] data) {
-		BitBufferReader bitBufferReader = new BitBufferReader(data);
+		IBitReader bitBufferReader = new CachedBitBufferReader(data);
 		
 		_profile_idc = (int) bitBufferReader.readNBits(8);
 		
@@ -173,7 +174,7 @@ public class SeqParameterSetParser {
 		}
 	}
 
-	private void readChromaProfile(BitBufferReader bitBufferReader) {
+	private void readChromaProfile(IBitReader bitBufferReader) {
 		int tmp;
 		
 		if (_profile_idc == 100 || _profile_idc == 110 || _profile_idc == 122 ||
@@ -208,7 +209,7 @@ public class SeqParameterSetParser {
 		}		
 	}
 		
-	private void readVuiParameters(BitBufferReader bitBufferReader) {
+	private void readVuiParameters(IBitReader bitBufferReader) {
 		_aspect_ratio_info_present_flag = (int) bitBufferReader.readNBits(1);
 		if (_aspect_ratio_info_present_flag == 1) {
 			_aspect_ratio_idc = (int) bitBufferReader.readNBits(8);
@@ -275,7 +276,7 @@ public class SeqParameterSetParser {
 		}
 	}
 	
-	private void readHrdParameters(BitBufferReader bitBufferReader) {
+	private void readHrdParameters(IBitReader bitBufferReader) {
 		_cpb_cnt_minus1 = bitBufferReader.readUE();
 		_bit_rate_scale = (int) bitBufferReader.readNBits(4);
 		_cpb_size_scale = (int) bitBufferReader.readNBits(4);
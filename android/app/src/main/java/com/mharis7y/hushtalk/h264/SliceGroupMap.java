@@ -0,0 +1,290 @@
+package com.mharis7y.hushtalk.h264;
+
+import java.util.Arrays;
+
+/**
+ * Macroblock to slice group map of a picture (8.2.2), with the address of the next macroblock
+ * of the same slice group for every macroblock. It only depends on the SPS, the PPS, the
+ * field_pic_flag and the slice_group_change_cycle of a slice, so it is built once and shared
+ * by every slice using the same values, see PictureParameterSetParser.getSliceGroupMap.
+ */
+public class SliceGroupMap {
+
+	private SeqParameterSetParser _seqParameterSet;
+	private PictureParameterSetParser _pictureParameterSet;
+	private int _fieldPicFlag;
+	private int _sliceGroupChangeCycle;
+
+	private int _mapUnitToSliceGroupMap[];
+	private int _mbToSliceGroupMap[];
+	private int _nextMbAddress[];
+
+	public SliceGroupMap(SeqParameterSetParser seqParameterSet, PictureParameterSetParser pictureParameterSet,
+			int fieldPicFlag, int sliceGroupChangeCycle) {
+		int picWidthInMbs = seqParameterSet.getPicWidthInMbsMinus1() + 1;
+		int picHeightInMapUnits = seqParameterSet.getPicHeightInMapUnitsMinus1() + 1;
+		int frameHeightInMbs = (2 - seqParameterSet.getFrameMbsOnlyFlag()) * picHeightInMapUnits;
+		int picSizeInMbs = picWidthInMbs * (frameHeightInMbs / (1 + fieldPicFlag));
+
+		_seqParameterSet = seqParameterSet;
+		_pictureParameterSet = pictureParameterSet;
+		_fieldPicFlag = fieldPicFlag;
+		_sliceGroupChangeCycle = sliceGroupChangeCycle;
+
+		_mapUnitToSliceGroupMap = new int[picSizeInMbs];
+		convertMacroblockToSliceGroupMap();
+		convertSliceGroupMapToMacroblockGroupMap(picSizeInMbs);
+		buildNextMbAddress();
+	}
+
+	/**
+	 * @return the next macroblock address of the slice group of current, or the picture size
+	 * in macroblocks if there is none (8-16)
+	 */
+	public int nextMbAddress(int current) {
+		if (current < 0 || current >= _nextMbAddress.length) {
+			return current + 1;
+		}
+		return _nextMbAddress[current];
+	}
+
+	public SeqParameterSetParser getSeqParameterSet() {
+		return _seqParameterSet;
+	}
+
+	// Shared between slices, must not be modified
+	public int[] getMapUnitToSliceGroupMap() {
+		return _mapUnitToSliceGroupMap;
+	}
+
+	// Shared between slices, must not be modified
+	public int[] getMbToSliceGroupMap() {
+		return _mbToSliceGroupMap;
+	}
+
+	// Private methods
+	private void buildNextMbAddress() {
+		int groupCount = 1;
+		int lastMbAddress[];
+
+		for (int group : _mbToSliceGroupMap) {
+			groupCount = Math.max(groupCount, group + 1);
+		}
+		lastMbAddress = new int[groupCount];
+		_nextMbAddress = new int[_mbToSliceGroupMap.length];
+		Arrays.fill(lastMbAddress, _mbToSliceGroupMap.length);
+		for (int i = _mbToSliceGroupMap.length - 1; i >= 0; --i) {
+			_nextMbAddress[i] = lastMbAddress[_mbToSliceGroupMap[i]];
+			lastMbAddress[_mbToSliceGroupMap[i]] = i;
+		}
+	}
+
+	private void convertSliceGroupMapToMacroblockGroupMap(int picSizeInMbs) {
+		int picWidthInMbs = _seqParameterSet.getPicWidthInMbsMinus1() + 1;
+		int frameMbsOnlyFlag = _seqParameterSet.getFrameMbsOnlyFlag();
+		int mbAffFrameFlag = (_seqParameterSet.getMbAdaptiveFrameFieldFlag() == 1 && _fieldPicFlag == 0 ? 1 : 0); 
+		
+		_mbToSliceGroupMap = new int[picSizeInMbs];
+		for (int i = 0; i < picSizeInMbs; ++i) {
+			if (frameMbsOnlyFlag == 1 || _fieldPicFlag == 1) {
+				_mbToSliceGroupMap[i] = _mapUnitToSliceGroupMap[i];
+			} else if (mbAffFrameFlag == 1) {
+				_mbToSliceGroupMap[i] = _mapUnitToSliceGroupMap[i / 2];
+			} else {
+				_mbToSliceGroupMap[i] = _mapUnitToSliceGroupMap[(i / (2 * picWidthInMbs)) * picWidthInMbs + (i % picWidthInMbs)];
+			}
+		}
+	}
+	
+	private void convertMacroblockToSliceGroupMap() {
+		if (_pictureParameterSet.getNumSliceGroupsMinus1() != 0) {
+			switch (_pictureParameterSet.getSliceGroupMapType()) {
+				case 0:
+					createMapUnitWithInterleavedSlice();
+					break;
+				case 1:
+					createMapUnitWithDispersedSlice();
+					break;
+				case 2:
+					createMapUnitWithForegroundSlice();
+					break;
+				case 3:
+					createMapUnitWithBoxoutSlice();
+					break;
+				case 4:
+					createMapUnitWithRasterSlice();
+					break;
+				case 5:
+					createMapUnitWithWipeSlice();
+					break;
+				case 6:
+					createMapUnitWithExplicitSlice();
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	private void createMapUnitWithInterleavedSlice() {
+		int numSliceGroupMinus1 = _pictureParameterSet.getNumSliceGroupsMinus1();
+		int picSizeInMapUnits = _pictureParameterSet.getPicSizeInMapUnitMinus1() + 1;
+		int runLengthMinus1[] = _pictureParameterSet.getRunLengthMinus1(); 
+		int i = 0;
+		
+		do {
+			for (int iGroup = 0; iGroup <= numSliceGroupMinus1 && i < picSizeInMapUnits; 
+					i += (runLengthMinus1[iGroup++] + 1)) {
+				for (int j = 0; j <= runLengthMinus1[iGroup] && (i + j) < picSizeInMapUnits; j++) {
+					_mapUnitToSliceGroupMap[i + j] = iGroup;
+				}
+			}
+		} while (i < picSizeInMapUnits);
+	}
+	
+	private void createMapUnitWithDispersedSlice() {
+		int picWidthInMbs = _seqParameterSet.getPicWidthInMbsMinus1() + 1;
+		int picHeightInMapUnits = _seqParameterSet.getPicHeightInMapUnitsMinus1() + 1;
+		int numSliceGroupsMinus1 = _pictureParameterSet.getNumSliceGroupsMinus1();
+		int picSizeInMapUnits = picWidthInMbs * picHeightInMapUnits;
+		
+		for (int i = 0; i < picSizeInMapUnits; ++i) {
+			_mapUnitToSliceGroupMap[i] = ((i % picWidthInMbs) +
+					(((i / picWidthInMbs) * (numSliceGroupsMinus1 + 1)) / 2)) % (numSliceGroupsMinus1 + 1);
+		}
+	}
+	
+	private void createMapUnitWithForegroundSlice() {
+		int picWidthInMbs = _seqParameterSet.getPicWidthInMbsMinus1() + 1;
+		int picHeightInMapUnits = _seqParameterSet.getPicHeightInMapUnitsMinus1() + 1;
+		int numSliceGroupsMinus1 = _pictureParameterSet.getNumSliceGroupsMinus1();
+		int picSizeInMapUnits = picWidthInMbs * picHeightInMapUnits;
+		int topLeft[] = _pictureParameterSet.getTopLeft();
+		int bottomRight[] = _pictureParameterSet.getBottomRight();
+		
+		for (int i = 0; i < picSizeInMapUnits; i++) {
+			_mapUnitToSliceGroupMap[i] = numSliceGroupsMinus1;
+		}
+		for (int iGroup = numSliceGroupsMinus1 - 1; iGroup >= 0; iGroup--) {
+			int yTopLeft = topLeft[iGroup] / picWidthInMbs;
+			int xTopLeft = topLeft[iGroup] % picWidthInMbs;
+			int yBottomRight = bottomRight[iGroup] / picWidthInMbs;
+			int xBottomRight = bottomRight[iGroup] % picWidthInMbs;
+			for (int y = yTopLeft; y <= yBottomRight; y++) {
+				for (int x = xTopLeft; x <= xBottomRight; x++ ) {
+					_mapUnitToSliceGroupMap[y * picWidthInMbs + x] = iGroup;
+				}	
+			}	
+		}
+	}
+	
+	private void createMapUnitWithBoxoutSlice() {
+		int picWidthInMbs = _seqParameterSet.getPicWidthInMbsMinus1() + 1;
+		int picHeightInMapUnits = _seqParameterSet.getPicHeightInMapUnitsMinus1() + 1;
+		int sliceGroupChangeRate = _pictureParameterSet.getSliceGroupChangeRateMinus1() + 1;
+		int sliceGroupChangeDirectionFlag = _pictureParameterSet.getSliceGroupChangeDirectionFlag();
+		int picSizeInMapUnits = picWidthInMbs * picHeightInMapUnits;
+		int mapUnitsInSliceGroup0 = Math.min(_sliceGroupChangeCycle * sliceGroupChangeRate, picSizeInMapUnits);
+		int leftBound;
+		int rightBound;
+		int topBound;
+		int bottomBound;
+		int xDir;
+		int yDir;
+		int mapUnitVacant = 0;
+		
+		for (int i = 0; i < picSizeInMapUnits; i++) {
+			_mapUnitToSliceGroupMap[i] = 1;
+		}
+		int x = (picWidthInMbs - sliceGroupChangeDirectionFlag) / 2;
+		int y = (picHeightInMapUnits - sliceGroupChangeDirectionFlag) / 2;
+		leftBound = x;
+		topBound = y;
+		rightBound = x;
+		bottomBound = y;
+		xDir = sliceGroupChangeDirectionFlag - 1;
+		yDir = sliceGroupChangeDirectionFlag;
+		
+		for(int k = 0; k < mapUnitsInSliceGroup0; k += mapUnitVacant) {
+			mapUnitVacant = (_mapUnitToSliceGroupMap[y * picWidthInMbs + x] == 1 ? 1 : 0);
+			if (mapUnitVacant == 1) {
+				_mapUnitToSliceGroupMap[y * picWidthInMbs + x] = 0; 
+			}
+			if (xDir == -1 && x == leftBound) {
+				leftBound = Math.max(leftBound - 1, 0);
+				x = leftBound;
+				xDir = 0;
+				yDir = 2 * sliceGroupChangeDirectionFlag - 1;
+			} else if (xDir == 1 && x == rightBound) {
+				rightBound = Math.min(rightBound + 1, picWidthInMbs - 1);
+				x = rightBound;
+				xDir = 0;
+				yDir = 1 - 2 * sliceGroupChangeDirectionFlag;
+			} else if (yDir == -1 && y == topBound) {
+				topBound = Math.max(topBound - 1, 0);
+				y = topBound;
+				xDir = 1 - 2 * sliceGroupChangeDirectionFlag;
+				yDir = 0;
+			} else if (yDir == 1 && y == bottomBound) {
+				bottomBound = Math.min(bottomBound + 1, picHeightInMapUnits - 1);
+				y = bottomBound;
+				xDir = 2 * sliceGroupChangeDirectionFlag - 1;
+				yDir = 0;
+			} else {
+				x = x + xDir;
+				y = y + yDir;
+			}
+		}
+	}
+	
+	private void createMapUnitWithRasterSlice() {
+		int picWidthInMbs = _seqParameterSet.getPicWidthInMbsMinus1() + 1;
+		int picHeightInMapUnits = _seqParameterSet.getPicHeightInMapUnitsMinus1() + 1;
+		int sliceGroupChangeRate = _pictureParameterSet.getSliceGroupChangeRateMinus1() + 1;
+		int sliceGroupChangeDirectionFlag = _pictureParameterSet.getSliceGroupChangeDirectionFlag();
+		int picSizeInMapUnits = picWidthInMbs * picHeightInMapUnits;
+		int mapUnitsInSliceGroup0 = Math.min(_sliceGroupChangeCycle * sliceGroupChangeRate, picSizeInMapUnits);
+		int sizeOfUpperLeftGroup = (sliceGroupChangeDirectionFlag == 1 ? 
+				(picSizeInMapUnits - mapUnitsInSliceGroup0) : mapUnitsInSliceGroup0);
+		
+		for (int i = 0; i < picSizeInMapUnits; i++) {
+			if (i < sizeOfUpperLeftGroup) {
+				_mapUnitToSliceGroupMap[i] = sliceGroupChangeDirectionFlag;
+			} else { 
+				_mapUnitToSliceGroupMap[i] = 1 - sliceGroupChangeDirectionFlag;
+			}
+		}
+	}
+	
+	private void createMapUnitWithWipeSlice() {
+		int picWidthInMbs = _seqParameterSet.getPicWidthInMbsMinus1() + 1;
+		int picHeightInMapUnits = _seqParameterSet.getPicHeightInMapUnitsMinus1() + 1;
+		int sliceGroupChangeRate = _pictureParameterSet.getSliceGroupChangeRateMinus1() + 1;
+		int sliceGroupChangeDirectionFlag = _pictureParameterSet.getSliceGroupChangeDirectionFlag();
+		int picSizeInMapUnits = picWidthInMbs * picHeightInMapUnits;
+		int mapUnitsInSliceGroup0 = Math.min(_sliceGroupChangeCycle * sliceGroupChangeRate, picSizeInMapUnits);
+		int sizeOfUpperLeftGroup = (sliceGroupChangeDirectionFlag == 1 ? 
+				(picSizeInMapUnits - mapUnitsInSliceGroup0) : mapUnitsInSliceGroup0);
+		int k = 0;
+		
+		for (int j = 0; j < picWidthInMbs; j++) {
+			for (int i = 0; i < picHeightInMapUnits; i++) {
+				if(k++ < sizeOfUpperLeftGroup) {
+					_mapUnitToSliceGroupMap[i * picWidthInMbs + j] = sliceGroupChangeDirectionFlag;
+				} else {
+					_mapUnitToSliceGroupMap[i * picWidthInMbs + j] = 1 - sliceGroupChangeDirectionFlag;
+				}		
+			}
+		}
+	}
+	
+	private void createMapUnitWithExplicitSlice() {
+		int picWidthInMbs = _seqParameterSet.getPicWidthInMbsMinus1() + 1;
+		int picHeightInMapUnits = _seqParameterSet.getPicHeightInMapUnitsMinus1() + 1;
+		int picSizeInMapUnits = picWidthInMbs * picHeightInMapUnits;
+		
+		for (int i = 0; i < picSizeInMapUnits; ++i) {
+			_mapUnitToSliceGroupMap[i] = _pictureParameterSet.getSliceGroupId()[i];
+		}
+	}
+}
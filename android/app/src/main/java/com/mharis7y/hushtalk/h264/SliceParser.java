@@ -3,11 +3,13 @@ package com.mharis7y.hushtalk.h264;
 import java.util.ArrayList;
 import java.util.List;
 
-import com.mharis7y.hushtalk.tools.BitBufferReader;
+import com.mharis7y.hushtalk.tools.CachedBitBufferReader;
+import com.mharis7y.hushtalk.tools.IBitReader;
 import com.mharis7y.hushtalk.tools.Pair;
 
 public class SliceParser {
 
+	private ParameterSetRegistry _parameterSets;
 	private SeqParameterSetParser _seqParameterSetParser;
 	private PictureParameterSetParser _pictureParameterSetParser;
 	private int _nalUnitType;
@@ -74,8 +76,7 @@ public class SliceParser {
 	private int _long_term_frame_idx;
 	private int _max_long_term_frame_idx_plus1;
 
-	private int _mapUnitToSliceGroupMap[];
-	private int _mbToSliceGroupMap[];
+	private SliceGroupMap _sliceGroupMap;
 
 
 	private int _cabac_alignement_one_bit;
@@ -85,20 +86,30 @@ public class SliceParser {
 	private int _end_of_slice_flag;
 	
 	public SliceParser(SeqParameterSetParser seqParameterSetParser, PictureParameterSetParser pictureParameterSetParser, int nalUnitType, int nalRefIdc) {
-		_seqParameterSetParser = seqParameterSetParser;
-		_pictureParameterSetParser = pictureParameterSetParser;
+		_parameterSets = null;
+		_nalUnitType = nalUnitType;
+		_nalRefIdc = nalRefIdc;
+		_idrPicFlag = (_nalUnitType == 5 );
+		_macroblockDataOffset = new ArrayList<Pair<Integer,Integer>>();
+		setParameterSets(seqParameterSetParser, pictureParameterSetParser);
+	}
+
+	/**
+	 * The parameter sets of the slice are looked up in parameterSets from the
+	 * pic_parameter_set_id of its header.
+	 */
+	public SliceParser(ParameterSetRegistry parameterSets, int nalUnitType, int nalRefIdc) {
+		_parameterSets = parameterSets;
 		_nalUnitType = nalUnitType;
 		_nalRefIdc = nalRefIdc;
-		_chromaArrayType = (_seqParameterSetParser.getSeparateColourPlaneFlag() == 0 ? _seqParameterSetParser.getChromaFormatIdc() : 0);
 		_idrPicFlag = (_nalUnitType == 5 );
 		_macroblockDataOffset = new ArrayList<Pair<Integer,Integer>>();
 	}
 
 	public void parseSlice(byte[] data) {
-		BitBufferReader bitBufferReader = new BitBufferReader(data);
+		IBitReader bitBufferReader = new CachedBitBufferReader(data);
 		
-		parseSliceHeader(bitBufferReader);
-		_sliceDataOffset = (bitBufferReader.getCurrentBitOffset() == 0 ? bitBufferReader.getCurrentOffset() : bitBufferReader.getCurrentOffset() + 1);
+		parseHeader(bitBufferReader);
 		try {
 			parseSliceData(bitBufferReader);
 		} catch (Exception ex) {
@@ -106,10 +117,23 @@ public class SliceParser {
 		}
 	}
 	
-	private void parseSliceHeader(BitBufferReader bitBufferReader) {
+	/**
+	 * Parses the slice header only and stops there: no macroblock is parsed, getSliceDataOffset
+	 * is the offset of the first byte after the header in the reader.
+	 */
+	public void parseHeader(IBitReader bitBufferReader) {
+		_sliceGroupMap = null;
+		parseSliceHeader(bitBufferReader);
+		_sliceDataOffset = (bitBufferReader.getCurrentBitOffset() == 0 ? bitBufferReader.getCurrentOffset() : bitBufferReader.getCurrentOffset() + 1);
+	}
+	
+	private void parseSliceHeader(IBitReader bitBufferReader) {
 		_first_mb_in_slice = bitBufferReader.readUE();
 		_slice_type = bitBufferReader.readUE();
 		_pic_parameter_set_id = bitBufferReader.readUE();
+		if (_parameterSets != null) {
+			lookUpParameterSets();
+		}
 		
 		if (_seqParameterSetParser.getSeparateColourPlaneFlag() == 1) {
 			_colour_plane_id = (int) bitBufferReader.readNBits(2);
@@ -155,6 +179,8 @@ public class SliceParser {
 				_slice_type == 3 || _slice_type == 8 ||
 				_slice_type == 1 || _slice_type == 6) {
 			_num_ref_idx_active_override_flag = (int) bitBufferReader.readNBits(1);
+			_num_ref_idx_l0_active_minus1 = _pictureParameterSetParser.getNumRefIdxL0DefaultActiveMinus1();
+			_num_ref_idx_l1_active_minus1 = _pictureParameterSetParser.getNumRefIdxL1DefaultActiveMinus1();
 			if (_num_ref_idx_active_override_flag == 1) {
 				_num_ref_idx_l0_active_minus1 = bitBufferReader.readUE();
 				if (_slice_type == 1 || _slice_type == 6) {
@@ -207,7 +233,7 @@ public class SliceParser {
 		}
 	}
 	
-	private void readRefPicListMvcModification(BitBufferReader bitBufferReader) {
+	private void readRefPicListMvcModification(IBitReader bitBufferReader) {
 		if (_slice_type % 5 != 2 && _slice_type %5 != 4) {
 			_ref_pic_list_modification_flag_l0 = (int) bitBufferReader.readNBits(1);
 			if (_ref_pic_list_modification_flag_l0 == 1) {
@@ -241,7 +267,7 @@ public class SliceParser {
 		}
 	}
 	
-	private void readRefPicListModification(BitBufferReader bitBufferReader) {
+	private void readRefPicListModification(IBitReader bitBufferReader) {
 		if (_slice_type % 5 != 2 && _slice_type % 5 != 4) {
 			_ref_pic_list_modification_flag_l0 = (int) bitBufferReader.readNBits(1);
 			if (_ref_pic_list_modification_flag_l0 == 1) {
@@ -271,7 +297,7 @@ public class SliceParser {
 		}
 	}
 	
-	private void readPredWeightTable(BitBufferReader bitBufferReader) {
+	private void readPredWeightTable(IBitReader bitBufferReader) {
 		_luma_log2_weight_denom = bitBufferReader.readUE();
 		if (_chromaArrayType != 0) {
 			_chroma_log2_weight_denom = bitBufferReader.readUE();
@@ -322,7 +348,7 @@ public class SliceParser {
 		}
 	}
 	
-	private void readDecRefPicMarking(BitBufferReader bitBufferReader) {
+	private void readDecRefPicMarking(IBitReader bitBufferReader) {
 		if (_idrPicFlag) {
 			_no_output_of_prior_pics_flag = (int) bitBufferReader.readNBits(1);
 			_long_term_reference_flag = (int) bitBufferReader.readNBits(1);
@@ -348,14 +374,22 @@ public class SliceParser {
 		}
 	}
 	
-	private void parseSliceData(BitBufferReader bitBufferReader) {
+	private void parseSliceData(IBitReader bitBufferReader) {
 		int mbaffFrameFlag = (_seqParameterSetParser.getMbAdaptiveFrameFieldFlag() == 1 && _field_pic_flag == 0 ? 1 : 0); 
 		int currMbAddr = _first_mb_in_slice * (1 + mbaffFrameFlag);
 		int entropyCodingMode = _pictureParameterSetParser.getEntropyCodingModeFlag();
 		boolean moreDataFlag = true;
 		boolean prevMbSkipped = false;
+		int picWidthInMbs = _seqParameterSetParser.getPicWidthInMbsMinus1() + 1;
+		TotalCoeffMap totalCoeffMap = null;
+		CavlcResidualParser cavlcResidualParser = null;
 		
-		if (entropyCodingMode == 1) {
+		// inferred from field_pic_flag when absent (7.4.4), MBAFF pairs read it
+		_mb_field_decoding_flag = _field_pic_flag;
+		if (entropyCodingMode == 0) {
+			totalCoeffMap = new TotalCoeffMap(picWidthInMbs, getSliceGroupMap().getMbToSliceGroupMap().length);
+			cavlcResidualParser = new CavlcResidualParser();
+		} else {
 			while (bitBufferReader.getCurrentBitOffset() != 0) {
 				_cabac_alignement_one_bit = (int) bitBufferReader.readNBits(1);
 			}
@@ -367,6 +401,8 @@ public class SliceParser {
 					_mb_skip_run = bitBufferReader.readUE();
 					prevMbSkipped = (_mb_skip_run > 0);
 					for (int i = 0; i < _mb_skip_run; ++i) {
+						// skipped macroblocks are available neighbours without coefficients
+						totalCoeffMap.startMacroblock(currMbAddr);
 						currMbAddr = nextMbAddress(currMbAddr);
 					}
 					if (_mb_skip_run > 0) {
@@ -383,7 +419,7 @@ public class SliceParser {
 				if (mbaffFrameFlag == 1 && (currMbAddr % 2 == 0 || (currMbAddr % 2 == 1 && prevMbSkipped))) {
 					_mb_field_decoding_flag = (entropyCodingMode == 0 ? (int) bitBufferReader.readNBits(1) : bitBufferReader.readAE());
 				}
-				readMacroblockLayer(bitBufferReader);
+				readMacroblockLayer(bitBufferReader, currMbAddr, totalCoeffMap, cavlcResidualParser);
 			}
 			
 			if (entropyCodingMode == 0) {
@@ -403,240 +439,43 @@ public class SliceParser {
 		} while (moreDataFlag);
 	}
 	
-	private int nextMbAddress(int current) {
-		int picWidthInMbs = _seqParameterSetParser.getPicWidthInMbsMinus1() + 1;
-		int picHeightInMapUnits = _seqParameterSetParser.getPicHeightInMapUnitsMinus1() + 1;
-		int frameMbsOnlyFlag = _seqParameterSetParser.getFrameMbsOnlyFlag();
-		int frameHeightInMbs = (2 - frameMbsOnlyFlag) * picHeightInMapUnits;
-		int picHeightInMbs = frameHeightInMbs / (1 + _field_pic_flag);
-		int picSizeInMbs = picWidthInMbs * picHeightInMbs;
-		int i = current + 1;
-		
-		_mapUnitToSliceGroupMap = new int[picSizeInMbs];
-		_mbToSliceGroupMap = new int[picSizeInMbs];
-		convertMacroblockToSliceGroupMap();
-		convertSliceGroupMapToMacroblockGroupMap();
-		while (i < picSizeInMbs && _mbToSliceGroupMap[i] != _mbToSliceGroupMap[current]) {
-			++i;
-		}
-		return i;
-	}
-	
-	private void convertSliceGroupMapToMacroblockGroupMap() {
-		int picWidthInMbs = _seqParameterSetParser.getPicWidthInMbsMinus1() + 1;
-		int picHeightInMapUnits = _seqParameterSetParser.getPicHeightInMapUnitsMinus1() + 1;
-		int frameMbsOnlyFlag = _seqParameterSetParser.getFrameMbsOnlyFlag();
-		int frameHeightInMbs = (2 - frameMbsOnlyFlag) * picHeightInMapUnits;
-		int picHeightInMbs = frameHeightInMbs / (1 + _field_pic_flag);
-		int picSizeInMbs = picWidthInMbs * picHeightInMbs;
-		int mbAffFrameFlag = (_seqParameterSetParser.getMbAdaptiveFrameFieldFlag() == 1 && _field_pic_flag == 0 ? 1 : 0); 
-		
-		_mbToSliceGroupMap = new int[picSizeInMbs];
-		for (int i = 0; i < picSizeInMbs; ++i) {
-			if (frameMbsOnlyFlag == 1 || _field_pic_flag == 1) {
-				_mbToSliceGroupMap[i] = _mapUnitToSliceGroupMap[i];
-			} else if (mbAffFrameFlag == 1) {
-				_mbToSliceGroupMap[i] = _mapUnitToSliceGroupMap[i / 2];
-			} else {
-				_mbToSliceGroupMap[i] = _mapUnitToSliceGroupMap[(i / (2 * picWidthInMbs)) * picWidthInMbs + (i % picWidthInMbs)];
-			}
-		}
-	}
-	
-	private void convertMacroblockToSliceGroupMap() {
-		if (_pictureParameterSetParser.getNumSliceGroupsMinus1() != 0) {
-			switch (_pictureParameterSetParser.getSliceGroupMapType()) {
-				case 0:
-					createMapUnitWithInterleavedSlice();
-					break;
-				case 1:
-					createMapUnitWithDispersedSlice();
-					break;
-				case 2:
-					createMapUnitWithForegroundSlice();
-					break;
-				case 3:
-					createMapUnitWithBoxoutSlice();
-					break;
-				case 4:
-					createMapUnitWithRasterSlice();
-					break;
-				case 5:
-					createMapUnitWithWipeSlice();
-					break;
-				case 6:
-					createMapUnitWithExplicitSlice();
-					break;
-				default:
-					break;
-			}
-		}
+	private void setParameterSets(SeqParameterSetParser seqParameterSetParser, PictureParameterSetParser pictureParameterSetParser) {
+		_seqParameterSetParser = seqParameterSetParser;
+		_pictureParameterSetParser = pictureParameterSetParser;
+		_chromaArrayType = (_seqParameterSetParser.getSeparateColourPlaneFlag() == 0 ? _seqParameterSetParser.getChromaFormatIdc() : 0);
 	}
 
-	private void createMapUnitWithInterleavedSlice() {
-		int numSliceGroupMinus1 = _pictureParameterSetParser.getNumSliceGroupsMinus1();
-		int picSizeInMapUnits = _pictureParameterSetParser.getPicSizeInMapUnitMinus1() + 1;
-		int runLengthMinus1[] = _pictureParameterSetParser.getRunLengthMinus1(); 
-		int i = 0;
-		
-		do {
-			for (int iGroup = 0; iGroup <= numSliceGroupMinus1 && i < picSizeInMapUnits; 
-					i += (runLengthMinus1[iGroup++] + 1)) {
-				for (int j = 0; j <= runLengthMinus1[iGroup] && (i + j) < picSizeInMapUnits; j++) {
-					_mapUnitToSliceGroupMap[i + j] = iGroup;
-				}
-			}
-		} while (i < picSizeInMapUnits);
-	}
-	
-	private void createMapUnitWithDispersedSlice() {
-		int picWidthInMbs = _seqParameterSetParser.getPicWidthInMbsMinus1() + 1;
-		int picHeightInMapUnits = _seqParameterSetParser.getPicHeightInMapUnitsMinus1() + 1;
-		int numSliceGroupsMinus1 = _pictureParameterSetParser.getNumSliceGroupsMinus1();
-		int picSizeInMapUnits = picWidthInMbs * picHeightInMapUnits;
-		
-		for (int i = 0; i < picSizeInMapUnits + 1; ++i) {
-			_mapUnitToSliceGroupMap[i] = ((i % picWidthInMbs) +
-					(((i / picWidthInMbs) * (numSliceGroupsMinus1 + 1)) / 2)) % (numSliceGroupsMinus1 + 1);
-		}
-	}
-	
-	private void createMapUnitWithForegroundSlice() {
-		int picWidthInMbs = _seqParameterSetParser.getPicWidthInMbsMinus1() + 1;
-		int picHeightInMapUnits = _seqParameterSetParser.getPicHeightInMapUnitsMinus1() + 1;
-		int numSliceGroupsMinus1 = _pictureParameterSetParser.getNumSliceGroupsMinus1();
-		int picSizeInMapUnits = picWidthInMbs * picHeightInMapUnits;
-		int topLeft[] = _pictureParameterSetParser.getTopLeft();
-		int bottomRight[] = _pictureParameterSetParser.getBottomRight();
-		
-		for (int i = 0; i < picSizeInMapUnits; i++) {
-			_mapUnitToSliceGroupMap[i] = numSliceGroupsMinus1;
-		}
-		for (int iGroup = numSliceGroupsMinus1 - 1; iGroup >= 0; iGroup--) {
-			int yTopLeft = topLeft[iGroup] / picWidthInMbs;
-			int xTopLeft = topLeft[iGroup] % picWidthInMbs;
-			int yBottomRight = bottomRight[iGroup] / picWidthInMbs;
-			int xBottomRight = bottomRight[iGroup] % picWidthInMbs;
-			for (int y = yTopLeft; y <= yBottomRight; y++) {
-				for (int x = xTopLeft; x <= xBottomRight; x++ ) {
-					_mapUnitToSliceGroupMap[y * picWidthInMbs + x] = iGroup;
-				}	
-			}	
-		}
-	}
-	
-	private void createMapUnitWithBoxoutSlice() {
-		int picWidthInMbs = _seqParameterSetParser.getPicWidthInMbsMinus1() + 1;
-		int picHeightInMapUnits = _seqParameterSetParser.getPicHeightInMapUnitsMinus1() + 1;
-		int sliceGroupChangeRate = _pictureParameterSetParser.getSliceGroupChangeRateMinus1() + 1;
-		int sliceGroupChangeDirectionFlag = _pictureParameterSetParser.getSliceGroupChangeDirectionFlag();
-		int picSizeInMapUnits = picWidthInMbs * picHeightInMapUnits;
-		int mapUnitsInSliceGroup0 = Math.min(_slice_group_change_cycle * sliceGroupChangeRate, picSizeInMapUnits);
-		int leftBound;
-		int rightBound;
-		int topBound;
-		int bottomBound;
-		int xDir;
-		int yDir;
-		int mapUnitVacant = 0;
-		
-		for (int i = 0; i < picSizeInMapUnits; i++) {
-			_mapUnitToSliceGroupMap[i] = 1;
-		}
-		int x = (picWidthInMbs - sliceGroupChangeDirectionFlag) / 2;
-		int y = (picHeightInMapUnits - sliceGroupChangeDirectionFlag) / 2;
-		leftBound = x;
-		topBound = y;
-		rightBound = x;
-		bottomBound = y;
-		xDir = sliceGroupChangeDirectionFlag - 1;
-		yDir = sliceGroupChangeDirectionFlag;
-		
-		for(int k = 0; k < mapUnitsInSliceGroup0; k += mapUnitVacant) {
-			mapUnitVacant = (_mapUnitToSliceGroupMap[y * picWidthInMbs + x] == 1 ? 1 : 0);
-			if (mapUnitVacant == 1) {
-				_mapUnitToSliceGroupMap[y * picWidthInMbs + x] = 0; 
-			}
-			if (xDir == -1 && x == leftBound) {
-				leftBound = Math.max(leftBound - 1, 0);
-				x = leftBound;
-				xDir = 0;
-				yDir = 2 * sliceGroupChangeDirectionFlag - 1;
-			} else if (xDir == 1 && x == rightBound) {
-				rightBound = Math.min(rightBound + 1, picWidthInMbs - 1);
-				x = rightBound;
-				xDir = 0;
-				yDir = 1 - 2 * sliceGroupChangeDirectionFlag;
-			} else if (yDir == -1 && y == topBound) {
-				topBound = Math.max(topBound - 1, 0);
-				y = topBound;
-				xDir = 1 - 2 * sliceGroupChangeDirectionFlag;
-				yDir = 0;
-			} else if (yDir == 1 && y == bottomBound) {
-				bottomBound = Math.min(bottomBound + 1, picHeightInMapUnits - 1);
-				y = bottomBound;
-				xDir = 2 * sliceGroupChangeDirectionFlag - 1;
-				yDir = 0;
-			} else {
-				x = x + xDir;
-				y = y + yDir;
-			}
+	private void lookUpParameterSets() {
+		PictureParameterSetParser pictureParameterSetParser = _parameterSets.getPictureParameterSet(_pic_parameter_set_id);
+		SeqParameterSetParser seqParameterSetParser;
+
+		if (pictureParameterSetParser == null) {
+			throw new IllegalStateException("Unknown picture parameter set " + _pic_parameter_set_id);
 		}
-	}
-	
-	private void createMapUnitWithRasterSlice() {
-		int picWidthInMbs = _seqParameterSetParser.getPicWidthInMbsMinus1() + 1;
-		int picHeightInMapUnits = _seqParameterSetParser.getPicHeightInMapUnitsMinus1() + 1;
-		int sliceGroupChangeRate = _pictureParameterSetParser.getSliceGroupChangeRateMinus1() + 1;
-		int sliceGroupChangeDirectionFlag = _pictureParameterSetParser.getSliceGroupChangeDirectionFlag();
-		int picSizeInMapUnits = picWidthInMbs * picHeightInMapUnits;
-		int mapUnitsInSliceGroup0 = Math.min(_slice_group_change_cycle * sliceGroupChangeRate, picSizeInMapUnits);
-		int sizeOfUpperLeftGroup = (sliceGroupChangeDirectionFlag == 1 ? 
-				(picSizeInMapUnits - mapUnitsInSliceGroup0) : mapUnitsInSliceGroup0);
-		
-		for (int i = 0; i < picSizeInMapUnits; i++) {
-			if (i < sizeOfUpperLeftGroup) {
-				_mapUnitToSliceGroupMap[i] = sliceGroupChangeDirectionFlag;
-			} else { 
-				_mapUnitToSliceGroupMap[i] = 1 - sliceGroupChangeDirectionFlag;
-			}
+		seqParameterSetParser = _parameterSets.getSeqParameterSet(pictureParameterSetParser.getSeqParameterSetId());
+		if (seqParameterSetParser == null) {
+			throw new IllegalStateException("Unknown sequence parameter set " + pictureParameterSetParser.getSeqParameterSetId());
 		}
+		setParameterSets(seqParameterSetParser, pictureParameterSetParser);
 	}
-	
-	private void createMapUnitWithWipeSlice() {
-		int picWidthInMbs = _seqParameterSetParser.getPicWidthInMbsMinus1() + 1;
-		int picHeightInMapUnits = _seqParameterSetParser.getPicHeightInMapUnitsMinus1() + 1;
-		int sliceGroupChangeRate = _pictureParameterSetParser.getSliceGroupChangeRateMinus1() + 1;
-		int sliceGroupChangeDirectionFlag = _pictureParameterSetParser.getSliceGroupChangeDirectionFlag();
-		int picSizeInMapUnits = picWidthInMbs * picHeightInMapUnits;
-		int mapUnitsInSliceGroup0 = Math.min(_slice_group_change_cycle * sliceGroupChangeRate, picSizeInMapUnits);
-		int sizeOfUpperLeftGroup = (sliceGroupChangeDirectionFlag == 1 ? 
-				(picSizeInMapUnits - mapUnitsInSliceGroup0) : mapUnitsInSliceGroup0);
-		int k = 0;
-		
-		for (int j = 0; j < picWidthInMbs; j++) {
-			for (int i = 0; i < picHeightInMapUnits; i++) {
-				if(k++ < sizeOfUpperLeftGroup) {
-					_mapUnitToSliceGroupMap[i * picWidthInMbs + j] = sliceGroupChangeDirectionFlag;
-				} else {
-					_mapUnitToSliceGroupMap[i * picWidthInMbs + j] = 1 - sliceGroupChangeDirectionFlag;
-				}		
-			}
-		}
+
+	private int nextMbAddress(int current) {
+		return getSliceGroupMap().nextMbAddress(current);
 	}
-	
-	private void createMapUnitWithExplicitSlice() {
-		int picWidthInMbs = _seqParameterSetParser.getPicWidthInMbsMinus1() + 1;
-		int picHeightInMapUnits = _seqParameterSetParser.getPicHeightInMapUnitsMinus1() + 1;
-		int picSizeInMapUnits = picWidthInMbs * picHeightInMapUnits;
-		
-		for (int i = 0; i < picSizeInMapUnits; ++i) {
-			_mapUnitToSliceGroupMap[i] = _pictureParameterSetParser.getSliceGroupId()[i];
+
+	private SliceGroupMap getSliceGroupMap() {
+		if (_sliceGroupMap == null) {
+			_sliceGroupMap = _pictureParameterSetParser.getSliceGroupMap(_seqParameterSetParser, _field_pic_flag, _slice_group_change_cycle);
 		}
+		return _sliceGroupMap;
 	}
 	
-	private void readMacroblockLayer(BitBufferReader bitBufferReader) {
+	private void readMacroblockLayer(IBitReader bitBufferReader, int currMbAddr, TotalCoeffMap totalCoeffMap, CavlcResidualParser cavlcResidualParser) {
 		MacroblockLayerParser layerParser = new MacroblockLayerParser(_seqParameterSetParser, _pictureParameterSetParser, _slice_type, _field_pic_flag, _mb_field_decoding_flag);
+		layerParser.setNumRefIdxActive(_num_ref_idx_l0_active_minus1, _num_ref_idx_l1_active_minus1);
+		if (totalCoeffMap != null) {
+			layerParser.setResidualContext(cavlcResidualParser, totalCoeffMap, currMbAddr);
+		}
 		layerParser.parseMacroblockLayer(bitBufferReader);
 		for (Pair<Integer, Integer> p : layerParser.getMacroblockResidualOffset()) {
 			_macroblockDataOffset.add(p);
@@ -876,11 +715,11 @@ public class SliceParser {
 	}
 
 	public int[] getMapUnitToSliceGroupMap() {
-		return _mapUnitToSliceGroupMap;
+		return (_sliceGroupMap == null ? null : _sliceGroupMap.getMapUnitToSliceGroupMap());
 	}
 
 	public int[] getMbToSliceGroupMap() {
-		return _mbToSliceGroupMap;
+		return (_sliceGroupMap == null ? null : _sliceGroupMap.getMbToSliceGroupMap());
 	}
 
 	public int getCabacAlignementOneBit() {
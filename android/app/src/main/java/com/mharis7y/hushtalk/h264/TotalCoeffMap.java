@@ -0,0 +1,98 @@
+package com.mharis7y.hushtalk.h264;
+
+/**
+ * TotalCoeff(coeff_token) of every 4x4 block of the macroblocks of a slice, from which the
+ * nC of the coeff_token of the next blocks is derived (9.2.1). Blocks are stored in raster
+ * order in their macroblock, one plane per colour component. Neighbouring macroblocks are
+ * the left and upper ones of a non MBAFF picture, available once decoded in the slice.
+ */
+public class TotalCoeffMap {
+
+	public static final int LUMA = 0;
+	public static final int CB = 1;
+	public static final int CR = 2;
+
+	private static final int BLOCK_COUNT = 16;
+	private static final int COMPONENT_COUNT = 3;
+	private static final int PCM_TOTAL_COEFF = 16;
+
+	private int _picWidthInMbs;
+	private byte[] _totalCoeffs;
+	private boolean[] _available;
+
+	public TotalCoeffMap(int picWidthInMbs, int picSizeInMbs) {
+		_picWidthInMbs = picWidthInMbs;
+		_totalCoeffs = new byte[picSizeInMbs * COMPONENT_COUNT * BLOCK_COUNT];
+		_available = new boolean[picSizeInMbs];
+	}
+
+	/**
+	 * Makes the macroblock available to the next ones, with no coefficient. Skipped
+	 * macroblocks are only marked.
+	 */
+	public void startMacroblock(int mbAddr) {
+		if (isInPicture(mbAddr)) {
+			_available[mbAddr] = true;
+		}
+	}
+
+	// I_PCM macroblocks count 16 coefficients in every block
+	public void setPcm(int mbAddr) {
+		int offset = mbAddr * COMPONENT_COUNT * BLOCK_COUNT;
+
+		if (isInPicture(mbAddr)) {
+			for (int i = offset; i < offset + COMPONENT_COUNT * BLOCK_COUNT; ++i) {
+				_totalCoeffs[i] = PCM_TOTAL_COEFF;
+			}
+		}
+	}
+
+	/**
+	 * @param blkX horizontal index of the 4x4 block in the macroblock
+	 * @param blkY vertical index of the 4x4 block in the macroblock
+	 * @param width number of 4x4 blocks in a row of the component, 4 for luma
+	 */
+	public void setTotalCoeff(int mbAddr, int component, int blkX, int blkY, int width, int totalCoeff) {
+		if (isInPicture(mbAddr)) {
+			_totalCoeffs[getIndex(mbAddr, component, blkX, blkY, width)] = (byte) totalCoeff;
+		}
+	}
+
+	/**
+	 * @param height number of 4x4 blocks in a column of the component, 4 for luma
+	 * @return nC of the block, from its left and upper neighbours
+	 */
+	public int getNC(int mbAddr, int component, int blkX, int blkY, int width, int height) {
+		int nA = -1;
+		int nB = -1;
+
+		if (blkX > 0) {
+			nA = _totalCoeffs[getIndex(mbAddr, component, blkX - 1, blkY, width)];
+		} else if (mbAddr % _picWidthInMbs != 0 && isAvailable(mbAddr - 1)) {
+			nA = _totalCoeffs[getIndex(mbAddr - 1, component, width - 1, blkY, width)];
+		}
+		if (blkY > 0) {
+			nB = _totalCoeffs[getIndex(mbAddr, component, blkX, blkY - 1, width)];
+		} else if (isAvailable(mbAddr - _picWidthInMbs)) {
+			nB = _totalCoeffs[getIndex(mbAddr - _picWidthInMbs, component, blkX, height - 1, width)];
+		}
+
+		if (nA >= 0 && nB >= 0) {
+			return (nA + nB + 1) >> 1;
+		}
+		return Math.max(0, Math.max(nA, nB));
+	}
+
+	// Private methods
+	private boolean isInPicture(int mbAddr) {
+		return mbAddr >= 0 && mbAddr < _available.length;
+	}
+
+	private boolean isAvailable(int mbAddr) {
+		return isInPicture(mbAddr) && _available[mbAddr];
+	}
+
+	private int getIndex(int mbAddr, int component, int blkX, int blkY, int width) {
+		return (mbAddr * COMPONENT_COUNT + component) * BLOCK_COUNT + blkY * width + blkX;
+	}
+}
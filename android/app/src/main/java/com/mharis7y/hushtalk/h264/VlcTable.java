@@ -0,0 +1,89 @@
+package com.mharis7y.hushtalk.h264;
+
+import com.mharis7y.hushtalk.tools.IBitReader;
+
+/**
+ * Variable length code decoded with one or two table lookups: the first ROOT_BITS bits of
+ * the code index a root table, longer codes continue in a sub table indexed by the next
+ * bits. The value of a code is its index in the arrays it is built from.
+ */
+public class VlcTable {
+
+	private static final int ROOT_BITS = 8;
+	private static final int LENGTH_BITS = 5;
+	private static final int LENGTH_MASK = (1 << LENGTH_BITS) - 1;
+
+	private int[] _table;
+	private int _maxLength;
+	private int _rootBits;
+	private int _subBits;
+
+	/**
+	 * @param lengths length of the code of each value, 0 for unused values
+	 * @param codes code of each value, right aligned
+	 * @throws IllegalArgumentException if the codes are not prefix free
+	 */
+	public VlcTable(int[] lengths, int[] codes) {
+		int subTableCount = 0;
+		int[] subTables;
+
+		for (int length : lengths) {
+			_maxLength = Math.max(_maxLength, length);
+		}
+		_rootBits = Math.min(ROOT_BITS, _maxLength);
+		_subBits = _maxLength - _rootBits;
+
+		// root prefixes of the codes longer than the root, each gets a sub table
+		subTables = new int[1 << _rootBits];
+		for (int i = 0; i < lengths.length; ++i) {
+			if (lengths[i] > _rootBits && subTables[codes[i] >>> (lengths[i] - _rootBits)] == 0) {
+				subTables[codes[i] >>> (lengths[i] - _rootBits)] = (1 << _rootBits) + (subTableCount++ << _subBits);
+			}
+		}
+		_table = new int[(1 << _rootBits) + (subTableCount << _subBits)];
+		for (int i = 0; i < subTables.length; ++i) {
+			if (subTables[i] != 0) {
+				_table[i] = -((subTables[i] << LENGTH_BITS) | _subBits);
+			}
+		}
+		for (int i = 0; i < lengths.length; ++i) {
+			if (lengths[i] > _rootBits) {
+				fill(subTables[codes[i] >>> (lengths[i] - _rootBits)], _subBits, codes[i] & ((1 << (lengths[i] - _rootBits)) - 1),
+						lengths[i] - _rootBits, (i << LENGTH_BITS) | lengths[i]);
+			} else if (lengths[i] > 0) {
+				fill(0, _rootBits, codes[i], lengths[i], (i << LENGTH_BITS) | lengths[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return the value of the next code, which is consumed
+	 * @throws IllegalStateException if the next bits are not a code of the table
+	 */
+	public int read(IBitReader bitBufferReader) {
+		int bits = bitBufferReader.peekNBits(_maxLength);
+		int entry = _table[bits >>> _subBits];
+
+		if (entry < 0) {
+			entry = _table[(-entry >>> LENGTH_BITS) + (bits & ((1 << _subBits) - 1))];
+		}
+		if (entry == 0) {
+			throw new IllegalStateException("Invalid variable length code");
+		}
+		bitBufferReader.readNBits(entry & LENGTH_MASK);
+		return entry >>> LENGTH_BITS;
+	}
+
+	// Private methods
+	private void fill(int offset, int tableBits, int code, int length, int entry) {
+		int first = offset + (code << (tableBits - length));
+		int count = 1 << (tableBits - length);
+
+		for (int i = first; i < first + count; ++i) {
+			if (_table[i] != 0) {
+				throw new IllegalArgumentException("Codes are not prefix free");
+			}
+			_table[i] = entry;
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package com.mharis7y.hushtalk.lsb;
+
+public interface ILSBEncoder {
+
+	public byte[] encodeNextFrame(byte[] frame);
+
+	/**
+	 * Encodes the carrier bytes of frame from offset to offset + length only
+	 * @return frame
+	 */
+	public byte[] encodeNextFrame(byte[] frame, int offset, int length);
+	public boolean isComplete();
+}
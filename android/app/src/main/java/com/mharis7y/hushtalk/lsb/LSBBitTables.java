@@ -0,0 +1,42 @@
+package com.mharis7y.hushtalk.lsb;
+
+final class LSBBitTables {
+
+	static final int BYTE_SIZE = 8;
+
+	// REVERSED_BITS[n][v] mirrors the n low bits of v: carrier bit 0 holds the first payload bit
+	static final int[][] REVERSED_BITS = new int[BYTE_SIZE + 1][];
+
+	static {
+		for (int n = 0; n <= BYTE_SIZE; ++n) {
+			REVERSED_BITS[n] = new int[1 << n];
+			for (int v = 0; v < (1 << n); ++v) {
+				int r = 0;
+				for (int b = 0; b < n; ++b) {
+					r |= ((v >> (n - 1 - b)) & 1) << b;
+				}
+				REVERSED_BITS[n][v] = r;
+			}
+		}
+	}
+
+	// Bit cursor reached after a carrier of carrierLength bytes, header bits counted in the cursor
+	static int advanceCursor(int bitCursor, int carrierLength, int nbBitInOneByte, int headerBitSize, int bitLength) {
+		long cursor = bitCursor;
+		int headerLength = (int) Math.min(carrierLength, Math.max(0, headerBitSize - cursor));
+
+		cursor += headerLength;
+		cursor += (long) (carrierLength - headerLength) * nbBitInOneByte;
+		return (int) Math.min(cursor, bitLength);
+	}
+
+	// Carrier bytes needed for bitLength bits, one header bit per byte then nbBitInOneByte per byte
+	static long getCarrierLength(int nbBitInOneByte, int headerBitSize, int bitLength) {
+		int headerLength = Math.min(headerBitSize, bitLength);
+
+		return headerLength + ((long) bitLength - headerLength + nbBitInOneByte - 1) / nbBitInOneByte;
+	}
+
+	private LSBBitTables() {
+	}
+}
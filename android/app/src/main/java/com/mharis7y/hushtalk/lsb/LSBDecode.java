@@ -1,59 +1,105 @@
 package com.mharis7y.hushtalk.lsb;
 
-import com.mharis7y.hushtalk.tools.Utils;
-
 public class LSBDecode {
-	
+
 	private static final int BYTE_SIZE 		= 8;
-	private static final int INT_SIZE 		= BYTE_SIZE * 4;
 
-	private int _to_unhide_byte_length 	= 0;
+	private LSBHeader _header			= new LSBHeader();
 	private int _to_unhide_bit_length 	= 0;
 	private int _nbBitToDecodeInOneByte	= 1;
 	private int _cursor					= 0;
-	private int _get_int_cursor			= 0;
-	
+
 	public byte[] _unhide_content		= null;
-	
-	private String _intRepr				= "";
+
+	// pending payload bits not yet flushed as a whole byte
+	private int _pendingBits			= 0;
+	private int _pendingBitLength		= 0;
+	private int _outputOffset			= 0;
 
 	public byte[] decodeFrame(byte[] frame) {
-		if (_cursor > _to_unhide_bit_length)
+		return decodeFrame(frame, 0, frame.length);
+	}
+
+	/**
+	 * Decodes the carrier bytes of frame from offset to offset + length only
+	 */
+	public byte[] decodeFrame(byte[] frame, int offset, int length) {
+		int end = offset + length;
+		int i;
+		int count;
+
+		if (_unhide_content != null && _cursor >= _to_unhide_bit_length)
 			return _unhide_content;
-		
-		for (int i = 0; i < frame.length; i++) {
-			if (_get_int_cursor < INT_SIZE * 2) {
-				_intRepr += Utils.getBit(frame[i], 0);
-				_get_int_cursor++;
-				try {
-					
-					if (_get_int_cursor == INT_SIZE) {
-						_to_unhide_byte_length = Integer.parseInt(_intRepr, 2);
-						_to_unhide_bit_length = _to_unhide_byte_length * BYTE_SIZE;
-						if (_to_unhide_byte_length > Utils.MAX_BYTE_TO_HIDE)
-							return new byte[0];
-						_unhide_content = new byte[_to_unhide_byte_length];
-						_intRepr = "";
-					} else if (_get_int_cursor == INT_SIZE * 2) {
-						_nbBitToDecodeInOneByte = Integer.parseInt(_intRepr, 2);
-						if (_nbBitToDecodeInOneByte > 4)
-							return new byte[0];
-					}
-					
-				} catch (NumberFormatException e) {
-					return new byte[0];
-				}
-			} else {
-				for (int j = 0; j < _nbBitToDecodeInOneByte; j++) {
-					if (_cursor >= _to_unhide_bit_length) {
-						return _unhide_content;
-					}
-					int bitValue = Utils.getBit(frame[i], j);
-					_unhide_content = Utils.setBitInByteArray(_unhide_content, bitValue, _cursor++);
-				}
+
+		i = readHeader(frame, offset, end);
+		if (i < 0)
+			return new byte[0];
+		if (!isHeaderDecoded())
+			return null;
+		if (_unhide_content == null) {
+			_nbBitToDecodeInOneByte = _header.getNbBitInOneByte();
+			_to_unhide_bit_length = _header.getContentLength() * BYTE_SIZE;
+			_unhide_content = new byte[_header.getContentLength()];
+		}
+
+		for (; i < end && _cursor < _to_unhide_bit_length; i++) {
+			count = Math.min(_nbBitToDecodeInOneByte, _to_unhide_bit_length - _cursor);
+			_pendingBits = (_pendingBits << count) | LSBBitTables.REVERSED_BITS[count][frame[i] & ((1 << count) - 1)];
+			_pendingBitLength += count;
+			_cursor += count;
+			if (_pendingBitLength >= BYTE_SIZE) {
+				_pendingBitLength -= BYTE_SIZE;
+				_unhide_content[_outputOffset++] = (byte) (_pendingBits >>> _pendingBitLength);
+				_pendingBits &= (1 << _pendingBitLength) - 1;
 			}
 		}
-		
+
+		if (_cursor >= _to_unhide_bit_length) {
+			// corrupted content is reported like a missing one
+			if (!_header.checkContent(_unhide_content)) {
+				_unhide_content = new byte[0];
+				_to_unhide_bit_length = 0;
+			}
+			return _unhide_content;
+		}
 		return null;
 	}
+
+	/**
+	 * Reads only the header from frame.
+	 * @return false if the header is not a valid LSB header
+	 */
+	public boolean decodeHeader(byte[] frame) {
+		return readHeader(frame, 0, frame.length) >= 0;
+	}
+
+	public boolean isHeaderDecoded() {
+		return _header.isComplete();
+	}
+
+	public LSBHeader getHeader() {
+		return _header;
+	}
+
+	public int getContentLength() {
+		return _header.getContentLength();
+	}
+
+	public int getNbBitToDecodeInOneByte() {
+		return _header.getNbBitInOneByte();
+	}
+
+	// Private methods
+	// Returns the index of the first payload carrier byte in frame, or -1 if the header is rejected
+	private int readHeader(byte[] frame, int offset, int end) {
+		int i = offset;
+
+		// header: one bit per carrier byte, most significant bit first
+		for (; i < end && !_header.isComplete(); i++) {
+			if (!_header.pushBit(frame[i])) {
+				return -1;
+			}
+		}
+		return (_header.isRejected() ? -1 : i);
+	}
 }
@@ -2,40 +2,37 @@ package com.mharis7y.hushtalk.lsb;
 
 import com.mharis7y.hushtalk.tools.Utils;
 
-public class LSBEncode {
+public class LSBEncode implements ILSBEncoder {
 
 	private static final int BYTE_SIZE 		= 8;
-	private static final int INT_SIZE 		= BYTE_SIZE * 4;
+	private static final int HEADER_BIT_SIZE = LSBHeader.SIZE * BYTE_SIZE;
 
 	private int _to_hide_byte_length 	= 0;
 	private int _to_hide_bit_length 	= 0;
 	private int _nbBitToHideInOneByte	= 1;
 	private int _cursor					= 0;
+	private int _codec					= LSBHeader.CODEC_RAW;
 	
 	private byte[] _content				= null;
 	public byte[] _to_hide				= null;
 
 
 	public LSBEncode(byte[] content, int nbBitToHideInOneByte) {
+		this(content, nbBitToHideInOneByte, LSBHeader.CODEC_RAW);
+	}
+
+	public LSBEncode(byte[] content, int nbBitToHideInOneByte, int codec) {
 		_content 				= content;
 		_to_hide_byte_length 	= content.length;
 		_nbBitToHideInOneByte 	= nbBitToHideInOneByte;
+		_codec 					= codec;
 
 		constructToHide();
 	}
 	
 
 	public void constructToHide() {
-		byte[] one = Utils.intToByteArray(_to_hide_byte_length);
-		byte[] two = Utils.intToByteArray(_nbBitToHideInOneByte);
-		byte[] combined = new byte[one.length + two.length];
-
-		System.arraycopy(one,0,combined,0         ,one.length);
-		System.arraycopy(two,0,combined,one.length,two.length);
-		
-		_to_hide = new byte[combined.length + _content.length];
-		System.arraycopy(combined,0,_to_hide,0         ,combined.length);
-		System.arraycopy(_content,0,_to_hide,combined.length,_content.length);
+		_to_hide = LSBHeader.build(_content, _nbBitToHideInOneByte, _codec);
 
 		// re compute the length
 		_to_hide_byte_length 	= _to_hide.length;
@@ -43,12 +40,18 @@ public class LSBEncode {
 	}
 	
 
+	@Override
 	public byte[] encodeNextFrame(byte[] frame) {
+		return encodeNextFrame(frame, 0, frame.length);
+	}
+
+	@Override
+	public byte[] encodeNextFrame(byte[] frame, int offset, int length) {
 		if (_cursor > _to_hide_bit_length)
 			return frame;
 		
-		for (int i = 0; i < frame.length; i++) {
-			if (_cursor < INT_SIZE * 2) {
+		for (int i = offset; i < offset + length; i++) {
+			if (_cursor < HEADER_BIT_SIZE) {
 				int bitValue = Utils.getBitInByteArray(_to_hide, _cursor++);
 				frame[i] = Utils.setSpecificBit(frame[i], bitValue, 0);
 				
@@ -63,4 +66,9 @@ public class LSBEncode {
 		}
 		return frame;
 	}
+
+	@Override
+	public boolean isComplete() {
+		return _cursor >= _to_hide_bit_length;
+	}
 }
@@ -0,0 +1,177 @@
+package com.mharis7y.hushtalk.lsb;
+
+import com.mharis7y.hushtalk.tools.Crc32c;
+import com.mharis7y.hushtalk.tools.Utils;
+
+/**
+ * Header written in front of the hidden content, one bit per carrier byte.
+ *
+ * Version 2 (16 bytes, big endian):
+ * magic "HSHT" (4) | version (1) | codec id (1) | bits per carrier byte (1) | reserved (1) |
+ * content length (4) | CRC32C of the first 12 header bytes followed by the content (4)
+ *
+ * Legacy (8 bytes): content length (4) | bits per carrier byte (4). A legacy length is at
+ * most {@link Utils#MAX_BYTE_TO_HIDE}, so its first byte never matches the magic.
+ */
+public class LSBHeader {
+
+	public static final int MAGIC 				= 0x48534854; // "HSHT"
+	public static final int VERSION_LEGACY 		= 1;
+	public static final int VERSION_2 			= 2;
+
+	public static final int CODEC_RAW 			= 0;
+	public static final int CODEC_DEFLATE 		= 1;
+
+	public static final int LEGACY_SIZE 		= 8;
+	public static final int SIZE 				= 16;
+	public static final int MAX_BIT_IN_ONE_BYTE = 4;
+
+	private static final int BYTE_SIZE 			= 8;
+	private static final int INT_SIZE 			= BYTE_SIZE * 4;
+	private static final int CRC_OFFSET 		= 12;
+
+	private byte[] _bytes;
+	private int _bitCount;
+	private boolean _rejected;
+
+	private int _version;
+	private int _codec;
+	private int _nbBitInOneByte;
+	private int _contentLength;
+	private int _crc;
+
+	public LSBHeader() {
+		_bytes = new byte[SIZE];
+		_bitCount = 0;
+		_rejected = false;
+		_version = 0;
+		_codec = CODEC_DEFLATE;
+		_nbBitInOneByte = 1;
+		_contentLength = 0;
+		_crc = 0;
+	}
+
+	/**
+	 * Returns the header followed by content, as it has to be hidden.
+	 */
+	public static byte[] build(byte[] content, int nbBitInOneByte, int codec) {
+		byte[] toHide = new byte[SIZE + content.length];
+		Crc32c crc = new Crc32c();
+
+		putInt(toHide, 0, MAGIC);
+		toHide[4] = (byte) VERSION_2;
+		toHide[5] = (byte) codec;
+		toHide[6] = (byte) nbBitInOneByte;
+		toHide[7] = 0;
+		putInt(toHide, 8, content.length);
+		System.arraycopy(content, 0, toHide, SIZE, content.length);
+
+		crc.update(toHide, 0, CRC_OFFSET);
+		crc.update(content);
+		putInt(toHide, CRC_OFFSET, crc.getValue());
+		return toHide;
+	}
+
+	/**
+	 * Feeds the next header bit, most significant bit first.
+	 * @return false as soon as the bits read cannot belong to a valid header
+	 */
+	public boolean pushBit(int bit) {
+		if (_rejected) {
+			return false;
+		}
+		if (isComplete()) {
+			return true;
+		}
+		_bytes[_bitCount >> 3] |= (bit & 1) << (7 - (_bitCount & 7));
+		_bitCount++;
+
+		if (_bitCount == INT_SIZE) {
+			if (getInt(0) == MAGIC) {
+				_version = VERSION_2;
+			} else {
+				_version = VERSION_LEGACY;
+				_codec = CODEC_DEFLATE; // legacy carriers always hold deflated text
+				_contentLength = getInt(0);
+				_rejected = (_contentLength < 0 || _contentLength > Utils.MAX_BYTE_TO_HIDE);
+			}
+		} else if (_bitCount == LEGACY_SIZE * BYTE_SIZE) {
+			if (_version == VERSION_LEGACY) {
+				_nbBitInOneByte = getInt(4);
+			} else {
+				_codec = _bytes[5] & 0xFF;
+				_nbBitInOneByte = _bytes[6] & 0xFF;
+				_rejected = (_bytes[4] != VERSION_2 || _bytes[7] != 0
+						|| (_codec != CODEC_RAW && _codec != CODEC_DEFLATE));
+			}
+			_rejected |= (_nbBitInOneByte < 1 || _nbBitInOneByte > MAX_BIT_IN_ONE_BYTE);
+		} else if (_bitCount == CRC_OFFSET * BYTE_SIZE) {
+			_contentLength = getInt(8);
+			_rejected = (_contentLength < 0 || _contentLength > Utils.MAX_BYTE_TO_HIDE);
+		} else if (_bitCount == SIZE * BYTE_SIZE) {
+			_crc = getInt(CRC_OFFSET);
+		}
+		return !_rejected;
+	}
+
+	public boolean isComplete() {
+		return _version != 0 && _bitCount >= getSize() * BYTE_SIZE;
+	}
+
+	public boolean isRejected() {
+		return _rejected;
+	}
+
+	/**
+	 * Checks the content against the header checksum. Legacy headers carry no checksum.
+	 */
+	public boolean checkContent(byte[] content) {
+		Crc32c crc;
+
+		if (_version != VERSION_2) {
+			return true;
+		}
+		crc = new Crc32c();
+		crc.update(_bytes, 0, CRC_OFFSET);
+		crc.update(content);
+		return crc.getValue() == _crc;
+	}
+
+	// Header size in bytes, known once the first 4 bytes are read
+	public int getSize() {
+		return (_version == VERSION_LEGACY ? LEGACY_SIZE : SIZE);
+	}
+
+	public int getBitSize() {
+		return getSize() * BYTE_SIZE;
+	}
+
+	public int getVersion() {
+		return _version;
+	}
+
+	public int getCodec() {
+		return _codec;
+	}
+
+	public int getNbBitInOneByte() {
+		return _nbBitInOneByte;
+	}
+
+	public int getContentLength() {
+		return _contentLength;
+	}
+
+	// Private methods
+	private int getInt(int offset) {
+		return ((_bytes[offset] & 0xFF) << 24) | ((_bytes[offset + 1] & 0xFF) << 16)
+				| ((_bytes[offset + 2] & 0xFF) << 8) | (_bytes[offset + 3] & 0xFF);
+	}
+
+	private static void putInt(byte[] array, int offset, int value) {
+		array[offset] = (byte) (value >>> 24);
+		array[offset + 1] = (byte) (value >>> 16);
+		array[offset + 2] = (byte) (value >>> 8);
+		array[offset + 3] = (byte) value;
+	}
+}
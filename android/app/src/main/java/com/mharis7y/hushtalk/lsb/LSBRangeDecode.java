@@ -0,0 +1,115 @@
+package com.mharis7y.hushtalk.lsb;
+
+/**
+ * Extracts the payload bits carried by a contiguous range of frames, starting at a known bit
+ * cursor (header bits included, as in {@link LSBWordEncode#advanceCursor}). Several range
+ * decoders can fill the same content array concurrently: only the bytes fully covered by a
+ * range are written directly, the shared edge bytes are kept aside until {@link #mergeEdges()}
+ * is called from a single thread once every range is done.
+ */
+public class LSBRangeDecode {
+
+	private static final int BYTE_SIZE 		= LSBBitTables.BYTE_SIZE;
+
+	private byte[] _content;
+	private int _nbBitToDecodeInOneByte;
+	private int _headerBitSize;
+	private int _bitLength;
+	private int _cursor;
+	private int _outputOffset;
+
+	private int _pendingBits;
+	private int _pendingBitLength;
+
+	private int _headIndex;
+	private int _headValue;
+	private boolean _headFlushed;
+	private int _tailIndex;
+	private int _tailValue;
+
+	/**
+	 * @param content array of header.getContentLength() bytes shared by every range
+	 */
+	public LSBRangeDecode(byte[] content, LSBHeader header, int bitCursor) {
+		int payloadCursor = Math.max(0, bitCursor - header.getBitSize());
+
+		_content = content;
+		_nbBitToDecodeInOneByte = header.getNbBitInOneByte();
+		_headerBitSize = header.getBitSize();
+		_bitLength = getBitLength(header);
+		_cursor = bitCursor;
+		_outputOffset = payloadCursor / BYTE_SIZE;
+
+		// leading bits of the first byte belong to the previous range: read them as zeros
+		_pendingBits = 0;
+		_pendingBitLength = payloadCursor % BYTE_SIZE;
+		_headIndex = (_pendingBitLength != 0 ? _outputOffset : -1);
+		_headFlushed = false;
+		_tailIndex = -1;
+	}
+
+	// Total carried bit count, header included
+	public static int getBitLength(LSBHeader header) {
+		return header.getBitSize() + header.getContentLength() * BYTE_SIZE;
+	}
+
+	public static long getCarrierLength(LSBHeader header) {
+		return LSBBitTables.getCarrierLength(header.getNbBitInOneByte(), header.getBitSize(), getBitLength(header));
+	}
+
+	public static int advanceCursor(int bitCursor, int carrierLength, LSBHeader header) {
+		return LSBBitTables.advanceCursor(bitCursor, carrierLength, header.getNbBitInOneByte(), header.getBitSize(), getBitLength(header));
+	}
+
+	public void decodeFrame(byte[] frame) {
+		int i = 0;
+		int count;
+		byte value;
+
+		if (_cursor < _headerBitSize) {
+			i = Math.min(frame.length, _headerBitSize - _cursor);
+			_cursor += i;
+		}
+
+		for (; i < frame.length && _cursor < _bitLength; i++) {
+			count = Math.min(_nbBitToDecodeInOneByte, _bitLength - _cursor);
+			_pendingBits = (_pendingBits << count) | LSBBitTables.REVERSED_BITS[count][frame[i] & ((1 << count) - 1)];
+			_pendingBitLength += count;
+			_cursor += count;
+			if (_pendingBitLength >= BYTE_SIZE) {
+				_pendingBitLength -= BYTE_SIZE;
+				value = (byte) (_pendingBits >>> _pendingBitLength);
+				_pendingBits &= (1 << _pendingBitLength) - 1;
+				if (_outputOffset == _headIndex) {
+					_headValue = value;
+					_headFlushed = true;
+				} else {
+					_content[_outputOffset] = value;
+				}
+				_outputOffset++;
+			}
+		}
+	}
+
+	public boolean isComplete() {
+		return _cursor >= _bitLength;
+	}
+
+	// Keeps the trailing bits that share their byte with the next range
+	public void finish() {
+		if (_pendingBitLength > 0) {
+			_tailIndex = _outputOffset;
+			_tailValue = (_pendingBits << (BYTE_SIZE - _pendingBitLength)) & 0xFF;
+			_pendingBitLength = 0;
+		}
+	}
+
+	public void mergeEdges() {
+		if (_headFlushed) {
+			_content[_headIndex] |= _headValue;
+		}
+		if (_tailIndex >= 0) {
+			_content[_tailIndex] |= _tailValue;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package com.mharis7y.hushtalk.lsb;
+
+/**
+ * Word oriented replacement of {@link LSBEncode}: the payload is pulled 64 bits at a time
+ * into a register and spread into the carrier bytes with a reversal table, so nothing is
+ * allocated per bit. The produced frames are bit-identical to the ones of {@link LSBEncode}.
+ */
+public class LSBWordEncode implements ILSBEncoder {
+
+	private static final int BYTE_SIZE 		= 8;
+	private static final int HEADER_BIT_SIZE = LSBHeader.SIZE * BYTE_SIZE;
+	private static final int LONG_SIZE 		= BYTE_SIZE * 8;
+
+	private int _to_hide_bit_length 	= 0;
+	private int _nbBitToHideInOneByte	= 1;
+	private int _cursor					= 0;
+
+	private long _word					= 0;
+	private int _wordBitLength			= 0;
+	private int _readOffset				= 0;
+
+	public byte[] _to_hide				= null;
+
+
+	/**
+	 * @param nbBitToHideInOneByte number of low bits used in each carrier byte, from 1 to 8
+	 */
+	public LSBWordEncode(byte[] content, int nbBitToHideInOneByte) {
+		this(content, nbBitToHideInOneByte, LSBHeader.CODEC_RAW);
+	}
+
+	/**
+	 * @param codec one of the LSBHeader CODEC_ constants, describing how content is encoded
+	 */
+	public LSBWordEncode(byte[] content, int nbBitToHideInOneByte, int codec) {
+		_nbBitToHideInOneByte 	= nbBitToHideInOneByte;
+		_to_hide 				= LSBHeader.build(content, nbBitToHideInOneByte, codec);
+		_to_hide_bit_length 	= _to_hide.length * BYTE_SIZE;
+	}
+
+	// Shares the payload of source, positioned at bitCursor
+	private LSBWordEncode(LSBWordEncode source, int bitCursor) {
+		int consumed = bitCursor % BYTE_SIZE;
+
+		_nbBitToHideInOneByte 	= source._nbBitToHideInOneByte;
+		_to_hide 				= source._to_hide;
+		_to_hide_bit_length 	= source._to_hide_bit_length;
+		_cursor 				= bitCursor;
+		_readOffset 			= bitCursor / BYTE_SIZE;
+		if (consumed != 0) {
+			_word = (long) (_to_hide[_readOffset++] & 0xFF) << (LONG_SIZE - BYTE_SIZE + consumed);
+			_wordBitLength = BYTE_SIZE - consumed;
+		}
+	}
+
+
+	@Override
+	public byte[] encodeNextFrame(byte[] frame) {
+		return encodeNextFrame(frame, 0, frame.length);
+	}
+
+	@Override
+	public byte[] encodeNextFrame(byte[] frame, int offset, int length) {
+		int end = offset + length;
+		int i = offset;
+		int count;
+		int mask;
+
+		if (_cursor >= _to_hide_bit_length)
+			return frame;
+
+		// header: always one bit per carrier byte
+		for (; i < end && _cursor < HEADER_BIT_SIZE; i++) {
+			frame[i] = (byte) ((frame[i] & ~1) | takeBits(1));
+			_cursor++;
+		}
+
+		for (; i < end && _cursor < _to_hide_bit_length; i++) {
+			count = Math.min(_nbBitToHideInOneByte, _to_hide_bit_length - _cursor);
+			mask = (1 << count) - 1;
+			frame[i] = (byte) ((frame[i] & ~mask) | LSBBitTables.REVERSED_BITS[count][takeBits(count)]);
+			_cursor += count;
+		}
+		return frame;
+	}
+
+	@Override
+	public boolean isComplete() {
+		return _cursor >= _to_hide_bit_length;
+	}
+
+	public int getCursor() {
+		return _cursor;
+	}
+
+	public int getBitLength() {
+		return _to_hide_bit_length;
+	}
+
+	// Carrier bytes holding the whole payload, header included
+	public long getCarrierLength() {
+		return LSBBitTables.getCarrierLength(_nbBitToHideInOneByte, HEADER_BIT_SIZE, _to_hide_bit_length);
+	}
+
+	/**
+	 * Returns the bit cursor reached once a carrier of carrierLength bytes has been
+	 * encoded from bitCursor. Used to plan independent encoders over several frames.
+	 */
+	public int advanceCursor(int bitCursor, int carrierLength) {
+		return LSBBitTables.advanceCursor(bitCursor, carrierLength, _nbBitToHideInOneByte, HEADER_BIT_SIZE, _to_hide_bit_length);
+	}
+
+	/**
+	 * Returns a new encoder sharing this payload and starting at bitCursor, so that
+	 * disjoint frame ranges can be encoded concurrently.
+	 */
+	public LSBWordEncode fork(int bitCursor) {
+		return new LSBWordEncode(this, bitCursor);
+	}
+
+	// Private methods
+	private int takeBits(int count) {
+		int value;
+
+		if (_wordBitLength < count) {
+			refill();
+		}
+		value = (int) (_word >>> (LONG_SIZE - count));
+		_word <<= count;
+		_wordBitLength -= count;
+		return value;
+	}
+
+	private void refill() {
+		if (_wordBitLength == 0 && _readOffset + BYTE_SIZE <= _to_hide.length) {
+			_word = ((long) (_to_hide[_readOffset] & 0xFF) << 56)
+					| ((long) (_to_hide[_readOffset + 1] & 0xFF) << 48)
+					| ((long) (_to_hide[_readOffset + 2] & 0xFF) << 40)
+					| ((long) (_to_hide[_readOffset + 3] & 0xFF) << 32)
+					| ((long) (_to_hide[_readOffset + 4] & 0xFF) << 24)
+					| ((long) (_to_hide[_readOffset + 5] & 0xFF) << 16)
+					| ((long) (_to_hide[_readOffset + 6] & 0xFF) << 8)
+					| ((long) (_to_hide[_readOffset + 7] & 0xFF));
+			_wordBitLength = LONG_SIZE;
+			_readOffset += BYTE_SIZE;
+			return;
+		}
+		while (_wordBitLength <= LONG_SIZE - BYTE_SIZE && _readOffset < _to_hide.length) {
+			_word |= (long) (_to_hide[_readOffset++] & 0xFF) << (LONG_SIZE - BYTE_SIZE - _wordBitLength);
+			_wordBitLength += BYTE_SIZE;
+		}
+	}
+}
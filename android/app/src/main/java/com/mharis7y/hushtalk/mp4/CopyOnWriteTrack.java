@@ -0,0 +1,137 @@
+package com.mharis7y.hushtalk.mp4;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.coremedia.iso.boxes.Box;
+import com.coremedia.iso.boxes.CompositionTimeToSample;
+import com.coremedia.iso.boxes.SampleDependencyTypeBox;
+import com.coremedia.iso.boxes.SampleDescriptionBox;
+import com.coremedia.iso.boxes.SubSampleInformationBox;
+import com.googlecode.mp4parser.authoring.Sample;
+import com.googlecode.mp4parser.authoring.SampleImpl;
+import com.googlecode.mp4parser.authoring.Track;
+import com.googlecode.mp4parser.authoring.TrackMetaData;
+
+/**
+ * Track exposing the samples of a source track where only the replaced samples live in
+ * memory. Untouched samples stay references into the source file and are streamed by the
+ * builder at mux time.
+ */
+public class CopyOnWriteTrack implements Track {
+
+	private Track _source;
+	private List<Sample> _sourceSamples;
+	private TreeMap<Integer, byte[]> _modifiedSamples;
+	private List<Sample> _samples;
+
+	public CopyOnWriteTrack(Track source) {
+		_source = source;
+		_sourceSamples = source.getSamples();
+		_modifiedSamples = new TreeMap<Integer, byte[]>();
+		_samples = new SampleView();
+	}
+
+	/**
+	 * Replaces the content of the sample at index. The replacement must keep the size of
+	 * the source sample so that the timing and the sample table stay valid.
+	 */
+	public void setSample(int index, byte[] content) {
+		if (content.length != _sourceSamples.get(index).getSize()) {
+			throw new IllegalArgumentException("Sample " + index + " size changed");
+		}
+		_modifiedSamples.put(index, content);
+	}
+
+	public boolean isModified(int index) {
+		return _modifiedSamples.containsKey(index);
+	}
+
+	/**
+	 * @return the replaced samples, by ascending sample index
+	 */
+	public SortedMap<Integer, byte[]> getModifiedSamples() {
+		return _modifiedSamples;
+	}
+
+	public Track getSource() {
+		return _source;
+	}
+
+	@Override
+	public List<Sample> getSamples() {
+		return _samples;
+	}
+
+	@Override
+	public SampleDescriptionBox getSampleDescriptionBox() {
+		return _source.getSampleDescriptionBox();
+	}
+
+	@Override
+	public long[] getSampleDurations() {
+		return _source.getSampleDurations();
+	}
+
+	@Override
+	public long getDuration() {
+		return _source.getDuration();
+	}
+
+	@Override
+	public List<CompositionTimeToSample.Entry> getCompositionTimeEntries() {
+		return _source.getCompositionTimeEntries();
+	}
+
+	@Override
+	public long[] getSyncSamples() {
+		return _source.getSyncSamples();
+	}
+
+	@Override
+	public List<SampleDependencyTypeBox.Entry> getSampleDependencies() {
+		return _source.getSampleDependencies();
+	}
+
+	@Override
+	public TrackMetaData getTrackMetaData() {
+		return _source.getTrackMetaData();
+	}
+
+	@Override
+	public String getHandler() {
+		return _source.getHandler();
+	}
+
+	@Override
+	public Box getMediaHeaderBox() {
+		return _source.getMediaHeaderBox();
+	}
+
+	@Override
+	public SubSampleInformationBox getSubsampleInformationBox() {
+		return _source.getSubsampleInformationBox();
+	}
+
+	// Private methods
+	private class SampleView extends AbstractList<Sample> {
+
+		@Override
+		public Sample get(int index) {
+			byte[] content = _modifiedSamples.get(index);
+
+			if (content != null) {
+				return new SampleImpl(ByteBuffer.wrap(content));
+			}
+			return _sourceSamples.get(index);
+		}
+
+		@Override
+		public int size() {
+			return _sourceSamples.size();
+		}
+	}
+}
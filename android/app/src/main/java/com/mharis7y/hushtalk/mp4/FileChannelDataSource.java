@@ -0,0 +1,144 @@
+package com.mharis7y.hushtalk.mp4;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import com.googlecode.mp4parser.DataSource;
+
+/**
+ * File data source reading with positional FileChannel reads instead of memory mapping. It
+ * is opened from a path, or from a file descriptor such as the one of a content URI.
+ * One range, the moov box, can be preloaded so the box tree is parsed from memory. Mapped
+ * ranges are read into heap buffers, only ranges larger than MAX_READ_SIZE are mapped.
+ */
+public class FileChannelDataSource implements DataSource {
+
+	private static final long MAX_READ_SIZE = 16 * 1024 * 1024;
+
+	private FileChannel _channel;
+	// false when the file descriptor is closed by its owner
+	private boolean _ownsChannel;
+	private long _position;
+	private long _preloadedOffset;
+	private ByteBuffer _preloaded;
+
+	public FileChannelDataSource(String path) throws FileNotFoundException {
+		_channel = new RandomAccessFile(path, "r").getChannel();
+		_ownsChannel = true;
+		_position = 0;
+		_preloadedOffset = 0;
+		_preloaded = null;
+	}
+
+	/**
+	 * @param fileDescriptor seekable descriptor opened for reading, left open by close
+	 */
+	public FileChannelDataSource(FileDescriptor fileDescriptor) {
+		_channel = new FileInputStream(fileDescriptor).getChannel();
+		_ownsChannel = false;
+		_position = 0;
+		_preloadedOffset = 0;
+		_preloaded = null;
+	}
+
+	public FileChannel getChannel() {
+		return _channel;
+	}
+
+	/**
+	 * Reads the range once, the reads and maps inside it are then served from memory
+	 */
+	public synchronized void preload(long offset, long size) throws IOException {
+		_preloaded = readRange(offset, size);
+		_preloadedOffset = offset;
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer byteBuffer) throws IOException {
+		int count = (int) Math.min(byteBuffer.remaining(), Math.max(0, size() - _position));
+
+		if (count == 0) {
+			return (byteBuffer.hasRemaining() ? -1 : 0);
+		}
+		if (isPreloaded(_position, count)) {
+			byteBuffer.put(getPreloaded(_position, count));
+		} else {
+			count = _channel.read(byteBuffer, _position);
+			if (count < 0) {
+				return -1;
+			}
+		}
+		_position += count;
+		return count;
+	}
+
+	@Override
+	public long size() throws IOException {
+		return _channel.size();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		return _position;
+	}
+
+	@Override
+	public synchronized void position(long position) throws IOException {
+		_position = position;
+	}
+
+	@Override
+	public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+		return _channel.transferTo(position, count, target);
+	}
+
+	@Override
+	public synchronized ByteBuffer map(long startPosition, long size) throws IOException {
+		if (isPreloaded(startPosition, size)) {
+			return getPreloaded(startPosition, (int) size);
+		}
+		if (size > MAX_READ_SIZE) {
+			return _channel.map(FileChannel.MapMode.READ_ONLY, startPosition, size);
+		}
+		return readRange(startPosition, size);
+	}
+
+	@Override
+	public void close() throws IOException {
+		_preloaded = null;
+		if (_ownsChannel) {
+			_channel.close();
+		}
+	}
+
+	// Private methods
+	private boolean isPreloaded(long offset, long size) {
+		return _preloaded != null && offset >= _preloadedOffset && offset + size <= _preloadedOffset + _preloaded.capacity();
+	}
+
+	private ByteBuffer getPreloaded(long offset, int size) {
+		ByteBuffer buffer = _preloaded.duplicate();
+
+		buffer.position((int) (offset - _preloadedOffset));
+		buffer.limit(buffer.position() + size);
+		return buffer.slice();
+	}
+
+	private ByteBuffer readRange(long offset, long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) size);
+
+		while (buffer.hasRemaining()) {
+			if (_channel.read(buffer, offset + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of file at " + (offset + buffer.position()));
+			}
+		}
+		buffer.rewind();
+		return buffer;
+	}
+}
@@ -0,0 +1,156 @@
+package com.mharis7y.hushtalk.mp4;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.coremedia.iso.boxes.Box;
+import com.googlecode.mp4parser.authoring.Movie;
+import com.googlecode.mp4parser.authoring.Track;
+import com.googlecode.mp4parser.authoring.builder.FragmentedMp4Builder;
+
+/**
+ * Fragmented MP4 builder writing the movie while it is built: ftyp and a moov without
+ * samples, then a moof and mdat pair per track and fragment. Only the boxes of the current
+ * fragment are held and its samples are read from their tracks as the mdat is written, so
+ * memory is bounded by the fragment duration instead of the movie length. Fragments start
+ * at sync samples of the first track having a sync sample table, the video one, and the
+ * other tracks are cut at the same times. No mfra is written, its tfra boxes needing every
+ * fragment.
+ */
+public class FragmentedMP4Writer extends FragmentedMp4Builder {
+
+	// seconds
+	public static final int DEFAULT_FRAGMENT_DURATION = 2;
+
+	private int _fragmentDuration;
+
+	public FragmentedMP4Writer() {
+		this(DEFAULT_FRAGMENT_DURATION);
+	}
+
+	/**
+	 * @param fragmentDuration minimum duration of a fragment in seconds, the actual one
+	 * depends on the sync samples
+	 */
+	public FragmentedMP4Writer(int fragmentDuration) {
+		_fragmentDuration = fragmentDuration;
+	}
+
+	/**
+	 * Writes movie to channel from its current position
+	 */
+	public void write(Movie movie, WritableByteChannel channel) throws IOException {
+		Map<Track, long[]> fragmentStarts = new HashMap<Track, long[]>();
+		List<Box> fragment = new ArrayList<Box>();
+		Track referenceTrack = getReferenceTrack(movie);
+		double[] fragmentTimes = (referenceTrack == null ? new double[0] : getFragmentTimes(referenceTrack));
+		int fragmentCount = fragmentTimes.length;
+		int sequence = 1;
+
+		// every track gets a start per fragment, the builder sorts the tracks of a cycle by them
+		for (Track track : movie.getTracks()) {
+			fragmentStarts.put(track, getFragmentStarts(track, fragmentTimes));
+		}
+		createFtyp(movie).getBox(channel);
+		createMoov(movie).getBox(channel);
+		for (int cycle = 0; cycle < fragmentCount; ++cycle) {
+			for (Track track : sortTracksInSequence(movie.getTracks(), cycle, fragmentStarts)) {
+				if (isAllowed(track)) {
+					sequence = createFragment(fragment, track, fragmentStarts.get(track), cycle, sequence);
+				}
+			}
+			for (Box box : fragment) {
+				box.getBox(channel);
+			}
+			fragment.clear();
+		}
+	}
+
+	// Private methods
+	// First track with sync samples, else the first one, its samples being all sync samples
+	private Track getReferenceTrack(Movie movie) {
+		long[] syncSamples;
+
+		for (Track track : movie.getTracks()) {
+			syncSamples = getSyncSamples(track);
+			if (isAllowed(track) && syncSamples != null) {
+				return track;
+			}
+		}
+		for (Track track : movie.getTracks()) {
+			if (isAllowed(track)) {
+				return track;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the start time in seconds of every fragment, the first sample then each sync
+	 * sample of track at least the fragment duration after the previous start
+	 */
+	private double[] getFragmentTimes(Track track) {
+		long[] durations = track.getSampleDurations();
+		long[] syncSamples = getSyncSamples(track);
+		long timescale = track.getTrackMetaData().getTimescale();
+		List<Double> times = new ArrayList<Double>();
+		double[] ret;
+		long time = 0;
+		long nextTime = 0;
+		int sync = 0;
+		boolean isSyncSample;
+
+		for (int i = 0; i < durations.length; ++i) {
+			// sample numbers are 1-based, every sample is a sync sample without the table
+			while (syncSamples != null && sync < syncSamples.length && syncSamples[sync] < i + 1) {
+				sync++;
+			}
+			isSyncSample = (syncSamples == null || (sync < syncSamples.length && syncSamples[sync] == i + 1));
+			if (i == 0 || (isSyncSample && time >= nextTime)) {
+				times.add((double) time / timescale);
+				nextTime = time + _fragmentDuration * timescale;
+			}
+			time += durations[i];
+		}
+		ret = new double[times.size()];
+		for (int i = 0; i < ret.length; ++i) {
+			ret[i] = times.get(i);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the 1-based number of the first sample of track starting at or after each
+	 * fragment time, the last sample once the track is over
+	 */
+	private long[] getFragmentStarts(Track track, double[] fragmentTimes) {
+		long[] durations = track.getSampleDurations();
+		long timescale = track.getTrackMetaData().getTimescale();
+		long[] starts = new long[fragmentTimes.length];
+		long time = 0;
+		int sample = 0;
+
+		for (int i = 0; i < fragmentTimes.length; ++i) {
+			while (sample < durations.length - 1 && (double) time / timescale < fragmentTimes[i]) {
+				time += durations[sample++];
+			}
+			starts[i] = sample + 1;
+		}
+		return starts;
+	}
+
+	// Tracks read without sync sample table report an empty one
+	private long[] getSyncSamples(Track track) {
+		long[] syncSamples = track.getSyncSamples();
+
+		return (syncSamples == null || syncSamples.length == 0 ? null : syncSamples);
+	}
+
+	private boolean isAllowed(Track track) {
+		return getAllowedHandlers().isEmpty() || getAllowedHandlers().contains(track.getHandler());
+	}
+}
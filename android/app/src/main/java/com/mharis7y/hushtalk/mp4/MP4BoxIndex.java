@@ -0,0 +1,118 @@
+package com.mharis7y.hushtalk.mp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import com.coremedia.iso.IsoFile;
+
+/**
+ * Type, offset and size of the top level boxes of an MP4 file, read from their headers
+ * only. A multi gigabytes mdat costs one header read.
+ */
+public class MP4BoxIndex {
+
+	private static final int HEADER_SIZE = 8;
+	private static final int LARGE_HEADER_SIZE = 16;
+	// 64 bits size in the header extension
+	private static final int LARGE_SIZE = 1;
+	// box extending to the end of the file
+	private static final int SIZE_TO_END = 0;
+
+	private String[] _types;
+	private long[] _offsets;
+	private long[] _sizes;
+	private int _count;
+
+	private MP4BoxIndex() {
+		_types = new String[8];
+		_offsets = new long[8];
+		_sizes = new long[8];
+		_count = 0;
+	}
+
+	/**
+	 * Reads the headers with positional reads, the position of channel is left untouched.
+	 * Scanning stops at the first inconsistent header, the boxes before it are kept.
+	 */
+	public static MP4BoxIndex build(FileChannel channel) throws IOException {
+		MP4BoxIndex index = new MP4BoxIndex();
+		ByteBuffer header = ByteBuffer.allocate(LARGE_HEADER_SIZE);
+		long fileSize = channel.size();
+		long offset = 0;
+		long size;
+		String type;
+
+		while (offset + HEADER_SIZE <= fileSize) {
+			header.clear();
+			header.limit((int) Math.min(LARGE_HEADER_SIZE, fileSize - offset));
+			while (header.hasRemaining() && channel.read(header, offset + header.position()) > 0) {
+			}
+			if (header.position() < HEADER_SIZE) {
+				break;
+			}
+			size = header.getInt(0) & 0xFFFFFFFFL;
+			type = IsoFile.bytesToFourCC(Arrays.copyOfRange(header.array(), 4, HEADER_SIZE));
+			if (size == LARGE_SIZE) {
+				size = (header.position() < LARGE_HEADER_SIZE ? -1 : header.getLong(HEADER_SIZE));
+			} else if (size == SIZE_TO_END) {
+				size = fileSize - offset;
+			}
+			if (size < HEADER_SIZE || offset + size > fileSize) {
+				System.err.println("[MP4 Box Index]: Invalid size of the box '" + type + "' at " + offset);
+				break;
+			}
+			index.add(type, offset, size);
+			offset += size;
+		}
+		return index;
+	}
+
+	public int getBoxCount() {
+		return _count;
+	}
+
+	public String getType(int box) {
+		return _types[box];
+	}
+
+	/**
+	 * @return the offset of the box header in the file
+	 */
+	public long getOffset(int box) {
+		return _offsets[box];
+	}
+
+	/**
+	 * @return the size of the box, header included
+	 */
+	public long getSize(int box) {
+		return _sizes[box];
+	}
+
+	/**
+	 * @return the first box of this type, -1 if there is none
+	 */
+	public int indexOf(String type) {
+		for (int i = 0; i < _count; ++i) {
+			if (_types[i].equals(type)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// Private methods
+	private void add(String type, long offset, long size) {
+		if (_count == _types.length) {
+			_types = Arrays.copyOf(_types, _count * 2);
+			_offsets = Arrays.copyOf(_offsets, _count * 2);
+			_sizes = Arrays.copyOf(_sizes, _count * 2);
+		}
+		_types[_count] = type;
+		_offsets[_count] = offset;
+		_sizes[_count] = size;
+		_count++;
+	}
+}
@@ -0,0 +1,165 @@
+package com.mharis7y.hushtalk.mp4;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.SortedMap;
+
+import com.mharis7y.hushtalk.error.ErrorManager;
+
+/**
+ * Writes modified samples of a track into a copy of the source file. Sample sizes must be
+ * unchanged, so the sample tables, the interleaving and the metadata of the copy stay
+ * byte for byte identical to the source.
+ */
+public class MP4InPlacePatcher {
+
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	private String _sourcePath;
+	private FileDescriptor _sourceFileDescriptor;
+	private String _outputPath;
+	private FileDescriptor _outputFileDescriptor;
+
+	public MP4InPlacePatcher(String sourcePath, String outputPath) {
+		_sourcePath = sourcePath;
+		_sourceFileDescriptor = null;
+		_outputPath = outputPath;
+		_outputFileDescriptor = null;
+	}
+
+	/**
+	 * @param sourceFileDescriptor descriptor of the source, left open
+	 */
+	public MP4InPlacePatcher(FileDescriptor sourceFileDescriptor, String outputPath) {
+		_sourcePath = null;
+		_sourceFileDescriptor = sourceFileDescriptor;
+		_outputPath = outputPath;
+		_outputFileDescriptor = null;
+	}
+
+	/**
+	 * The copy is then written to the descriptor instead of the output path. It must be opened
+	 * for reading and writing, from an empty file, and is left open.
+	 */
+	public void setOutputFileDescriptor(FileDescriptor outputFileDescriptor) {
+		_outputFileDescriptor = outputFileDescriptor;
+	}
+
+	/**
+	 * @param sampleIndex sample table of the source track the samples belong to
+	 * @param samples modified samples by ascending index, each keeping its original size
+	 * @return false if the samples cannot be located from the sample table, nothing usable
+	 * is written in that case
+	 */
+	public boolean patch(SampleTableIndex sampleIndex, SortedMap<Integer, byte[]> samples) {
+		long[] offsets;
+		FileInputStream input = null;
+		FileOutputStream output = null;
+		FileChannel outputChannel;
+		int i = 0;
+
+		offsets = getSampleOffsets(sampleIndex, samples);
+		if (offsets == null) {
+			return false;
+		}
+		try {
+			input = (_sourceFileDescriptor != null ? new FileInputStream(_sourceFileDescriptor) : new FileInputStream(_sourcePath));
+			output = (_outputFileDescriptor != null ? new FileOutputStream(_outputFileDescriptor) : new FileOutputStream(_outputPath));
+			outputChannel = output.getChannel();
+			copy(input.getChannel(), outputChannel);
+			for (byte[] content : samples.values()) {
+				write(outputChannel, content, offsets[i++]);
+			}
+			outputChannel.force(false);
+		} catch (IOException e) {
+			ErrorManager.getInstance().addErrorMessage("[MP4 In Place Patcher]: Unable to patch the file: " + e.getMessage());
+			return false;
+		} finally {
+			if (_sourceFileDescriptor == null) {
+				close(input);
+			}
+			if (_outputFileDescriptor == null) {
+				close(output);
+			}
+		}
+		return true;
+	}
+
+	// Private methods
+	private long[] getSampleOffsets(SampleTableIndex sampleIndex, SortedMap<Integer, byte[]> samples) {
+		long[] offsets = new long[samples.size()];
+		int i = 0;
+
+		if (sampleIndex == null) {
+			return null;
+		}
+		for (Map.Entry<Integer, byte[]> entry : samples.entrySet()) {
+			// samples stored in movie fragments are not described by the sample table
+			if (entry.getKey() >= sampleIndex.getSampleCount()
+					|| sampleIndex.getSampleSize(entry.getKey()) != entry.getValue().length) {
+				return null;
+			}
+			offsets[i++] = sampleIndex.getSampleOffset(entry.getKey());
+		}
+		return offsets;
+	}
+
+	private void copy(FileChannel source, FileChannel destination) throws IOException {
+		long size = source.size();
+		long position = 0;
+		long transferred;
+
+		while (position < size) {
+			transferred = source.transferTo(position, size - position, destination);
+			if (transferred <= 0) {
+				// descriptors of non regular files may move nothing, copy the rest through a buffer
+				copyBuffered(source, position, size, destination);
+				return;
+			}
+			position += transferred;
+		}
+	}
+
+	private void copyBuffered(FileChannel source, long position, long size, FileChannel destination) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+		int read;
+
+		while (position < size) {
+			buffer.clear();
+			buffer.limit((int) Math.min(COPY_BUFFER_SIZE, size - position));
+			read = source.read(buffer, position);
+			if (read <= 0) {
+				throw new IOException("Source ended at " + position + " of " + size + " bytes");
+			}
+			position += read;
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				destination.write(buffer);
+			}
+		}
+	}
+
+	private void write(FileChannel channel, byte[] content, long offset) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(content);
+
+		while (buffer.hasRemaining()) {
+			offset += channel.write(buffer, offset);
+		}
+	}
+
+	private void close(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				System.err.println("[MP4 In Place Patcher]: Unable to close file: " + e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package com.mharis7y.hushtalk.mp4;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.coremedia.iso.IsoFile;
+import com.coremedia.iso.boxes.TrackBox;
+import com.coremedia.iso.boxes.h264.AvcConfigurationBox;
+import com.coremedia.iso.boxes.mdat.SampleList;
+import com.googlecode.mp4parser.authoring.Mp4TrackImpl;
+import com.googlecode.mp4parser.authoring.Track;
+import com.googlecode.mp4parser.boxes.mp4.ESDescriptorBox;
+import com.googlecode.mp4parser.boxes.mp4.objectdescriptors.AudioSpecificConfig;
+import com.googlecode.mp4parser.boxes.mp4.objectdescriptors.BaseDescriptor;
+import com.googlecode.mp4parser.boxes.mp4.objectdescriptors.ESDescriptor;
+import com.googlecode.mp4parser.util.Path;
+
+/**
+ * Tracks, sample tables, codec configurations and timing of an MP4 file, read once from its
+ * moov box. Each track box is wrapped in a single Mp4TrackImpl and the configuration boxes
+ * are looked up once, the getters of MP4MediaReader only return these values.
+ */
+public class MP4MediaModel {
+
+	private static final String VIDEO_TRACKBOX_PATH = "/moov/trak/mdia/minf/stbl/stsd/avc1/../../../../../";
+	private static final String VIDEO_CONFIGURATION_BOX_PATH = "mdia/minf/stbl/stsd/avc1/avcC";
+	private static final String VIDEO_MP4_HANDLER = "vide";
+
+	private static final String AUDIO_TRACKBOX_PATH = "/moov/trak/mdia/minf/stbl/stsd/mp4a/../../../../../";
+	private static final String AUDIO_CONFIGURATION_BOX_PATH = "mdia/minf/stbl/stsd/mp4a/esds";
+
+	private static final double DEFAULT_FRAME_PER_SECONDS = 25.0;
+	private static final long DEFAULT_TIMESCALE = 25L;
+	private static final long DEFAULT_DURATION_PER_SAMPLE = 1L;
+
+	// avc1 track, holding the samples the steganography works on
+	private final TrackBox _videoTrackBox;
+	private final SampleList _videoSampleList;
+	private final SampleTableIndex _videoSampleIndex;
+	private final List<byte[]> _sequenceParameterSets;
+	private final List<byte[]> _pictureParameterSets;
+	private final int _videoSampleLengthSize;
+	// first track with a "vide" handler, the one written back
+	private final Track _videoTrack;
+
+	private final TrackBox _audioTrackBox;
+	private final SampleList _audioSampleList;
+	private final SampleTableIndex _audioSampleIndex;
+	private final Track _audioTrack;
+	private final int _samplingFrequencyIndex;
+	private final int _channelConfiguration;
+
+	private final double _framePerSeconds;
+	private final long _timescale;
+	private final long _durationPerSample;
+
+	private MP4MediaModel(IsoFile isoFile) {
+		List<TrackBox> trackBoxes = (isoFile.getMovieBox() == null ? null : isoFile.getMovieBox().getBoxes(TrackBox.class));
+		AvcConfigurationBox videoConfigurationBox;
+		AudioSpecificConfig audioSpecificConfig;
+		TrackBox videoHandlerTrackBox = null;
+		Track timingTrack = null;
+		long sampleCount;
+
+		if (trackBoxes == null) {
+			trackBoxes = Collections.emptyList();
+		}
+
+		_videoTrackBox = (TrackBox) Path.getPath(isoFile, VIDEO_TRACKBOX_PATH);
+		_videoSampleList = (_videoTrackBox == null ? null : new SampleList(_videoTrackBox, new IsoFile[0]));
+		_videoSampleIndex = SampleTableIndex.build(_videoTrackBox);
+		videoConfigurationBox = (_videoTrackBox == null ? null : (AvcConfigurationBox) Path.getPath(_videoTrackBox, VIDEO_CONFIGURATION_BOX_PATH));
+		_sequenceParameterSets = (videoConfigurationBox == null ? null
+				: Collections.unmodifiableList(videoConfigurationBox.getSequenceParameterSets()));
+		_pictureParameterSets = (videoConfigurationBox == null ? null
+				: Collections.unmodifiableList(videoConfigurationBox.getPictureParameterSets()));
+		_videoSampleLengthSize = (videoConfigurationBox == null ? 0 : videoConfigurationBox.getLengthSizeMinusOne());
+
+		for (TrackBox trackBox : trackBoxes) {
+			if (VIDEO_MP4_HANDLER.equals(getHandler(trackBox))) {
+				videoHandlerTrackBox = trackBox;
+				break;
+			}
+		}
+		_videoTrack = (videoHandlerTrackBox == null ? null : new Mp4TrackImpl(videoHandlerTrackBox));
+
+		_audioTrackBox = (TrackBox) Path.getPath(isoFile, AUDIO_TRACKBOX_PATH);
+		_audioSampleList = (_audioTrackBox == null ? null : new SampleList(_audioTrackBox, new IsoFile[0]));
+		_audioSampleIndex = SampleTableIndex.build(_audioTrackBox);
+		_audioTrack = (_audioTrackBox == null ? null : new Mp4TrackImpl(_audioTrackBox, new IsoFile[0]));
+		audioSpecificConfig = getAudioSpecificConfig(_audioTrackBox);
+		_samplingFrequencyIndex = (audioSpecificConfig == null ? -1 : audioSpecificConfig.getSamplingFrequency());
+		_channelConfiguration = (audioSpecificConfig == null ? 0 : audioSpecificConfig.getChannelConfiguration());
+
+		// timing comes from the video track, or the first track of an audio only file
+		if (_videoTrack != null) {
+			timingTrack = _videoTrack;
+		} else if (!trackBoxes.isEmpty()) {
+			timingTrack = (trackBoxes.get(0) == _audioTrackBox ? _audioTrack : new Mp4TrackImpl(trackBoxes.get(0)));
+		}
+		sampleCount = (timingTrack == null ? 0 : timingTrack.getSamples().size());
+		_timescale = (timingTrack == null ? DEFAULT_TIMESCALE : timingTrack.getTrackMetaData().getTimescale());
+		_durationPerSample = (sampleCount == 0 ? DEFAULT_DURATION_PER_SAMPLE : timingTrack.getDuration() / sampleCount);
+		_framePerSeconds = (sampleCount == 0 ? DEFAULT_FRAME_PER_SECONDS : (double) _timescale / _durationPerSample);
+	}
+
+	/**
+	 * @return the model of isoFile, whose sample tables are read by this call
+	 */
+	public static MP4MediaModel build(IsoFile isoFile) {
+		return new MP4MediaModel(isoFile);
+	}
+
+	public TrackBox getVideoTrackBox() {
+		return _videoTrackBox;
+	}
+
+	public SampleList getVideoSampleList() {
+		return _videoSampleList;
+	}
+
+	public SampleTableIndex getVideoSampleIndex() {
+		return _videoSampleIndex;
+	}
+
+	public List<byte[]> getSequenceParameterSets() {
+		return _sequenceParameterSets;
+	}
+
+	public List<byte[]> getPictureParameterSets() {
+		return _pictureParameterSets;
+	}
+
+	/**
+	 * @return lengthSizeMinusOne of the avcC box
+	 */
+	public int getVideoSampleLengthSize() {
+		return _videoSampleLengthSize;
+	}
+
+	public Track getVideoTrack() {
+		return _videoTrack;
+	}
+
+	public TrackBox getAudioTrackBox() {
+		return _audioTrackBox;
+	}
+
+	public SampleList getAudioSampleList() {
+		return _audioSampleList;
+	}
+
+	public SampleTableIndex getAudioSampleIndex() {
+		return _audioSampleIndex;
+	}
+
+	public Track getAudioTrack() {
+		return _audioTrack;
+	}
+
+	/**
+	 * @return samplingFrequencyIndex of the AudioSpecificConfig, -1 without audio configuration
+	 */
+	public int getSamplingFrequencyIndex() {
+		return _samplingFrequencyIndex;
+	}
+
+	public int getChannelConfiguration() {
+		return _channelConfiguration;
+	}
+
+	public double getFramePerSeconds() {
+		return _framePerSeconds;
+	}
+
+	public long getTimescale() {
+		return _timescale;
+	}
+
+	public long getDurationPerSample() {
+		return _durationPerSample;
+	}
+
+	// Private methods
+	private static String getHandler(TrackBox trackBox) {
+		if (trackBox.getMediaBox() == null || trackBox.getMediaBox().getHandlerBox() == null) {
+			return null;
+		}
+		return trackBox.getMediaBox().getHandlerBox().getHandlerType();
+	}
+
+	private static AudioSpecificConfig getAudioSpecificConfig(TrackBox audioTrackBox) {
+		ESDescriptorBox esDescriptorBox;
+		BaseDescriptor descriptor;
+
+		if (audioTrackBox == null) {
+			return null;
+		}
+		esDescriptorBox = (ESDescriptorBox) Path.getPath(audioTrackBox, AUDIO_CONFIGURATION_BOX_PATH);
+		descriptor = (esDescriptorBox == null ? null : esDescriptorBox.getDescriptor());
+		if (!(descriptor instanceof ESDescriptor) || ((ESDescriptor) descriptor).getDecoderConfigDescriptor() == null) {
+			return null;
+		}
+		return ((ESDescriptor) descriptor).getDecoderConfigDescriptor().getAudioSpecificInfo();
+	}
+}
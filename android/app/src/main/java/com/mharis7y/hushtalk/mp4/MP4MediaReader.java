@@ -1,5 +1,7 @@
 package com.mharis7y.hushtalk.mp4;
 
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.List;
 
@@ -7,26 +9,22 @@ import android.util.SparseIntArray;
 
 import com.coremedia.iso.IsoFile;
 import com.coremedia.iso.boxes.TrackBox;
-import com.coremedia.iso.boxes.h264.AvcConfigurationBox;
 import com.coremedia.iso.boxes.mdat.SampleList;
-import com.googlecode.mp4parser.authoring.Movie;
-import com.googlecode.mp4parser.authoring.Mp4TrackImpl;
 import com.googlecode.mp4parser.authoring.Track;
-import com.googlecode.mp4parser.boxes.mp4.ESDescriptorBox;
-import com.googlecode.mp4parser.boxes.mp4.objectdescriptors.ESDescriptor;
-import com.googlecode.mp4parser.util.Path;
 import com.mharis7y.hushtalk.error.ErrorManager;
 
+/**
+ * Reads the tracks of an MP4 file. Only the top level box headers and the moov box are read
+ * when the file is loaded, samples are read on demand with positional reads. The moov box
+ * is turned into an MP4MediaModel on first access, every getter then answers from it.
+ */
 public class MP4MediaReader {
 
-	private final String VIDEO_TRACKBOX_PATH = "/moov/trak/mdia/minf/stbl/stsd/avc1/../../../../../";
-	private final String VIDEO_CONFIGURATION_BOX_PATH = "mdia/minf/stbl/stsd/avc1/avcC";
-	private final String VIDEO_MP4_HANDLER = "vide";
-	
-	private final String AUDIO_TRACKBOX_PATH = "/moov/trak/mdia/minf/stbl/stsd/mp4a/../../../../../";
-	private final String AUDIO_CONFIGURATION_BOX_PATH = "mdia/minf/stbl/stsd/mp4a/esds";
-	
+	private final String MOVIE_BOX_TYPE = "moov";
+
 	private IsoFile _isoFile;
+	private MP4BoxIndex _boxIndex;
+	private MP4MediaModel _mediaModel;
 	
 	public MP4MediaReader() {
 	}
@@ -36,12 +34,33 @@ public class MP4MediaReader {
 			return false;
 		}
 		try {
-			_isoFile = new IsoFile(path);
-		} catch (IOException exception) {
+			return loadData(new FileChannelDataSource(path));
+		} catch (FileNotFoundException exception) {
 			ErrorManager.getInstance().addErrorMessage("[MP4 Media Reader]: Not able to open the file");
 			return false;
 		}
-		return true;
+	}
+
+	/**
+	 * Reads the file in place, typically a content URI opened with
+	 * ContentResolver.openFileDescriptor. The descriptor must stay open until close.
+	 */
+	public boolean loadData(FileDescriptor fileDescriptor) {
+		if (fileDescriptor == null || !fileDescriptor.valid()) {
+			return false;
+		}
+		return loadData(new FileChannelDataSource(fileDescriptor));
+	}
+	
+	/**
+	 * Reads the file through fileDescriptor when there is one, as for content URIs which are
+	 * read in place without resolving a path, from path otherwise.
+	 */
+	public boolean loadData(FileDescriptor fileDescriptor, String path) {
+		if (fileDescriptor != null) {
+			return loadData(fileDescriptor);
+		}
+		return loadData(path);
 	}
 	
 	public boolean close() {
@@ -59,203 +78,102 @@ public class MP4MediaReader {
 	}
 	
 	public SampleList getVideoSampleList() {
-        TrackBox trackBox; 
-        SampleList sampleList;
-
-        if (_isoFile == null) {
-        	return null;
-        }
-        trackBox = (TrackBox) Path.getPath(_isoFile, VIDEO_TRACKBOX_PATH);
-		if (trackBox == null) {
-			return null;
-		}
-        sampleList = new SampleList(trackBox, new IsoFile[0]);
-		return sampleList;
+		MP4MediaModel mediaModel = getMediaModel();
+
+		return (mediaModel == null ? null : mediaModel.getVideoSampleList());
+	}
+
+	/**
+	 * @return the sample table index of the video track
+	 */
+	public SampleTableIndex getVideoSampleIndex() {
+		MP4MediaModel mediaModel = getMediaModel();
+
+		return (mediaModel == null ? null : mediaModel.getVideoSampleIndex());
 	}
 
 	public byte[] getSequenceParameterSets() {
-		TrackBox trackBox; 
-		AvcConfigurationBox videoConfigurationBox;
-		
-		if (_isoFile == null) {
-			return null;
-		}
-		trackBox = (TrackBox) Path.getPath(_isoFile, VIDEO_TRACKBOX_PATH);
-		if (trackBox == null) {
-			return null;
-		}
-		videoConfigurationBox = (AvcConfigurationBox) Path.getPath(trackBox, VIDEO_CONFIGURATION_BOX_PATH);
-		return videoConfigurationBox.getSequenceParameterSets().get(0);
+		List<byte[]> parameterSets = getSequenceParameterSetList();
+
+		return (parameterSets == null || parameterSets.isEmpty() ? null : parameterSets.get(0));
 	}
 	
 	public byte[] getPictureParameterSets() {
-		TrackBox trackBox; 
-		AvcConfigurationBox videoConfigurationBox;
-		
-		if (_isoFile == null) {
-			return null;
-		}
-		trackBox = (TrackBox) Path.getPath(_isoFile, VIDEO_TRACKBOX_PATH);
-		if (trackBox == null) {
-			return null;
-		}
-		videoConfigurationBox = (AvcConfigurationBox) Path.getPath(trackBox, VIDEO_CONFIGURATION_BOX_PATH);
-		return videoConfigurationBox.getPictureParameterSets().get(0);
+		List<byte[]> parameterSets = getPictureParameterSetList();
+
+		return (parameterSets == null || parameterSets.isEmpty() ? null : parameterSets.get(0));
+	}
+
+	/**
+	 * @return every sequence parameter set NAL unit of the avcC box
+	 */
+	public List<byte[]> getSequenceParameterSetList() {
+		MP4MediaModel mediaModel = getMediaModel();
+
+		return (mediaModel == null ? null : mediaModel.getSequenceParameterSets());
+	}
+
+	/**
+	 * @return every picture parameter set NAL unit of the avcC box
+	 */
+	public List<byte[]> getPictureParameterSetList() {
+		MP4MediaModel mediaModel = getMediaModel();
+
+		return (mediaModel == null ? null : mediaModel.getPictureParameterSets());
 	}
 
 	public double getFramePerSeconds() {
-		Movie movie;
-		List<TrackBox> trackBoxes;
-		Track track;
-		long duration;
-		long durationPerSample;
-		double fps;
-		
-		if (_isoFile == null) {
-			return 25.0;
-		}
-		
-		movie = new Movie();
-		trackBoxes = _isoFile.getMovieBox().getBoxes(TrackBox.class);
-        if (trackBoxes == null) {
-        	return 25.0;
-        }
-		for (TrackBox trackBox : trackBoxes) {
-            movie.addTrack(new Mp4TrackImpl(trackBox));
-        }
-        if (movie.getTracks().isEmpty()) {
-            return 25.0;
-        }
-    	track = movie.getTracks().get(0);
-        // Find video track (handler type "vide")
-        for (Track t : movie.getTracks()) {
-            if (VIDEO_MP4_HANDLER.equals(t.getHandler())) {
-                track = t;
-                break;
-            }
-        }
-		duration = track.getDuration();
-		if (track.getSamples().size() == 0) {
-            return 25.0;
-        }
-		durationPerSample = duration / track.getSamples().size();
-        fps = (double)  track.getTrackMetaData().getTimescale() / durationPerSample;
-		return fps;
+		MP4MediaModel mediaModel = getMediaModel();
+
+		return (mediaModel == null ? 25.0 : mediaModel.getFramePerSeconds());
 	}
 	
 	public long getTimescale() {
-		Movie movie;
-		List<TrackBox> trackBoxes;
-		Track track;
-		
-		if (_isoFile == null) {
-			return 25L;
-		}
-		
-		movie = new Movie();
-		trackBoxes = _isoFile.getMovieBox().getBoxes(TrackBox.class);
-		if (trackBoxes == null) {
-			return 25L;
-		}
-        for (TrackBox trackBox : trackBoxes) {
-            movie.addTrack(new Mp4TrackImpl(trackBox));
-        }
-        if (movie.getTracks().isEmpty()) {
-            return 25L;
-        }
-    	track = movie.getTracks().get(0);
-        // Find video track (handler type "vide")
-        for (Track t : movie.getTracks()) {
-            if (VIDEO_MP4_HANDLER.equals(t.getHandler())) {
-                track = t;
-                break;
-            }
-        }
-		return track.getTrackMetaData().getTimescale();
+		MP4MediaModel mediaModel = getMediaModel();
+
+		return (mediaModel == null ? 25L : mediaModel.getTimescale());
 	}
 	
 	public long getDurationPerSample() {
-		Movie movie;
-		List<TrackBox> trackBoxes;
-		Track track;
-		
-		if (_isoFile == null) {
-			return 1L;
-		}
-		
-		movie = new Movie();
-		trackBoxes = _isoFile.getMovieBox().getBoxes(TrackBox.class);
-		if (trackBoxes == null) {
-			return 1L;
-		}
-        for (TrackBox trackBox : trackBoxes) {
-            movie.addTrack(new Mp4TrackImpl(trackBox));
-        }
-        if (movie.getTracks().isEmpty()) {
-            return 1L;
-        }
-    	track = movie.getTracks().get(0);
-        // Find video track (handler type "vide")
-        for (Track t : movie.getTracks()) {
-            if (VIDEO_MP4_HANDLER.equals(t.getHandler())) {
-                track = t;
-                break;
-            }
-        }
-        if (track.getSamples().size() == 0) {
-            return 1L;
-        }
-        return track.getDuration() / track.getSamples().size();
+		MP4MediaModel mediaModel = getMediaModel();
+
+		return (mediaModel == null ? 1L : mediaModel.getDurationPerSample());
 	}
 	
 	public int getVideoSampleLengthSize() {
-		TrackBox trackBox; 
-		AvcConfigurationBox videoConfigurationBox;
-		
-		if (_isoFile == null) {
-			return 0;
-		}
-		trackBox = (TrackBox) Path.getPath(_isoFile, VIDEO_TRACKBOX_PATH);
-		if (trackBox == null) {
-			return 0;
-		}
-		videoConfigurationBox = (AvcConfigurationBox) Path.getPath(trackBox, VIDEO_CONFIGURATION_BOX_PATH);
-		return videoConfigurationBox.getLengthSizeMinusOne();
+		MP4MediaModel mediaModel = getMediaModel();
+
+		return (mediaModel == null ? 0 : mediaModel.getVideoSampleLengthSize());
+	}
+	
+	public TrackBox getAudioTrackBox() {
+		MP4MediaModel mediaModel = getMediaModel();
+
+		return (mediaModel == null ? null : mediaModel.getAudioTrackBox());
+	}
+	
+	/**
+	 * @return the sample table index of the audio track
+	 */
+	public SampleTableIndex getAudioSampleIndex() {
+		MP4MediaModel mediaModel = getMediaModel();
+
+		return (mediaModel == null ? null : mediaModel.getAudioSampleIndex());
 	}
 	
 	public SampleList getAudioSampleList() {
-		TrackBox trackBox; 
-        SampleList sampleList;
-        
-        if (_isoFile == null) {
-			return null;
-		}
-        trackBox = (TrackBox) Path.getPath(_isoFile, AUDIO_TRACKBOX_PATH);
-        if (trackBox == null) {
-        	return null;
-        }
-		sampleList = new SampleList(trackBox, new IsoFile[0]);
-		return sampleList;
+		MP4MediaModel mediaModel = getMediaModel();
+
+		return (mediaModel == null ? null : mediaModel.getAudioSampleList());
 	}
 	
 	public int getSamplingFrequency() {
-        TrackBox trackBox; 
-		ESDescriptorBox esDescriptorBox;
-		ESDescriptor descriptor;
-		int code;
-		
-		
-		if (_isoFile == null) {
-			return 0;
-		}
-		trackBox = (TrackBox) Path.getPath(_isoFile, AUDIO_TRACKBOX_PATH);
-		if (trackBox == null) {
+		MP4MediaModel mediaModel = getMediaModel();
+
+		if (mediaModel == null || mediaModel.getSamplingFrequencyIndex() < 0) {
 			return 0;
 		}
-		esDescriptorBox = (ESDescriptorBox) Path.getPath(trackBox, AUDIO_CONFIGURATION_BOX_PATH);
-		descriptor = (ESDescriptor) esDescriptorBox.getDescriptor();
-		code = descriptor.getDecoderConfigDescriptor().getAudioSpecificInfo().getSamplingFrequency();
-		return getSamplingFrequencyFromCode(code);
+		return getSamplingFrequencyFromCode(mediaModel.getSamplingFrequencyIndex());
 	}
 
 	private int getSamplingFrequencyFromCode(int code) {
@@ -278,71 +196,71 @@ public class MP4MediaReader {
 	} 
 	
 	public int getChannelConfiguration() {
-		TrackBox trackBox; 
-		ESDescriptorBox esDescriptorBox;
-		ESDescriptor descriptor;
+		MP4MediaModel mediaModel = getMediaModel();
 
-		if (_isoFile == null) {
-			return 0;
-		}
-		trackBox = (TrackBox) Path.getPath(_isoFile, AUDIO_TRACKBOX_PATH);
-		if (trackBox == null) {
-			return 0;
-		}
-		esDescriptorBox = (ESDescriptorBox) Path.getPath(trackBox, AUDIO_CONFIGURATION_BOX_PATH);
-		descriptor = (ESDescriptor) esDescriptorBox.getDescriptor();
-		return descriptor.getDecoderConfigDescriptor().getAudioSpecificInfo().getChannelConfiguration();
+		return (mediaModel == null ? 0 : mediaModel.getChannelConfiguration());
 	}
 	
+	/**
+	 * @return the AAC track, built on the same track box as getAudioSampleList so that
+	 * both expose the same samples in the same order
+	 */
 	public Track getAudioTrack() {
-		Movie movie;
-		List<TrackBox> trackBoxes;
-		final String AUDIO_MP4_HANDLER = "soun";
-		
-		if (_isoFile == null) {
-			return null;
-		}
-		
-		movie = new Movie();
-		trackBoxes = _isoFile.getMovieBox().getBoxes(TrackBox.class);
-		if (trackBoxes == null) {
-			return null;
-		}
-        for (TrackBox trackBox : trackBoxes) {
-            movie.addTrack(new Mp4TrackImpl(trackBox));
-        }
-        // Find audio track (handler type "soun")
-        for (Track track : movie.getTracks()) {
-            if (AUDIO_MP4_HANDLER.equals(track.getHandler())) {
-                return track;
-            }
-        }
-        return null;
+		MP4MediaModel mediaModel = getMediaModel();
+
+		return (mediaModel == null ? null : mediaModel.getAudioTrack());
 	}
 	
 	public Track getVideoTrack() {
-		Movie movie;
-		List<TrackBox> trackBoxes;
-		
-		if (_isoFile == null) {
-			return null;
+		MP4MediaModel mediaModel = getMediaModel();
+
+		return (mediaModel == null ? null : mediaModel.getVideoTrack());
+	}
+
+	/**
+	 * @return the top level boxes of the file, null before loadData
+	 */
+	public MP4BoxIndex getBoxIndex() {
+		return _boxIndex;
+	}
+
+	// Private methods
+	private boolean loadData(FileChannelDataSource dataSource) {
+		TopLevelBoxParser boxParser = new TopLevelBoxParser();
+		int movieBox;
+
+		_mediaModel = null;
+		try {
+			_boxIndex = MP4BoxIndex.build(dataSource.getChannel());
+			movieBox = _boxIndex.indexOf(MOVIE_BOX_TYPE);
+			if (movieBox != -1) {
+				dataSource.preload(_boxIndex.getOffset(movieBox), _boxIndex.getSize(movieBox));
+			}
+			// this constructor does not parse the boxes
+			_isoFile = new IsoFile(dataSource, boxParser);
+			_isoFile.parseContainer(dataSource, dataSource.size(), boxParser);
+		} catch (IOException exception) {
+			ErrorManager.getInstance().addErrorMessage("[MP4 Media Reader]: Not able to open the file");
+			close(dataSource);
+			return false;
 		}
-		
-		movie = new Movie();
-		trackBoxes = _isoFile.getMovieBox().getBoxes(TrackBox.class);
-		if (trackBoxes == null) {
-			return null;
+		return true;
+	}
+
+	private MP4MediaModel getMediaModel() {
+		if (_mediaModel == null && _isoFile != null) {
+			_mediaModel = MP4MediaModel.build(_isoFile);
+		}
+		return _mediaModel;
+	}
+
+	private void close(FileChannelDataSource dataSource) {
+		if (dataSource != null) {
+			try {
+				dataSource.close();
+			} catch (IOException exception) {
+				ErrorManager.getInstance().addErrorMessage("[MP4 Media Reader]: Not able to close the file");
+			}
 		}
-        for (TrackBox trackBox : trackBoxes) {
-            movie.addTrack(new Mp4TrackImpl(trackBox));
-        }
-        // Find video track (handler type "vide")
-        for (Track track : movie.getTracks()) {
-            if (VIDEO_MP4_HANDLER.equals(track.getHandler())) {
-                return track;
-            }
-        }
-        return null;
 	}
-	
 }
@@ -1,6 +1,8 @@
 package com.mharis7y.hushtalk.mp4;
 
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
@@ -22,6 +24,8 @@ public class MP4MediaWriter {
 	private Track _audioTrack;
 	private Track _videoTrack;
 	private String _outputPath;
+	private FileDescriptor _outputFileDescriptor;
+	private int _fragmentDuration;
 	
 	public MP4MediaWriter(String outputPath, DataSource h264, DataSource aac) {
 		_h264TrackImpl = null;
@@ -29,6 +33,8 @@ public class MP4MediaWriter {
 		_videoTrack = null;
 
 		_outputPath = outputPath;
+		_outputFileDescriptor = null;
+		_fragmentDuration = 0;
 		try {
 			if (h264 != null && h264.size() > 0) {
 				_h264TrackImpl = new H264TrackImpl(h264);
@@ -48,6 +54,8 @@ public class MP4MediaWriter {
 		_videoTrack = null;
 
 		_outputPath = outputPath;
+		_outputFileDescriptor = null;
+		_fragmentDuration = 0;
 		try {
 			if (h264 != null && h264.size() > 0) {
 				_h264TrackImpl = new H264TrackImpl(h264, DEFAULT_LANGUAGE, timescale, frametick);
@@ -67,6 +75,8 @@ public class MP4MediaWriter {
 		_videoTrack = null;
 
 		_outputPath = outputPath;
+		_outputFileDescriptor = null;
+		_fragmentDuration = 0;
 		try {
 			if (h264 != null && h264.size() > 0) {
 				_h264TrackImpl = new H264TrackImpl(h264, DEFAULT_LANGUAGE, timescale, frametick);
@@ -89,6 +99,8 @@ public class MP4MediaWriter {
 		_videoTrack = videoTrack;
 
 		_outputPath = outputPath;
+		_outputFileDescriptor = null;
+		_fragmentDuration = 0;
 		try {
 			if (aac != null && aac.size() > 0) {
 				_aacTrackImpl = new AACTrackImpl(aac);
@@ -98,9 +110,37 @@ public class MP4MediaWriter {
 		}
 	}
 	
-	public void create() {
+	/**
+	 * Constructor for AAC steganography with a copy on write audio track: both tracks are
+	 * muxed as they are, untouched samples being streamed from the source file
+	 * @param outputPath Path to write the output MP4 file
+	 * @param videoTrack Original video track to preserve (unmodified)
+	 * @param audioTrack Audio track holding the modified samples
+	 */
+	public MP4MediaWriter(String outputPath, Track videoTrack, Track audioTrack) {
+		_h264TrackImpl = null;
+		_aacTrackImpl = null;
+		_audioTrack = audioTrack;
+		_videoTrack = videoTrack;
+
+		_outputPath = outputPath;
+		_outputFileDescriptor = null;
+		_fragmentDuration = 0;
+	}
+	
+	/**
+	 * The container is then written to the descriptor instead of the output path. The file is
+	 * truncated first and the descriptor is left open.
+	 */
+	public void setOutputFileDescriptor(FileDescriptor outputFileDescriptor) {
+		_outputFileDescriptor = outputFileDescriptor;
+	}
+
+	/**
+	 * @return false if the container could not be written
+	 */
+	public boolean create() {
 		Movie movie = new Movie();
-		Container container;
 		FileChannel fileChannel;
 		
 		if (_h264TrackImpl != null) {
@@ -116,16 +156,39 @@ public class MP4MediaWriter {
         	movie.addTrack(_audioTrack);
         }
         
-        container = new DefaultMp4Builder().build(movie);
         try {
-			fileChannel = new RandomAccessFile(_outputPath, "rw").getChannel();
-	        container.writeContainer(fileChannel);
-	        fileChannel.close();
+        	if (_outputFileDescriptor != null) {
+        		// single pass into the destination, no intermediate file
+        		fileChannel = new FileOutputStream(_outputFileDescriptor).getChannel();
+        		// drops what a failed in place patch may have written
+        		fileChannel.truncate(0);
+        		fileChannel.position(0);
+        		write(movie, fileChannel);
+        		fileChannel.force(false);
+        	} else {
+				fileChannel = new RandomAccessFile(_outputPath, "rw").getChannel();
+				// drops what a failed in place patch may have written, or a previous file
+				fileChannel.truncate(0);
+				write(movie, fileChannel);
+		        fileChannel.close();
+        	}
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
+			return false;
 		} catch (IOException e) {
 			e.printStackTrace();
-		}        
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param fragmentDuration duration in seconds of the fragments of a fragmented MP4, whose
+	 * memory use is bounded by a fragment instead of the whole movie. 0 (default) writes a
+	 * regular MP4.
+	 */
+	public void setFragmentDuration(int fragmentDuration) {
+		_fragmentDuration = fragmentDuration;
 	}
 
 	public void cleanUpResources() {
@@ -135,5 +198,16 @@ public class MP4MediaWriter {
         _videoTrack = null;
         System.gc();
 	}
-	
+
+	// Private methods
+	private void write(Movie movie, FileChannel fileChannel) throws IOException {
+		Container container;
+
+		if (_fragmentDuration > 0) {
+			new FragmentedMP4Writer(_fragmentDuration).write(movie, fileChannel);
+			return;
+		}
+		container = new DefaultMp4Builder().build(movie);
+		container.writeContainer(fileChannel);
+	}
 }
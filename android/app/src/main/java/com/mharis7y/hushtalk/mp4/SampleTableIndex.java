@@ -0,0 +1,123 @@
+package com.mharis7y.hushtalk.mp4;
+
+import com.coremedia.iso.boxes.SampleSizeBox;
+import com.coremedia.iso.boxes.SampleTableBox;
+import com.coremedia.iso.boxes.TrackBox;
+
+/**
+ * Primitive copy of the stsz/stsc/stco sample table of a track: the size and absolute file
+ * offset of every sample, plus the prefix sum of the sizes. Built once, it answers capacity
+ * and position queries without walking the boxed samples of a SampleList.
+ */
+public class SampleTableIndex {
+
+	private int[] _sizes;
+	private long[] _offsets;
+	private long[] _cumulativeSizes;
+
+	private SampleTableIndex(int[] sizes, long[] offsets) {
+		_sizes = sizes;
+		_offsets = offsets;
+		_cumulativeSizes = new long[sizes.length + 1];
+		for (int i = 0; i < sizes.length; ++i) {
+			_cumulativeSizes[i + 1] = _cumulativeSizes[i] + sizes[i];
+		}
+	}
+
+	/**
+	 * @return the index of the samples described by the sample table of trackBox, or null
+	 * if the table is missing, empty as in fragmented files, or inconsistent
+	 */
+	public static SampleTableIndex build(TrackBox trackBox) {
+		SampleTableBox sampleTableBox;
+		SampleSizeBox sampleSizeBox;
+		long[] chunkOffsets;
+		long[] samplesPerChunk;
+		int[] sizes;
+		long[] offsets;
+		long offset;
+		int sampleIndex = 0;
+
+		if (trackBox == null || trackBox.getSampleTableBox() == null) {
+			return null;
+		}
+		sampleTableBox = trackBox.getSampleTableBox();
+		sampleSizeBox = sampleTableBox.getSampleSizeBox();
+		if (sampleSizeBox == null || sampleTableBox.getChunkOffsetBox() == null || sampleTableBox.getSampleToChunkBox() == null) {
+			return null;
+		}
+
+		sizes = new int[(int) sampleSizeBox.getSampleCount()];
+		offsets = new long[sizes.length];
+		for (int i = 0; i < sizes.length; ++i) {
+			sizes[i] = (int) (sampleSizeBox.getSampleSize() > 0 ? sampleSizeBox.getSampleSize() : sampleSizeBox.getSampleSizeAtIndex(i));
+		}
+
+		chunkOffsets = sampleTableBox.getChunkOffsetBox().getChunkOffsets();
+		// the samples of fragmented files are described by their moof boxes only
+		if (chunkOffsets.length == 0) {
+			return null;
+		}
+		samplesPerChunk = sampleTableBox.getSampleToChunkBox().blowup(chunkOffsets.length);
+		for (int chunk = 0; chunk < chunkOffsets.length && sampleIndex < sizes.length; ++chunk) {
+			offset = chunkOffsets[chunk];
+			for (long s = 0; s < samplesPerChunk[chunk] && sampleIndex < sizes.length; ++s) {
+				offsets[sampleIndex] = offset;
+				offset += sizes[sampleIndex++];
+			}
+		}
+		if (sampleIndex != sizes.length) {
+			return null;
+		}
+		return new SampleTableIndex(sizes, offsets);
+	}
+
+	public int getSampleCount() {
+		return _sizes.length;
+	}
+
+	public int getSampleSize(int index) {
+		return _sizes[index];
+	}
+
+	/**
+	 * @return the absolute file offset of the sample
+	 */
+	public long getSampleOffset(int index) {
+		return _offsets[index];
+	}
+
+	/**
+	 * @return the total size of the samples before index, index may be getSampleCount()
+	 */
+	public long getCumulativeSize(int index) {
+		return _cumulativeSizes[index];
+	}
+
+	public long getTotalSize() {
+		return _cumulativeSizes[_sizes.length];
+	}
+
+	/**
+	 * @param position byte position in the concatenation of every sample
+	 * @return the index of the sample holding position, or -1 if it is out of the track
+	 */
+	public int findSample(long position) {
+		int low = 0;
+		int high = _sizes.length - 1;
+		int middle;
+
+		if (position < 0 || position >= getTotalSize()) {
+			return -1;
+		}
+		while (low < high) {
+			middle = (low + high + 1) >>> 1;
+			if (_cumulativeSizes[middle] <= position) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+}
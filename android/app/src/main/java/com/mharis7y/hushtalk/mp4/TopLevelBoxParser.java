@@ -0,0 +1,33 @@
+package com.mharis7y.hushtalk.mp4;
+
+import com.coremedia.iso.PropertyBoxParserImpl;
+import com.coremedia.iso.boxes.Box;
+
+/**
+ * Box parser of an IsoFile which only parses the top level boxes describing the tracks.
+ * The other ones, mdat included, are kept as TopLevelBoxReference.
+ */
+public class TopLevelBoxParser extends PropertyBoxParserImpl {
+
+	// parent type of the top level boxes
+	private static final String TOP_LEVEL = "";
+	private static final String[] PARSED_TYPES = { "ftyp", "moov", "moof", "mfra" };
+
+	@Override
+	public Box createBox(String type, byte[] userType, String parentType) {
+		if (TOP_LEVEL.equals(parentType) && !isParsed(type)) {
+			return new TopLevelBoxReference(type);
+		}
+		return super.createBox(type, userType, parentType);
+	}
+
+	// Private methods
+	private static boolean isParsed(String type) {
+		for (String parsedType : PARSED_TYPES) {
+			if (parsedType.equals(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,74 @@
+package com.mharis7y.hushtalk.mp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import com.coremedia.iso.BoxParser;
+import com.coremedia.iso.boxes.Box;
+import com.coremedia.iso.boxes.Container;
+import com.googlecode.mp4parser.DataSource;
+
+/**
+ * Top level box kept as an offset range of its data source. Nothing past its header is
+ * read or mapped while parsing, its content is only copied when the box is written.
+ */
+public class TopLevelBoxReference implements Box {
+
+	private String _type;
+	private Container _parent;
+	private DataSource _dataSource;
+	private ByteBuffer _header;
+	private long _contentOffset;
+	private long _contentSize;
+
+	public TopLevelBoxReference(String type) {
+		_type = type;
+	}
+
+	@Override
+	public Container getParent() {
+		return _parent;
+	}
+
+	@Override
+	public void setParent(Container parent) {
+		_parent = parent;
+	}
+
+	@Override
+	public long getSize() {
+		return _header.limit() + _contentSize;
+	}
+
+	@Override
+	public long getOffset() {
+		return _contentOffset - _header.limit();
+	}
+
+	@Override
+	public String getType() {
+		return _type;
+	}
+
+	@Override
+	public void getBox(WritableByteChannel writableByteChannel) throws IOException {
+		long written = 0;
+
+		writableByteChannel.write((ByteBuffer) _header.duplicate().rewind());
+		while (written < _contentSize) {
+			written += _dataSource.transferTo(_contentOffset + written, _contentSize - written, writableByteChannel);
+		}
+	}
+
+	@Override
+	public void parse(DataSource dataSource, ByteBuffer header, long contentSize, BoxParser boxParser) throws IOException {
+		_dataSource = dataSource;
+		_header = ByteBuffer.allocate(header.limit());
+		_header.put((ByteBuffer) header.duplicate().rewind());
+		_header.rewind();
+		_contentOffset = dataSource.position();
+		_contentSize = contentSize;
+		dataSource.position(_contentOffset + contentSize);
+	}
+}
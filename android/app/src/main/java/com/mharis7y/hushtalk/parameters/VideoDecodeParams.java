@@ -1,10 +1,23 @@
 package com.mharis7y.hushtalk.parameters;
 
+import java.io.FileDescriptor;
+
 public class VideoDecodeParams {
     private String videoPath;
+    private FileDescriptor videoFileDescriptor;
 
     public VideoDecodeParams(String videoPath) {
         this.videoPath = videoPath;
+        this.videoFileDescriptor = null;
+    }
+
+    /**
+     * The video is read in place from the descriptor, which is closed by the caller once
+     * the process is done.
+     */
+    public VideoDecodeParams(FileDescriptor videoFileDescriptor) {
+        this.videoPath = null;
+        this.videoFileDescriptor = videoFileDescriptor;
     }
 
     public String getVideoPath() {
@@ -14,6 +27,14 @@ public class VideoDecodeParams {
     public void setVideoPath(String videoPath) {
         this.videoPath = videoPath;
     }
+
+    public FileDescriptor getVideoFileDescriptor() {
+        return videoFileDescriptor;
+    }
+
+    public void setVideoFileDescriptor(FileDescriptor videoFileDescriptor) {
+        this.videoFileDescriptor = videoFileDescriptor;
+    }
 }
 
 
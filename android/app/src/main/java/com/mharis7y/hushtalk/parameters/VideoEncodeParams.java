@@ -1,15 +1,25 @@
 package com.mharis7y.hushtalk.parameters;
 
+import java.io.FileDescriptor;
+
 public class VideoEncodeParams {
     private String sourceVideoPath;
+    private FileDescriptor sourceVideoFileDescriptor;
     private String textToHide;
     private String destinationVideoDirectory;
     private String outputFileName;
+    private FileDescriptor outputFileDescriptor;
+    private boolean inPlacePatching;
+    private int fragmentDuration;
 
     public VideoEncodeParams(String sourceVideoPath, String textToHide, String destinationVideoDirectory) {
         this.sourceVideoPath = sourceVideoPath;
+        this.sourceVideoFileDescriptor = null;
         this.textToHide = textToHide;
         this.destinationVideoDirectory = destinationVideoDirectory;
+        this.outputFileDescriptor = null;
+        this.inPlacePatching = true;
+        this.fragmentDuration = 0;
     }
 
     public String getSourceVideoPath() {
@@ -20,6 +30,18 @@ public class VideoEncodeParams {
         this.sourceVideoPath = sourceVideoPath;
     }
 
+    /**
+     * When set the source is read in place from the descriptor instead of its path. It is
+     * closed by the caller once the process is done.
+     */
+    public FileDescriptor getSourceVideoFileDescriptor() {
+        return sourceVideoFileDescriptor;
+    }
+
+    public void setSourceVideoFileDescriptor(FileDescriptor sourceVideoFileDescriptor) {
+        this.sourceVideoFileDescriptor = sourceVideoFileDescriptor;
+    }
+
     public String getTextToHide() {
         return textToHide;
     }
@@ -43,15 +65,41 @@ public class VideoEncodeParams {
     public void setOutputFileName(String outputFileName) {
         this.outputFileName = outputFileName;
     }
-}
-
-
-
-
-
 
+    /**
+     * When set the output is written to the descriptor, such as the one of a MediaStore
+     * entry, instead of a file in the destination directory. It must be opened for reading
+     * and writing and is closed by the caller.
+     */
+    public FileDescriptor getOutputFileDescriptor() {
+        return outputFileDescriptor;
+    }
 
+    public void setOutputFileDescriptor(FileDescriptor outputFileDescriptor) {
+        this.outputFileDescriptor = outputFileDescriptor;
+    }
 
+    /**
+     * When true the output is a copy of the source where only the embedded audio samples
+     * are rewritten, instead of a remuxed file.
+     */
+    public boolean isInPlacePatching() {
+        return inPlacePatching;
+    }
 
+    public void setInPlacePatching(boolean inPlacePatching) {
+        this.inPlacePatching = inPlacePatching;
+    }
 
+    /**
+     * Duration in seconds of the fragments when the output is remuxed as a fragmented MP4,
+     * keeping the memory used by the muxer bounded by a fragment. 0 remuxes a regular MP4.
+     */
+    public int getFragmentDuration() {
+        return fragmentDuration;
+    }
 
+    public void setFragmentDuration(int fragmentDuration) {
+        this.fragmentDuration = fragmentDuration;
+    }
+}
@@ -5,9 +5,11 @@ import com.mharis7y.hushtalk.algorithms.AlgorithmFactory;
 import com.mharis7y.hushtalk.algorithms.ISteganographyContainer;
 import com.mharis7y.hushtalk.algorithms.compression.Deflate;
 import com.mharis7y.hushtalk.error.ErrorManager;
+import com.mharis7y.hushtalk.lsb.LSBHeader;
 import com.mharis7y.hushtalk.mp4.MP4MediaReader;
 import com.mharis7y.hushtalk.parameters.VideoDecodeParams;
 import com.mharis7y.hushtalk.tools.Utils;
+import java.nio.charset.StandardCharsets;
 
 public class SimpleDecodeProcess {
     private static final String TAG = "SimpleDecodeProcess";
@@ -33,34 +35,42 @@ public class SimpleDecodeProcess {
         Log.i(TAG, "Start video decoding (AAC audio steganography)");
         _lastError = null;
 
-        if (!this.init(parameters)) {
-            return false;
-        }
-
-        // Extract data from audio track
-        Log.i(TAG, "Extracting data from audio track");
-        _aacSteganographyContainer.unHideData();
-        byte[] unHideDataAudio = _aacSteganographyContainer.getUnHideData();
-
-        if (unHideDataAudio == null || unHideDataAudio.length == 0) {
-            _lastError = "No hidden data found in Video";
-            Log.e(TAG, _lastError);
-            return false;
-        }
-
-        // Decompress the data
-        Utils.printTime("Start text decompression: ");
         try {
-            _decodedText = Deflate.decompress(unHideDataAudio);
-            Utils.printTime("End text decompression: ");
-        } catch (Exception e) {
-            _lastError = "Error decompressing data: " + e.getMessage();
-            Log.e(TAG, _lastError, e);
-            return false;
+            if (!this.init(parameters)) {
+                return false;
+            }
+
+            // Extract data from audio track
+            Log.i(TAG, "Extracting data from audio track");
+            _aacSteganographyContainer.unHideData();
+            byte[] unHideDataAudio = _aacSteganographyContainer.getUnHideData();
+
+            if (unHideDataAudio == null || unHideDataAudio.length == 0) {
+                _lastError = "No hidden data found in Video";
+                Log.e(TAG, _lastError);
+                return false;
+            }
+
+            // Raw payloads are stored as is, legacy and deflate payloads are compressed
+            if (_aacSteganographyContainer.getPayloadCodec() == LSBHeader.CODEC_RAW) {
+                _decodedText = new String(unHideDataAudio, StandardCharsets.UTF_8);
+            } else {
+                Utils.printTime("Start text decompression: ");
+                try {
+                    _decodedText = Deflate.decompress(unHideDataAudio);
+                    Utils.printTime("End text decompression: ");
+                } catch (Exception e) {
+                    _lastError = "Error decompressing data: " + e.getMessage();
+                    Log.e(TAG, _lastError, e);
+                    return false;
+                }
+            }
+
+            Log.i(TAG, "End video decoding");
+            return true;
+        } finally {
+            closeMediaReader();
         }
-
-        Log.i(TAG, "End video decoding");
-        return true;
     }
 
     public String getDecodedText() {
@@ -92,7 +102,7 @@ public class SimpleDecodeProcess {
     private boolean initMp4Components(VideoDecodeParams parameters) {
         Utils.printTime("Start load file: ");
         _mp4MediaReader = new MP4MediaReader();
-        if (!_mp4MediaReader.loadData(parameters.getVideoPath())) {
+        if (!_mp4MediaReader.loadData(parameters.getVideoFileDescriptor(), parameters.getVideoPath())) {
             _lastError = "Unable to load data from original MP4";
             ErrorManager.getInstance().addErrorMessage(_lastError);
             return false;
@@ -121,5 +131,11 @@ public class SimpleDecodeProcess {
         }
         return true;
     }
-}
 
+    private void closeMediaReader() {
+        if (_mp4MediaReader != null) {
+            _mp4MediaReader.close();
+            _mp4MediaReader = null;
+        }
+    }
+}
@@ -5,11 +5,13 @@ import com.mharis7y.hushtalk.algorithms.AlgorithmFactory;
 import com.mharis7y.hushtalk.algorithms.ISteganographyContainer;
 import com.mharis7y.hushtalk.algorithms.compression.Deflate;
 import com.mharis7y.hushtalk.error.ErrorManager;
+import com.mharis7y.hushtalk.lsb.LSBHeader;
+import com.mharis7y.hushtalk.mp4.CopyOnWriteTrack;
+import com.mharis7y.hushtalk.mp4.MP4InPlacePatcher;
 import com.mharis7y.hushtalk.mp4.MP4MediaReader;
 import com.mharis7y.hushtalk.mp4.MP4MediaWriter;
 import com.mharis7y.hushtalk.parameters.VideoEncodeParams;
 import com.mharis7y.hushtalk.tools.Utils;
-import com.googlecode.mp4parser.DataSource;
 import com.googlecode.mp4parser.authoring.Track;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -40,18 +42,27 @@ public class SimpleEncodeProcess {
         Log.i(TAG, "Start video encoding (AAC audio steganography)");
         _lastError = null;
 
-        if (!this.init(parameters)) {
-            return false;
-        }
+        try {
+            if (!this.init(parameters)) {
+                return false;
+            }
 
-        // Hide data in audio track
-        Log.i(TAG, "Hiding data in audio track");
-        _aacSteganographyContainer.hideData(_bytesToHide);
+            // Hide data in audio track
+            Log.i(TAG, "Hiding data in audio track");
+            _aacSteganographyContainer.hideData(_bytesToHide);
 
-        // Finalize and save
-        finalise(parameters);
-        Log.i(TAG, "End video encoding");
-        return true;
+            // Finalize and save
+            if (!finalise(parameters)) {
+                _lastError = "Unable to write the encoded video";
+                ErrorManager.getInstance().addErrorMessage(_lastError);
+                return false;
+            }
+            Log.i(TAG, "End video encoding");
+            return true;
+        } finally {
+            // the samples of the source are read until the output is written
+            closeMediaReader();
+        }
     }
 
     public String getLastError() {
@@ -103,13 +114,14 @@ public class SimpleEncodeProcess {
             ErrorManager.getInstance().addErrorMessage(_lastError);
             return false;
         }
+        _aacSteganographyContainer.setPayloadCodec(LSBHeader.CODEC_DEFLATE);
         return true;
     }
 
     private boolean initMp4Components(VideoEncodeParams parameters) {
         Utils.printTime("Start preparing data: ");
         _mp4MediaReader = new MP4MediaReader();
-        if (!_mp4MediaReader.loadData(parameters.getSourceVideoPath())) {
+        if (!_mp4MediaReader.loadData(parameters.getSourceVideoFileDescriptor(), parameters.getSourceVideoPath())) {
             _lastError = "Unable to load data from original MP4";
             ErrorManager.getInstance().addErrorMessage(_lastError);
             return false;
@@ -156,50 +168,80 @@ public class SimpleEncodeProcess {
         return true;
     }
 
-    private void finalise(VideoEncodeParams parameters) {
+    private boolean finalise(VideoEncodeParams parameters) {
         Utils.printTime("Start saving file: ");
         MP4MediaWriter mp4MediaWriter;
-        DataSource aacDataSource;
         Track videoTrack;
-        String outputVideoName;
+        Track audioTrack;
+        boolean written;
 
         if (_aacSteganographyContainer != null) {
             _aacSteganographyContainer.writeRemainingSamples();
         }
 
-        outputVideoName = "HushTalk_" + Utils.getCurrentDateAndTime() + ".mp4";
-        parameters.setOutputFileName(outputVideoName);
+        // the caller names the output when it provides its descriptor
+        if (parameters.getOutputFileName() == null) {
+            parameters.setOutputFileName("HushTalk_" + Utils.getCurrentDateAndTime() + ".mp4");
+        }
 
-        // Get modified AAC audio data source (with hidden data)
-        aacDataSource = _aacSteganographyContainer.getDataSource();
+        // Get modified AAC audio track (with hidden data)
+        audioTrack = _aacSteganographyContainer.getTrack();
+        if (parameters.isInPlacePatching() && patchInPlace(parameters, audioTrack)) {
+            _aacSteganographyContainer.cleanUpResources();
+            Utils.printTime("End saving file: ");
+            return true;
+        }
         // Get original video track (preserved without modification)
         videoTrack = _mp4MediaReader.getVideoTrack();
-
-        if (videoTrack != null) {
-            // Use constructor that merges preserved video + modified audio
-            mp4MediaWriter = new MP4MediaWriter(
-                parameters.getDestinationVideoDirectory() + outputVideoName,
-                videoTrack,
-                aacDataSource
-            );
-        } else {
+        if (videoTrack == null) {
             // No video track found - this shouldn't happen for valid video files
             Log.w(TAG, "No video track found, creating audio-only file");
-            mp4MediaWriter = new MP4MediaWriter(
-                parameters.getDestinationVideoDirectory() + outputVideoName,
-                (Track) null,
-                aacDataSource
-            );
         }
-        mp4MediaWriter.create();
+        mp4MediaWriter = new MP4MediaWriter(
+            parameters.getDestinationVideoDirectory() + parameters.getOutputFileName(),
+            videoTrack,
+            audioTrack
+        );
+        mp4MediaWriter.setOutputFileDescriptor(parameters.getOutputFileDescriptor());
+        mp4MediaWriter.setFragmentDuration(parameters.getFragmentDuration());
+        written = mp4MediaWriter.create();
         mp4MediaWriter.cleanUpResources();
 
         _aacSteganographyContainer.cleanUpResources();
         Utils.printTime("End saving file: ");
+        return written;
     }
-}
-
-
 
+    /**
+     * Sample sizes are unchanged by the embedding, so the output can be a copy of the source
+     * with only the embedded samples rewritten at their original offsets.
+     * @return false if the source cannot be patched and must be remuxed instead
+     */
+    private boolean patchInPlace(VideoEncodeParams parameters, Track audioTrack) {
+        MP4InPlacePatcher patcher;
 
+        if (!(audioTrack instanceof CopyOnWriteTrack)) {
+            return false;
+        }
+        if (parameters.getSourceVideoFileDescriptor() != null) {
+            patcher = new MP4InPlacePatcher(parameters.getSourceVideoFileDescriptor(),
+                parameters.getDestinationVideoDirectory() + parameters.getOutputFileName());
+        } else {
+            patcher = new MP4InPlacePatcher(parameters.getSourceVideoPath(),
+                parameters.getDestinationVideoDirectory() + parameters.getOutputFileName());
+        }
+        patcher.setOutputFileDescriptor(parameters.getOutputFileDescriptor());
+        if (!patcher.patch(_mp4MediaReader.getAudioSampleIndex(), ((CopyOnWriteTrack) audioTrack).getModifiedSamples())) {
+            Log.w(TAG, "Unable to patch the source in place, remuxing instead");
+            return false;
+        }
+        return true;
+    }
 
+    private void closeMediaReader() {
+        if (_mp4MediaReader != null) {
+            _mp4MediaReader.close();
+            _mp4MediaReader = null;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.mharis7y.hushtalk.process;
+
+import android.util.Log;
+import com.mharis7y.hushtalk.algorithms.steganography.audio.AACSteganographyContainerLsb;
+import com.mharis7y.hushtalk.algorithms.steganography.audio.AACSteganographyContainerLsb1Bit;
+import com.mharis7y.hushtalk.error.ErrorManager;
+import com.mharis7y.hushtalk.lsb.LSBDecode;
+import com.mharis7y.hushtalk.mp4.MP4MediaReader;
+import com.mharis7y.hushtalk.parameters.VideoDecodeParams;
+
+/**
+ * Tells whether a video carries a HushTalk payload by reading the LSB header of the first
+ * audio samples, without decoding nor decompressing the payload.
+ */
+public class SimpleProbeProcess {
+    private static final String TAG = "SimpleProbeProcess";
+
+    private MP4MediaReader _mp4MediaReader;
+    private AACSteganographyContainerLsb _aacSteganographyContainer;
+    private boolean _hasPayload;
+    private int _payloadBytes;
+    private int _bitsPerByte;
+    private String _lastError;
+
+    public SimpleProbeProcess() {
+        _mp4MediaReader = null;
+        _aacSteganographyContainer = null;
+        _hasPayload = false;
+        _payloadBytes = 0;
+        _bitsPerByte = 0;
+        _lastError = null;
+    }
+
+    /**
+     * @return false only if the video could not be read, a readable video without payload
+     * returns true with hasPayload() false
+     */
+    public boolean probe(VideoDecodeParams parameters) {
+        LSBDecode header;
+
+        _lastError = null;
+        _hasPayload = false;
+        _payloadBytes = 0;
+        _bitsPerByte = 0;
+
+        _mp4MediaReader = new MP4MediaReader();
+        if (!_mp4MediaReader.loadData(parameters.getVideoFileDescriptor(), parameters.getVideoPath())) {
+            _lastError = "Unable to load data from original MP4";
+            ErrorManager.getInstance().addErrorMessage(_lastError);
+            return false;
+        }
+
+        try {
+            _aacSteganographyContainer = new AACSteganographyContainerLsb1Bit();
+            if (!_aacSteganographyContainer.loadData(_mp4MediaReader)) {
+                _lastError = "Unable to load audio channel from original MP4";
+                ErrorManager.getInstance().addErrorMessage(_lastError);
+                return false;
+            }
+
+            header = _aacSteganographyContainer.probeHeader();
+            if (header != null) {
+                _hasPayload = true;
+                _payloadBytes = header.getContentLength();
+                _bitsPerByte = header.getNbBitToDecodeInOneByte();
+            }
+            Log.i(TAG, "Probe result: " + (_hasPayload ? _payloadBytes + " bytes" : "no payload"));
+            return true;
+        } finally {
+            _mp4MediaReader.close();
+        }
+    }
+
+    public boolean hasPayload() {
+        return _hasPayload;
+    }
+
+    public int getPayloadBytes() {
+        return _payloadBytes;
+    }
+
+    public int getBitsPerByte() {
+        return _bitsPerByte;
+    }
+
+    public String getLastError() {
+        return _lastError;
+    }
+}
@@ -2,7 +2,7 @@ package com.mharis7y.hushtalk.tools;
 
 import java.nio.ByteBuffer;
 
-public class BitBufferReader {
+public class BitBufferReader implements IBitReader {
 
 	private byte[] _data;
 	private int _currentOffset;
@@ -21,6 +21,7 @@ public class BitBufferReader {
 		_data = data;
 	}
 	
+	@Override
 	public long readNBits(int size) {
 		long value = 0;
 		
@@ -35,6 +36,18 @@ public class BitBufferReader {
 		return value;
 	}
 	
+	@Override
+	public int peekNBits(int size) {
+		int currentOffset = _currentOffset;
+		int currentBitOffset = _currentBitOffset;
+		int value = (int) readNBits(size);
+
+		_currentOffset = currentOffset;
+		_currentBitOffset = currentBitOffset;
+		return value;
+	}
+	
+	@Override
 	public int readUE() {
 		int leadingZeroBits = 0;
 		int res = 0;
@@ -48,6 +61,7 @@ public class BitBufferReader {
         return res;
 	}
 	
+	@Override
 	public int readSE() {
         int val = readUE();
         int sign = ((val & 0x1) << 1) - 1;
@@ -57,14 +71,25 @@ public class BitBufferReader {
         return val;
     }
 	
+	@Override
 	public int readAE() {
-		throw new UnsupportedOperationException();
+		throw new UnsupportedOperationException("CABAC slice data is not supported");
 	}
 	
+	@Override
 	public int readCE() {
-		throw new UnsupportedOperationException();
+		throw new UnsupportedOperationException("ce(v) is read by CavlcResidualParser");
+	}
+	
+	@Override
+	public void skipBytes(int count) {
+		_currentOffset = Math.min(_currentOffset + count, _data.length);
+		if (_currentOffset == _data.length) {
+			_currentBitOffset = 0;
+		}
 	}
 	
+	@Override
 	public boolean hasMoreData() {
 		return _currentOffset < _data.length;
 	}
@@ -87,10 +112,12 @@ public class BitBufferReader {
         return value;
 	}
 
+	@Override
 	public int getCurrentOffset() {
 		return _currentOffset;
 	}
 
+	@Override
 	public int getCurrentBitOffset() {
 		return _currentBitOffset;
 	}
@@ -0,0 +1,224 @@
+package com.mharis7y.hushtalk.tools;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link IBitReader} keeping up to 64 bits of the data in a register: fixed size fields are
+ * read with a single shift and Exp-Golomb codes are decoded with numberOfLeadingZeros
+ * instead of one bit at a time. Behaves like {@link BitBufferReader}, including past the end
+ * of the data.
+ * Subclasses may read from another source by overriding the source methods.
+ */
+public class CachedBitBufferReader implements IBitReader {
+
+	private static final int BYTE_SIZE 		= 8;
+	private static final int LONG_SIZE 		= 64;
+	private static final int MAX_CACHED_READ = LONG_SIZE - BYTE_SIZE + 1;
+
+	private byte[] _data;
+	private int _end;
+	private int _readOffset;
+
+	// next bits, most significant first, zeros below _cacheBitLength
+	private long _cache;
+	private int _cacheBitLength;
+	// bytes taken from the source, and zero bytes loaded once the source is exhausted
+	private long _sourceByteCount;
+	private long _paddingByteCount;
+
+	public CachedBitBufferReader(ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			init(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		} else {
+			byte[] data = new byte[buffer.remaining()];
+
+			buffer.duplicate().get(data);
+			init(data, 0, data.length);
+		}
+	}
+
+	public CachedBitBufferReader(byte[] data) {
+		init(data, 0, (data == null ? 0 : data.length));
+	}
+
+	public CachedBitBufferReader(byte[] data, int offset, int length) {
+		init(data, offset, length);
+	}
+
+	// For subclasses overriding the source methods
+	protected CachedBitBufferReader() {
+		init(null, 0, 0);
+	}
+
+	@Override
+	public long readNBits(int size) {
+		long value;
+
+		if (size <= 0) {
+			return 0;
+		}
+		if (size > MAX_CACHED_READ) {
+			value = readNBits(size - Integer.SIZE);
+			return (value << Integer.SIZE) | readNBits(Integer.SIZE);
+		}
+		if (_cacheBitLength < size) {
+			refill();
+		}
+		value = _cache >>> (LONG_SIZE - size);
+		dropCachedBits(size);
+		return value;
+	}
+
+	@Override
+	public int peekNBits(int size) {
+		if (size <= 0) {
+			return 0;
+		}
+		if (_cacheBitLength < size) {
+			refill();
+		}
+		return (int) (_cache >>> (LONG_SIZE - size));
+	}
+
+	@Override
+	public int readUE() {
+		int leadingZeroBits;
+
+		if (_cacheBitLength < Integer.SIZE) {
+			refill();
+		}
+		leadingZeroBits = Long.numberOfLeadingZeros(_cache);
+		// the stop bit is a cached data bit, not padding
+		if (leadingZeroBits < Integer.SIZE && leadingZeroBits < _cacheBitLength - _paddingByteCount * BYTE_SIZE) {
+			dropCachedBits(leadingZeroBits + 1);
+			return (1 << leadingZeroBits) - 1 + (int) readNBits(leadingZeroBits);
+		}
+		return readUESlow();
+	}
+
+	@Override
+	public int readSE() {
+		int val = readUE();
+		int sign = ((val & 0x1) << 1) - 1;
+
+		return ((val >> 1) + (val & 0x1)) * sign;
+	}
+
+	@Override
+	public int readAE() {
+		throw new UnsupportedOperationException("CABAC slice data is not supported");
+	}
+
+	@Override
+	public int readCE() {
+		throw new UnsupportedOperationException("ce(v) is read by CavlcResidualParser");
+	}
+
+	@Override
+	public void skipBytes(int count) {
+		long bitCount = (long) count * BYTE_SIZE;
+		int cachedBitCount;
+		long byteCount;
+		long skipped;
+
+		if (count <= 0) {
+			return;
+		}
+		cachedBitCount = (int) Math.min(bitCount, _cacheBitLength);
+		dropCachedBits(cachedBitCount);
+		bitCount -= cachedBitCount;
+		if (bitCount == 0) {
+			return;
+		}
+		// the cache is empty, whole bytes are skipped in the source
+		byteCount = bitCount / BYTE_SIZE;
+		skipped = skipSourceBytes(byteCount);
+		_sourceByteCount += skipped;
+		_paddingByteCount += byteCount - skipped;
+		readNBits((int) (bitCount % BYTE_SIZE));
+	}
+
+	@Override
+	public boolean hasMoreData() {
+		return getCurrentOffset() < _sourceByteCount || hasMoreSourceBytes();
+	}
+
+	@Override
+	public int getCurrentOffset() {
+		return (int) (getBitPosition() / BYTE_SIZE);
+	}
+
+	@Override
+	public int getCurrentBitOffset() {
+		return (int) (getBitPosition() % BYTE_SIZE);
+	}
+
+	// Source methods
+	/**
+	 * @return the next source byte, from 0 to 255, or -1 once the source is exhausted
+	 */
+	protected int readSourceByte() {
+		return (_readOffset < _end ? _data[_readOffset++] & 0xFF : -1);
+	}
+
+	/**
+	 * @return the number of bytes actually skipped, less than count at the end of the source
+	 */
+	protected long skipSourceBytes(long count) {
+		int skipped = (int) Math.min(count, _end - _readOffset);
+
+		_readOffset += skipped;
+		return skipped;
+	}
+
+	protected boolean hasMoreSourceBytes() {
+		return _readOffset < _end;
+	}
+
+	// Private methods
+	private void init(byte[] data, int offset, int length) {
+		_data = data;
+		_end = offset + length;
+		_readOffset = offset;
+		_cache = 0;
+		_cacheBitLength = 0;
+		_sourceByteCount = 0;
+		_paddingByteCount = 0;
+	}
+
+	// Loads whole bytes until the cache holds at least 57 bits, zeros past the end
+	private void refill() {
+		int value;
+
+		while (_cacheBitLength <= LONG_SIZE - BYTE_SIZE) {
+			value = (_paddingByteCount == 0 ? readSourceByte() : -1);
+			if (value < 0) {
+				value = 0;
+				_paddingByteCount++;
+			} else {
+				_sourceByteCount++;
+			}
+			_cache |= (long) value << (LONG_SIZE - BYTE_SIZE - _cacheBitLength);
+			_cacheBitLength += BYTE_SIZE;
+		}
+	}
+
+	private void dropCachedBits(int count) {
+		_cache = (count >= LONG_SIZE ? 0 : _cache << count);
+		_cacheBitLength -= count;
+	}
+
+	private int readUESlow() {
+		int leadingZeroBits = 0;
+
+		while (readNBits(1) == 0 && hasMoreData()) {
+			leadingZeroBits++;
+		}
+		return (1 << leadingZeroBits) - 1 + (int) readNBits(leadingZeroBits);
+	}
+
+	// Reads past the end do not move the position
+	private long getBitPosition() {
+		return Math.min((_sourceByteCount + _paddingByteCount) * BYTE_SIZE - _cacheBitLength, _sourceByteCount * BYTE_SIZE);
+	}
+}
@@ -0,0 +1,44 @@
+package com.mharis7y.hushtalk.tools;
+
+/**
+ * CRC-32C (Castagnoli) checksum, table driven. java.util.zip.CRC32C is not available on
+ * every Android version we support.
+ */
+public class Crc32c {
+
+	private static final int POLYNOMIAL = 0x82F63B78; // reversed 0x1EDC6F41
+	private static final int[] TABLE = new int[256];
+
+	static {
+		for (int i = 0; i < 256; ++i) {
+			int crc = i;
+			for (int j = 0; j < 8; ++j) {
+				crc = (crc >>> 1) ^ (POLYNOMIAL & -(crc & 1));
+			}
+			TABLE[i] = crc;
+		}
+	}
+
+	private int _crc;
+
+	public Crc32c() {
+		_crc = 0xFFFFFFFF;
+	}
+
+	public void update(byte[] data, int offset, int length) {
+		int crc = _crc;
+
+		for (int i = offset; i < offset + length; ++i) {
+			crc = (crc >>> 8) ^ TABLE[(crc ^ data[i]) & 0xFF];
+		}
+		_crc = crc;
+	}
+
+	public void update(byte[] data) {
+		update(data, 0, data.length);
+	}
+
+	public int getValue() {
+		return ~_crc;
+	}
+}
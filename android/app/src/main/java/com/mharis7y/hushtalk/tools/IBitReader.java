@@ -0,0 +1,28 @@
+package com.mharis7y.hushtalk.tools;
+
+/**
+ * Most significant bit first reader of H264 syntax elements. Bits read past the end of the
+ * data are zeros and do not move the position.
+ */
+public interface IBitReader {
+
+	public long readNBits(int size);
+
+	/**
+	 * @return the next size bits, up to 32, without moving the position
+	 */
+	public int peekNBits(int size);
+	public int readUE();
+	public int readSE();
+	public int readAE();
+	public int readCE();
+
+	/**
+	 * Moves the position forward by count bytes, keeping the bit offset in the current byte.
+	 */
+	public void skipBytes(int count);
+
+	public boolean hasMoreData();
+	public int getCurrentOffset();
+	public int getCurrentBitOffset();
+}
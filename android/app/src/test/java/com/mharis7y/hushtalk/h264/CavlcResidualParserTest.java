@@ -0,0 +1,142 @@
+package com.mharis7y.hushtalk.h264;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.mharis7y.hushtalk.tools.CachedBitBufferReader;
+import com.mharis7y.hushtalk.tools.IBitReader;
+
+public class CavlcResidualParserTest {
+
+	@Test
+	public void parsesKnownBlock() {
+		// coeff_token 0000100 | trailing ones 011 | level 1 | level 0010 | total_zeros 111 | run_before 10 | 1 | 1 | 01
+		int[] coeffLevel = new int[16];
+		IBitReader reader = reader("000010001110010111101101" + "1");
+
+		assertEquals(5, new CavlcResidualParser().parseResidualBlock(reader, coeffLevel, 0, 15, 16, 0));
+		assertArrayEquals(new int[] { 0, 3, 0, 1, -1, -1, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0 }, coeffLevel);
+		assertEquals(24, getBitPosition(reader));
+	}
+
+	@Test
+	public void decodesCoeffTokens() {
+		// TotalCoeff == TrailingOnes, each trailing one followed by its sign bit
+		assertCoeffToken("1", 0, 0);
+		assertCoeffToken("01" + "0", 0, 1);
+		assertCoeffToken("001" + "01", 1, 2);
+		assertCoeffToken("00011" + "110", 1, 3);
+		assertCoeffToken("11", 2, 0);
+		assertCoeffToken("10" + "1", 3, 1);
+		assertCoeffToken("011" + "00", 2, 2);
+		assertCoeffToken("0101" + "011", 3, 3);
+		assertCoeffToken("1111", 4, 0);
+		assertCoeffToken("1110" + "0", 7, 1);
+		assertCoeffToken("1100" + "101", 5, 3);
+		assertCoeffToken("000011", 8, 0);
+		assertCoeffToken("000001" + "1", 16, 1);
+		assertCoeffToken("001011" + "000", 8, 3);
+		assertCoeffToken("01", CavlcResidualParser.NC_CHROMA_DC_420, 0);
+		assertCoeffToken("1" + "1", CavlcResidualParser.NC_CHROMA_DC_420, 1);
+		assertCoeffToken("001" + "10", CavlcResidualParser.NC_CHROMA_DC_420, 2);
+		assertCoeffToken("1", CavlcResidualParser.NC_CHROMA_DC_422, 0);
+		assertCoeffToken("01" + "0", CavlcResidualParser.NC_CHROMA_DC_422, 1);
+	}
+
+	@Test
+	public void parsesLevelsAfterTrailingOnes() {
+		// TotalCoeff 1, TrailingOnes 0: level_prefix 0 is a magnitude of 2, total_zeros 010 is 2
+		int[] coeffLevel = new int[16];
+		IBitReader reader = reader("000101" + "1" + "010");
+
+		assertEquals(1, new CavlcResidualParser().parseResidualBlock(reader, coeffLevel, 0, 15, 16, 0));
+		assertArrayEquals(new int[] { 0, 0, 2, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 }, coeffLevel);
+		assertEquals(10, getBitPosition(reader));
+	}
+
+	@Test
+	public void decodesVlcTable() {
+		// 1 | 01 | 001 | 0001 | 0000 0000 1 | 0000 0000 0
+		VlcTable table = new VlcTable(new int[] { 1, 2, 3, 4, 0, 9, 10 }, new int[] { 1, 1, 1, 1, 0, 1, 0 });
+		IBitReader reader = reader("1" + "01" + "001" + "0001" + "000000001" + "0000000000" + "1");
+
+		assertEquals(0, table.read(reader));
+		assertEquals(1, table.read(reader));
+		assertEquals(2, table.read(reader));
+		assertEquals(3, table.read(reader));
+		assertEquals(5, table.read(reader));
+		assertEquals(6, table.read(reader));
+		assertEquals(29, getBitPosition(reader));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsCodesThatAreNotPrefixFree() {
+		new VlcTable(new int[] { 1, 2 }, new int[] { 1, 3 });
+	}
+
+	@Test
+	public void averagesNeighbourTotalCoeffs() {
+		// two macroblocks per row
+		TotalCoeffMap map = new TotalCoeffMap(2, 4);
+
+		map.startMacroblock(0);
+		assertEquals(0, map.getNC(0, TotalCoeffMap.LUMA, 0, 0, 4, 4));
+		map.setTotalCoeff(0, TotalCoeffMap.LUMA, 0, 0, 4, 3);
+		map.setTotalCoeff(0, TotalCoeffMap.LUMA, 3, 0, 4, 5);
+		map.setTotalCoeff(0, TotalCoeffMap.LUMA, 0, 3, 4, 2);
+		// upper block only
+		assertEquals(3, map.getNC(0, TotalCoeffMap.LUMA, 0, 1, 4, 4));
+
+		map.startMacroblock(1);
+		map.setTotalCoeff(1, TotalCoeffMap.LUMA, 0, 0, 4, 4);
+		// left macroblock only
+		assertEquals(5, map.getNC(1, TotalCoeffMap.LUMA, 0, 0, 4, 4));
+		// (nA + nB + 1) >> 1 inside the macroblock
+		map.setTotalCoeff(1, TotalCoeffMap.LUMA, 1, 0, 4, 3);
+		map.setTotalCoeff(1, TotalCoeffMap.LUMA, 0, 1, 4, 4);
+		assertEquals(4, map.getNC(1, TotalCoeffMap.LUMA, 1, 1, 4, 4));
+
+		map.startMacroblock(2);
+		// upper macroblock only, the left one is in the previous row
+		assertEquals(2, map.getNC(2, TotalCoeffMap.LUMA, 0, 0, 4, 4));
+
+		map.startMacroblock(3);
+		map.setPcm(2);
+		// left I_PCM macroblock and upper chroma block of the upper macroblock
+		map.setTotalCoeff(1, TotalCoeffMap.CB, 0, 1, 2, 7);
+		assertEquals(12, map.getNC(3, TotalCoeffMap.CB, 0, 0, 2, 2));
+	}
+
+	// Private methods
+	private static void assertCoeffToken(String bits, int nC, int totalCoeff) {
+		int maxNumCoeff = (nC == CavlcResidualParser.NC_CHROMA_DC_420 ? 4 : (nC == CavlcResidualParser.NC_CHROMA_DC_422 ? 8 : 16));
+		int[] coeffLevel = new int[maxNumCoeff];
+		IBitReader reader = reader(bits + "1");
+
+		// every coefficient of the block is a trailing one, no total_zeros nor run_before follows
+		assertEquals(bits + ", nC " + nC, totalCoeff,
+				new CavlcResidualParser().parseResidualBlock(reader, coeffLevel, 0, Math.max(0, totalCoeff - 1), maxNumCoeff, nC));
+		assertEquals(bits + ", nC " + nC, bits.length(), getBitPosition(reader));
+		for (int i = 0; i < totalCoeff; ++i) {
+			assertEquals(bits + ", nC " + nC, (bits.charAt(bits.length() - 1 - i) == '1' ? -1 : 1), coeffLevel[i]);
+		}
+	}
+
+	private static int getBitPosition(IBitReader reader) {
+		return reader.getCurrentOffset() * 8 + reader.getCurrentBitOffset();
+	}
+
+	// Padded with zero bytes, so that peeking past the code stays in the data
+	private static IBitReader reader(String bits) {
+		byte[] data = new byte[(bits.length() + 7) / 8 + 8];
+
+		for (int i = 0; i < bits.length(); ++i) {
+			if (bits.charAt(i) == '1') {
+				data[i >> 3] |= 0x80 >> (i & 7);
+			}
+		}
+		return new CachedBitBufferReader(data);
+	}
+}
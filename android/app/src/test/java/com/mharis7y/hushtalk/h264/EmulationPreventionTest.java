@@ -0,0 +1,152 @@
+package com.mharis7y.hushtalk.h264;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EmulationPreventionTest {
+
+	@Test
+	public void escapesKnownSequences() {
+		assertEscaped("00 00 03 00", "00 00 00", 0);
+		assertEscaped("00 00 03 01", "00 00 01", 0);
+		assertEscaped("00 00 03 02", "00 00 02", 0);
+		assertEscaped("00 00 03 03", "00 00 03", 0);
+		assertEscaped("00 00 04", "00 00 04", 0);
+		assertEscaped("00 00 03 00 00 03 00", "00 00 00 00 00", 0);
+		// trailing zero pair
+		assertEscaped("01 00 00 03", "01 00 00", 0);
+		// zeros before src in the NAL unit
+		assertEscaped("03 01", "01", 2);
+		assertEscaped("00 03 02", "00 02", 1);
+		assertEscaped("05", "05", 2);
+	}
+
+	@Test
+	public void matchesBytewiseReference() {
+		Random random = new Random(8);
+
+		for (int run = 0; run < 2000; ++run) {
+			byte[] src = randomNal(random, random.nextInt(100));
+			int precedingZeroCount = random.nextInt(3);
+			byte[] escaped = escape(src, precedingZeroCount);
+			byte[] unescaped = new byte[escaped.length];
+			int length = EmulationPrevention.unescape(escaped, 0, escaped.length, precedingZeroCount, unescaped);
+
+			assertArrayEquals("run " + run, referenceEscape(src, precedingZeroCount), escaped);
+			assertArrayEquals("run " + run, src, Arrays.copyOf(unescaped, length));
+			assertArrayEquals("run " + run, referenceUnescape(escaped, precedingZeroCount), Arrays.copyOf(unescaped, length));
+		}
+	}
+
+	@Test
+	public void unescapesInPlaceAfterOffset() {
+		Random random = new Random(9);
+
+		for (int run = 0; run < 500; ++run) {
+			byte[] header = randomNal(random, 1 + random.nextInt(12));
+			int precedingZeroCount = EmulationPrevention.countTrailingZeros(header, 0, header.length);
+			byte[] src = randomNal(random, random.nextInt(80));
+			byte[] escaped = escape(src, precedingZeroCount);
+			byte[] nal = new byte[header.length + escaped.length];
+			int length;
+
+			System.arraycopy(header, 0, nal, 0, header.length);
+			System.arraycopy(escaped, 0, nal, header.length, escaped.length);
+			// as the H264 container does: slice data moved to the start of the same buffer
+			length = EmulationPrevention.unescape(nal, header.length, escaped.length, precedingZeroCount, nal);
+			assertArrayEquals("run " + run, src, Arrays.copyOf(nal, length));
+		}
+	}
+
+	@Test
+	public void countsTrailingZeros() {
+		assertEquals(0, EmulationPrevention.countTrailingZeros(bytes("00 01"), 0, 2));
+		assertEquals(1, EmulationPrevention.countTrailingZeros(bytes("01 00"), 0, 2));
+		assertEquals(2, EmulationPrevention.countTrailingZeros(bytes("00 00 00"), 0, 3));
+		assertEquals(1, EmulationPrevention.countTrailingZeros(bytes("00 00 00"), 2, 3));
+		assertEquals(0, EmulationPrevention.countTrailingZeros(bytes("00 00"), 0, 0));
+	}
+
+	// Private methods
+	private static void assertEscaped(String expected, String src, int precedingZeroCount) {
+		byte[] escaped = escape(bytes(src), precedingZeroCount);
+		byte[] unescaped = new byte[escaped.length];
+		int length = EmulationPrevention.unescape(escaped, 0, escaped.length, precedingZeroCount, unescaped);
+
+		assertArrayEquals(src, bytes(expected), escaped);
+		assertArrayEquals(src, bytes(src), Arrays.copyOf(unescaped, length));
+	}
+
+	private static byte[] escape(byte[] src, int precedingZeroCount) {
+		byte[] dst = new byte[EmulationPrevention.getMaxEscapedLength(src.length)];
+
+		return Arrays.copyOf(dst, EmulationPrevention.escape(src, 0, src.length, precedingZeroCount, dst));
+	}
+
+	private static byte[] referenceEscape(byte[] src, int zeroCount) {
+		ByteArrayOutputStream dst = new ByteArrayOutputStream();
+
+		for (byte b : src) {
+			if (zeroCount == 2 && (b & 0xFF) <= 3) {
+				dst.write(3);
+				zeroCount = 0;
+			}
+			dst.write(b);
+			zeroCount = (b == 0 ? zeroCount + 1 : 0);
+		}
+		if (zeroCount == 2) {
+			dst.write(3);
+		}
+		return dst.toByteArray();
+	}
+
+	private static byte[] referenceUnescape(byte[] src, int zeroCount) {
+		ByteArrayOutputStream dst = new ByteArrayOutputStream();
+
+		for (byte b : src) {
+			if (zeroCount == 2 && b == 3) {
+				zeroCount = 0;
+				continue;
+			}
+			dst.write(b);
+			zeroCount = (b == 0 ? zeroCount + 1 : 0);
+		}
+		return dst.toByteArray();
+	}
+
+	// Mostly zero and small bytes, with runs of non zero bytes for the word scan
+	private static byte[] randomNal(Random random, int length) {
+		byte[] data = new byte[length];
+
+		for (int i = 0; i < length; ++i) {
+			switch (random.nextInt(4)) {
+			case 0:
+				data[i] = 0;
+				break;
+			case 1:
+				data[i] = (byte) random.nextInt(5);
+				break;
+			default:
+				data[i] = (byte) (1 + random.nextInt(255));
+				break;
+			}
+		}
+		return data;
+	}
+
+	private static byte[] bytes(String hex) {
+		String[] values = hex.split(" ");
+		byte[] data = new byte[values.length];
+
+		for (int i = 0; i < values.length; ++i) {
+			data[i] = (byte) Integer.parseInt(values[i], 16);
+		}
+		return data;
+	}
+}
@@ -0,0 +1,150 @@
+package com.mharis7y.hushtalk.h264;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.googlecode.mp4parser.authoring.Sample;
+import com.googlecode.mp4parser.authoring.SampleImpl;
+
+public class H264AnalysisIndexTest {
+
+	private static final int SAMPLE_COUNT = 300;
+	private static final int SAMPLE_LENGTH_SIZE = 4;
+	// magic, version, sample count, sample data size, sample table hash, length size, NAL count
+	private static final int FILE_HEADER_SIZE = 36;
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	@Test
+	public void readsWhatItWrites() throws IOException {
+		List<Sample> samples = randomSamples(new Random(5));
+		File file = _folder.newFile("index");
+		H264AnalysisIndex index = H264AnalysisIndex.build(samples, SAMPLE_LENGTH_SIZE, new ParameterSetRegistry());
+		H264AnalysisIndex read;
+
+		assertTrue(index.write(file));
+		read = H264AnalysisIndex.read(file, getSampleSizes(samples), SAMPLE_LENGTH_SIZE);
+		assertNotNull(read);
+		assertSameIndex(index, read);
+		assertSameIndex(index, H264AnalysisIndex.buildParallel(samples, SAMPLE_LENGTH_SIZE, new ParameterSetRegistry()));
+	}
+
+	@Test
+	public void rejectsAnotherSampleTable() throws IOException {
+		List<Sample> samples = randomSamples(new Random(6));
+		File file = _folder.newFile("index");
+		int[] sampleSizes = getSampleSizes(samples);
+		int size;
+
+		assertTrue(H264AnalysisIndex.build(samples, SAMPLE_LENGTH_SIZE, new ParameterSetRegistry()).write(file));
+		assertNull(H264AnalysisIndex.read(file, sampleSizes, SAMPLE_LENGTH_SIZE + 1));
+		// same count and total size, two samples swapped
+		size = sampleSizes[0];
+		sampleSizes[0] = sampleSizes[1];
+		sampleSizes[1] = size;
+		if (sampleSizes[0] != sampleSizes[1]) {
+			assertNull(H264AnalysisIndex.read(file, sampleSizes, SAMPLE_LENGTH_SIZE));
+		}
+	}
+
+	@Test
+	public void rejectsInconsistentIndex() throws IOException {
+		List<Sample> samples = randomSamples(new Random(7));
+		File file = _folder.newFile("index");
+		int[] sampleSizes = getSampleSizes(samples);
+		int nalOffset = FILE_HEADER_SIZE + (SAMPLE_COUNT + 1) * 4;
+
+		assertTrue(H264AnalysisIndex.build(samples, SAMPLE_LENGTH_SIZE, new ParameterSetRegistry()).write(file));
+		// first NAL unit running past its sample
+		patchInt(file, nalOffset + 4, sampleSizes[0]);
+		assertNull(H264AnalysisIndex.read(file, sampleSizes, SAMPLE_LENGTH_SIZE));
+
+		assertTrue(H264AnalysisIndex.build(samples, SAMPLE_LENGTH_SIZE, new ParameterSetRegistry()).write(file));
+		// second sample starting before the first one
+		patchInt(file, FILE_HEADER_SIZE + 4, 1 << 20);
+		assertNull(H264AnalysisIndex.read(file, sampleSizes, SAMPLE_LENGTH_SIZE));
+
+		assertTrue(H264AnalysisIndex.build(samples, SAMPLE_LENGTH_SIZE, new ParameterSetRegistry()).write(file));
+		// NAL count larger than the sample data can hold
+		patchInt(file, FILE_HEADER_SIZE - 4, Integer.MAX_VALUE);
+		assertNull(H264AnalysisIndex.read(file, sampleSizes, SAMPLE_LENGTH_SIZE));
+	}
+
+	// Private methods
+	private static void assertSameIndex(H264AnalysisIndex expected, H264AnalysisIndex actual) {
+		assertEquals(expected.getSampleCount(), actual.getSampleCount());
+		assertEquals(expected.getNalCount(), actual.getNalCount());
+		assertEquals(expected.getEmbeddableSize(), actual.getEmbeddableSize());
+		for (int i = 0; i <= expected.getSampleCount(); ++i) {
+			assertEquals(expected.getFirstNal(i), actual.getFirstNal(i));
+		}
+		for (int i = 0; i < expected.getNalCount(); ++i) {
+			assertEquals(expected.getNalPosition(i), actual.getNalPosition(i));
+			assertEquals(expected.getNalLength(i), actual.getNalLength(i));
+			assertEquals(expected.getNalUnitType(i), actual.getNalUnitType(i));
+			assertEquals(expected.getSliceDataOffset(i), actual.getSliceDataOffset(i));
+		}
+	}
+
+	// Non IDR slices and SEI NAL units, none of them is parsed past its header
+	private static List<Sample> randomSamples(Random random) {
+		List<Sample> samples = new ArrayList<Sample>();
+
+		for (int i = 0; i < SAMPLE_COUNT; ++i) {
+			int nalCount = 1 + random.nextInt(3);
+			ByteBuffer sample;
+			byte[][] nals = new byte[nalCount][];
+			int size = 0;
+
+			for (int n = 0; n < nalCount; ++n) {
+				nals[n] = new byte[1 + random.nextInt(200)];
+				random.nextBytes(nals[n]);
+				nals[n][0] = (byte) (random.nextBoolean() ? 0x01 : 0x06);
+				size += SAMPLE_LENGTH_SIZE + nals[n].length;
+			}
+			sample = ByteBuffer.allocate(size);
+			for (byte[] nal : nals) {
+				sample.putInt(nal.length);
+				sample.put(nal);
+			}
+			sample.rewind();
+			samples.add(new SampleImpl(sample));
+		}
+		return samples;
+	}
+
+	private static int[] getSampleSizes(List<Sample> samples) {
+		int[] sizes = new int[samples.size()];
+
+		for (int i = 0; i < sizes.length; ++i) {
+			sizes[i] = (int) samples.get(i).getSize();
+		}
+		return sizes;
+	}
+
+	private static void patchInt(File file, long offset, int value) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+		try {
+			randomAccessFile.seek(offset);
+			randomAccessFile.writeInt(value);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+}
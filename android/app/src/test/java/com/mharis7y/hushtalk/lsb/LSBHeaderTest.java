@@ -0,0 +1,145 @@
+package com.mharis7y.hushtalk.lsb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LSBHeaderTest {
+
+	@Test
+	public void roundTripsThroughDecode() {
+		Random random = new Random(3);
+
+		for (int nbBit = 1; nbBit <= LSBHeader.MAX_BIT_IN_ONE_BYTE; ++nbBit) {
+			for (int codec : new int[] { LSBHeader.CODEC_RAW, LSBHeader.CODEC_DEFLATE }) {
+				byte[] content = randomBytes(random, 321);
+				byte[] carrier = hide(new LSBWordEncode(content, nbBit, codec), randomBytes(random, getCarrierLength(content.length, nbBit)));
+				LSBDecode decoder = new LSBDecode();
+
+				assertArrayEquals(content, decode(decoder, carrier, 50));
+				assertEquals(LSBHeader.VERSION_2, decoder.getHeader().getVersion());
+				assertEquals(codec, decoder.getHeader().getCodec());
+				assertEquals(nbBit, decoder.getNbBitToDecodeInOneByte());
+				assertEquals(content.length, decoder.getContentLength());
+			}
+		}
+	}
+
+	@Test
+	public void crcMismatchReturnsEmptyContent() {
+		Random random = new Random(4);
+		byte[] content = randomBytes(random, 64);
+		byte[] carrier = hide(new LSBWordEncode(content, 2), randomBytes(random, getCarrierLength(content.length, 2)));
+
+		// one payload bit flipped, the header itself stays valid
+		carrier[LSBHeader.SIZE * 8 + 10] ^= 1;
+		assertArrayEquals(new byte[0], decode(new LSBDecode(), carrier, carrier.length));
+	}
+
+	@Test
+	public void crcCoversHeaderFields() {
+		byte[] toHide = LSBHeader.build(new byte[] { 1, 2, 3 }, 1, LSBHeader.CODEC_RAW);
+		LSBHeader header;
+
+		// codec switched to deflate: still a valid header, but not the checksummed one
+		toHide[5] = LSBHeader.CODEC_DEFLATE;
+		header = pushBytes(toHide, LSBHeader.SIZE);
+		assertTrue(header.isComplete());
+		assertFalse(header.checkContent(new byte[] { 1, 2, 3 }));
+	}
+
+	@Test
+	public void readsLegacyHeader() {
+		byte[] content = { 10, 20, 30, 40, 50 };
+		byte[] toHide = new byte[LSBHeader.LEGACY_SIZE + content.length];
+		LSBDecode decoder = new LSBDecode();
+
+		// content length (4) | bits per carrier byte (4), one bit per carrier byte for everything
+		toHide[3] = (byte) content.length;
+		toHide[7] = 1;
+		System.arraycopy(content, 0, toHide, LSBHeader.LEGACY_SIZE, content.length);
+
+		assertArrayEquals(content, decode(decoder, toBits(toHide), 7));
+		assertEquals(LSBHeader.VERSION_LEGACY, decoder.getHeader().getVersion());
+		assertEquals(LSBHeader.LEGACY_SIZE, decoder.getHeader().getSize());
+		assertEquals(LSBHeader.CODEC_DEFLATE, decoder.getHeader().getCodec());
+	}
+
+	@Test
+	public void rejectsInvalidHeaders() {
+		byte[] toHide = LSBHeader.build(new byte[4], 1, LSBHeader.CODEC_RAW);
+		byte[] legacy = new byte[LSBHeader.LEGACY_SIZE];
+
+		toHide[4] = 3;
+		assertTrue(pushBytes(toHide, LSBHeader.SIZE).isRejected());
+
+		toHide = LSBHeader.build(new byte[4], 1, LSBHeader.CODEC_RAW);
+		toHide[6] = LSBHeader.MAX_BIT_IN_ONE_BYTE + 1;
+		assertTrue(pushBytes(toHide, LSBHeader.SIZE).isRejected());
+
+		// legacy length above the maximum content size
+		legacy[0] = 0x7F;
+		assertTrue(pushBytes(legacy, LSBHeader.LEGACY_SIZE).isRejected());
+		assertArrayEquals(new byte[0], new LSBDecode().decodeFrame(toBits(legacy)));
+	}
+
+	@Test
+	public void waitsForMoreFrames() {
+		byte[] carrier = hide(new LSBWordEncode(new byte[8], 1), new byte[getCarrierLength(8, 1)]);
+
+		assertNull(new LSBDecode().decodeFrame(Arrays.copyOf(carrier, LSBHeader.SIZE * 8 - 1)));
+	}
+
+	// Private methods
+	private static int getCarrierLength(int contentLength, int nbBit) {
+		return LSBHeader.SIZE * 8 + (contentLength * 8 + nbBit - 1) / nbBit;
+	}
+
+	private static byte[] hide(ILSBEncoder encoder, byte[] carrier) {
+		encoder.encodeNextFrame(carrier);
+		return carrier;
+	}
+
+	private static byte[] decode(LSBDecode decoder, byte[] carrier, int frameSize) {
+		byte[] content = null;
+
+		for (int offset = 0; offset < carrier.length && content == null; offset += frameSize) {
+			content = decoder.decodeFrame(Arrays.copyOfRange(carrier, offset, Math.min(carrier.length, offset + frameSize)));
+		}
+		return content;
+	}
+
+	private static LSBHeader pushBytes(byte[] bytes, int length) {
+		LSBHeader header = new LSBHeader();
+		byte[] bits = toBits(Arrays.copyOf(bytes, length));
+
+		for (byte bit : bits) {
+			header.pushBit(bit);
+		}
+		return header;
+	}
+
+	// One bit per carrier byte, most significant bit first
+	private static byte[] toBits(byte[] bytes) {
+		byte[] bits = new byte[bytes.length * 8];
+
+		for (int i = 0; i < bits.length; ++i) {
+			bits[i] = (byte) ((bytes[i >> 3] >> (7 - (i & 7))) & 1);
+		}
+		return bits;
+	}
+
+	private static byte[] randomBytes(Random random, int length) {
+		byte[] bytes = new byte[length];
+
+		random.nextBytes(bytes);
+		return bytes;
+	}
+}
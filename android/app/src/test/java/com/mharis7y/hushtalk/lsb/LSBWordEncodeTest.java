@@ -0,0 +1,111 @@
+package com.mharis7y.hushtalk.lsb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LSBWordEncodeTest {
+
+	private static final int[] FRAME_SIZES = { 1, 3, 7, 64, 333, 1024 };
+
+	@Test
+	public void encodesLikeLSBEncode() {
+		Random random = new Random(1);
+
+		for (int nbBit = 1; nbBit <= LSBHeader.MAX_BIT_IN_ONE_BYTE; ++nbBit) {
+			for (int contentLength : new int[] { 0, 1, 5, 100, 1000 }) {
+				for (int frameSize : FRAME_SIZES) {
+					byte[] content = randomBytes(random, contentLength);
+					byte[] carrier = randomBytes(random, getCarrierLength(contentLength, nbBit) + 3);
+
+					assertArrayEquals("nbBit " + nbBit + ", content " + contentLength + ", frame " + frameSize,
+							encode(new LSBEncode(content, nbBit), carrier, frameSize),
+							encode(new LSBWordEncode(content, nbBit), carrier, frameSize));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void forkContinuesAtPlannedCursor() {
+		Random random = new Random(2);
+		byte[] content = randomBytes(random, 500);
+		byte[] carrier = randomBytes(random, getCarrierLength(content.length, 3));
+		byte[] expected = encode(new LSBWordEncode(content, 3), carrier, 97);
+		LSBWordEncode encoder = new LSBWordEncode(content, 3);
+		byte[] actual = carrier.clone();
+		byte[] frame;
+		int cursor = 0;
+
+		// each frame encoded by its own fork, as the parallel AAC embedding does
+		for (int offset = 0; offset < actual.length; offset += 97) {
+			frame = Arrays.copyOfRange(actual, offset, Math.min(actual.length, offset + 97));
+			encoder.fork(cursor).encodeNextFrame(frame);
+			System.arraycopy(frame, 0, actual, offset, frame.length);
+			cursor = encoder.advanceCursor(cursor, frame.length);
+		}
+		assertEquals(encoder.getBitLength(), cursor);
+		assertArrayEquals(expected, actual);
+	}
+
+	@Test
+	public void encodesAndDecodesFrameRanges() {
+		Random random = new Random(10);
+		byte[] content = randomBytes(random, 200);
+		byte[] carrier = randomBytes(random, getCarrierLength(content.length, 2));
+		byte[] expected = encode(new LSBWordEncode(content, 2), carrier, carrier.length);
+		byte[] frame = new byte[carrier.length + 9];
+
+		// carrier bytes in the middle of a larger buffer, the bytes around stay untouched
+		System.arraycopy(carrier, 0, frame, 4, carrier.length);
+		new LSBWordEncode(content, 2).encodeNextFrame(frame, 4, carrier.length);
+		assertArrayEquals(expected, Arrays.copyOfRange(frame, 4, 4 + carrier.length));
+		assertArrayEquals(new byte[4], Arrays.copyOf(frame, 4));
+		assertArrayEquals(new byte[5], Arrays.copyOfRange(frame, 4 + carrier.length, frame.length));
+
+		new LSBEncode(content, 2).encodeNextFrame(frame, 4, carrier.length);
+		assertArrayEquals(expected, Arrays.copyOfRange(frame, 4, 4 + carrier.length));
+		assertArrayEquals(content, new LSBDecode().decodeFrame(frame, 4, carrier.length));
+	}
+
+	@Test
+	public void completesOnceEveryBitIsWritten() {
+		LSBWordEncode encoder = new LSBWordEncode(new byte[10], 2);
+		byte[] carrier = new byte[getCarrierLength(10, 2)];
+
+		assertEquals(carrier.length, encoder.getCarrierLength());
+		encoder.encodeNextFrame(Arrays.copyOf(carrier, carrier.length - 1));
+		assertTrue(!encoder.isComplete());
+		encoder.encodeNextFrame(new byte[1]);
+		assertTrue(encoder.isComplete());
+	}
+
+	// Private methods
+	private static int getCarrierLength(int contentLength, int nbBit) {
+		return LSBHeader.SIZE * 8 + (contentLength * 8 + nbBit - 1) / nbBit;
+	}
+
+	private static byte[] encode(ILSBEncoder encoder, byte[] carrier, int frameSize) {
+		byte[] result = carrier.clone();
+		byte[] frame;
+
+		for (int offset = 0; offset < result.length; offset += frameSize) {
+			frame = Arrays.copyOfRange(result, offset, Math.min(result.length, offset + frameSize));
+			encoder.encodeNextFrame(frame);
+			System.arraycopy(frame, 0, result, offset, frame.length);
+		}
+		return result;
+	}
+
+	private static byte[] randomBytes(Random random, int length) {
+		byte[] bytes = new byte[length];
+
+		random.nextBytes(bytes);
+		return bytes;
+	}
+}
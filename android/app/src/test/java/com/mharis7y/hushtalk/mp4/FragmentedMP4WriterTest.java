@@ -0,0 +1,123 @@
+package com.mharis7y.hushtalk.mp4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.coremedia.iso.IsoFile;
+import com.coremedia.iso.boxes.fragment.MovieFragmentBox;
+import com.googlecode.mp4parser.authoring.Movie;
+import com.googlecode.mp4parser.authoring.Track;
+import com.mharis7y.hushtalk.algorithms.steganography.audio.AACSteganographyContainerLsb1Bit;
+
+public class FragmentedMP4WriterTest {
+
+	// about 9 seconds of 44.1 kHz AAC frames, several fragments of 2 seconds
+	private static final int FRAME_COUNT = 400;
+	// about 0.6 second between sync samples
+	private static final int SYNC_SAMPLE_INTERVAL = 25;
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	@Test
+	public void fragmentedOutputDecodesThroughMediaReader() throws IOException {
+		Random random = new Random(12);
+		File source = _folder.newFile("source.mp4");
+		File output = _folder.newFile("output.mp4");
+		byte[] content = new byte[700];
+		MP4MediaReader reader = new MP4MediaReader();
+		AACSteganographyContainerLsb1Bit container = new AACSteganographyContainerLsb1Bit();
+		MP4MediaWriter writer;
+		int sampleCount;
+
+		random.nextBytes(content);
+		TestMovies.writeAacMovie(source, random, FRAME_COUNT);
+		assertTrue(reader.loadData(source.getPath()));
+		sampleCount = reader.getAudioSampleList().size();
+		assertTrue(container.loadData(reader));
+		container.hideData(content);
+		container.writeRemainingSamples();
+
+		writer = new MP4MediaWriter(output.getPath(), null, container.getTrack());
+		writer.setFragmentDuration(FragmentedMP4Writer.DEFAULT_FRAGMENT_DURATION);
+		assertTrue(writer.create());
+		reader.close();
+
+		// moov without samples, which are all described by the moof boxes
+		reader = new MP4MediaReader();
+		assertTrue(reader.loadData(output.getPath()));
+		assertTrue(reader.getBoxIndex().indexOf("moof") != -1);
+		assertEquals(sampleCount, reader.getAudioSampleList().size());
+
+		container = new AACSteganographyContainerLsb1Bit();
+		assertTrue(container.loadData(reader));
+		container.unHideData();
+		assertArrayEquals(content, container.getUnHideData());
+		reader.close();
+	}
+
+	@Test
+	public void fragmentsStartAtSyncSamples() throws IOException {
+		File source = _folder.newFile("source.mp4");
+		File output = _folder.newFile("output.mp4");
+		MP4MediaReader reader = new MP4MediaReader();
+		final long[] syncSamples = new long[(FRAME_COUNT + SYNC_SAMPLE_INTERVAL - 1) / SYNC_SAMPLE_INTERVAL];
+		Movie movie = new Movie();
+		FileOutputStream outputStream;
+		IsoFile isoFile;
+		Track track;
+		double sampleDuration;
+		long start = 1;
+		long previousStart = -1;
+
+		for (int i = 0; i < syncSamples.length; ++i) {
+			syncSamples[i] = 1 + i * SYNC_SAMPLE_INTERVAL;
+		}
+		TestMovies.writeAacMovie(source, new Random(13), FRAME_COUNT);
+		assertTrue(reader.loadData(source.getPath()));
+		track = new CopyOnWriteTrack(reader.getAudioTrack()) {
+			@Override
+			public long[] getSyncSamples() {
+				return syncSamples;
+			}
+		};
+		sampleDuration = (double) track.getSampleDurations()[0] / track.getTrackMetaData().getTimescale();
+		movie.addTrack(track);
+		outputStream = new FileOutputStream(output);
+		try {
+			new FragmentedMP4Writer(FragmentedMP4Writer.DEFAULT_FRAGMENT_DURATION).write(movie, outputStream.getChannel());
+		} finally {
+			outputStream.close();
+			reader.close();
+		}
+
+		isoFile = new IsoFile(output.getPath());
+		try {
+			assertTrue(isoFile.getBoxes(MovieFragmentBox.class).size() > 1);
+			for (MovieFragmentBox fragment : isoFile.getBoxes(MovieFragmentBox.class)) {
+				assertTrue("fragment at " + start, Arrays.binarySearch(syncSamples, start) >= 0);
+				if (previousStart != -1) {
+					// the first sync sample once the fragment duration is over
+					assertTrue((start - previousStart) * sampleDuration >= FragmentedMP4Writer.DEFAULT_FRAGMENT_DURATION);
+					assertTrue((start - previousStart - SYNC_SAMPLE_INTERVAL) * sampleDuration < FragmentedMP4Writer.DEFAULT_FRAGMENT_DURATION);
+				}
+				previousStart = start;
+				start += fragment.getTrackRunBoxes().get(0).getSampleCount();
+			}
+			assertEquals(FRAME_COUNT + 1, start);
+		} finally {
+			isoFile.close();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package com.mharis7y.hushtalk.mp4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.googlecode.mp4parser.authoring.Sample;
+
+public class SampleTableIndexTest {
+
+	private static final int FRAME_COUNT = 50;
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	@Test
+	public void locatesSamplesInTheFile() throws IOException {
+		File file = _folder.newFile("source.mp4");
+		MP4MediaReader reader = new MP4MediaReader();
+		RandomAccessFile randomAccessFile;
+		SampleTableIndex index;
+		List<Sample> samples;
+		long totalSize = 0;
+
+		TestMovies.writeAacMovie(file, new Random(3), FRAME_COUNT);
+		assertTrue(reader.loadData(file.getPath()));
+		index = reader.getAudioSampleIndex();
+		samples = reader.getAudioSampleList();
+		assertNotNull(index);
+		assertEquals(samples.size(), index.getSampleCount());
+
+		randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			for (int i = 0; i < samples.size(); ++i) {
+				byte[] expected = toByteArray(samples.get(i));
+				byte[] actual = new byte[index.getSampleSize(i)];
+
+				assertEquals(totalSize, index.getCumulativeSize(i));
+				randomAccessFile.seek(index.getSampleOffset(i));
+				randomAccessFile.readFully(actual);
+				assertArrayEquals(expected, actual);
+				totalSize += actual.length;
+			}
+		} finally {
+			randomAccessFile.close();
+			reader.close();
+		}
+		assertEquals(totalSize, index.getTotalSize());
+	}
+
+	@Test
+	public void findsTheSampleHoldingAPosition() throws IOException {
+		File file = _folder.newFile("source.mp4");
+		MP4MediaReader reader = new MP4MediaReader();
+		SampleTableIndex index;
+
+		TestMovies.writeAacMovie(file, new Random(4), FRAME_COUNT);
+		assertTrue(reader.loadData(file.getPath()));
+		index = reader.getAudioSampleIndex();
+		reader.close();
+
+		assertEquals(-1, index.findSample(-1));
+		assertEquals(-1, index.findSample(index.getTotalSize()));
+		assertEquals(FRAME_COUNT - 1, index.findSample(index.getTotalSize() - 1));
+		for (int i = 0; i < index.getSampleCount(); ++i) {
+			assertEquals(i, index.findSample(index.getCumulativeSize(i)));
+			assertEquals(i, index.findSample(index.getCumulativeSize(i + 1) - 1));
+		}
+	}
+
+	// Private methods
+	private static byte[] toByteArray(Sample sample) {
+		ByteBuffer buffer = sample.asByteBuffer();
+		byte[] bytes = new byte[buffer.remaining()];
+
+		buffer.get(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,48 @@
+package com.mharis7y.hushtalk.mp4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import com.googlecode.mp4parser.authoring.Movie;
+import com.googlecode.mp4parser.authoring.builder.DefaultMp4Builder;
+import com.googlecode.mp4parser.authoring.tracks.AACTrackImpl;
+
+final class TestMovies {
+
+	// ADTS frames of random payload, muxed as a regular MP4
+	static void writeAacMovie(File file, Random random, int frameCount) throws IOException {
+		ByteArrayOutputStream adts = new ByteArrayOutputStream();
+		Movie movie = new Movie();
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		FileChannel fileChannel = randomAccessFile.getChannel();
+
+		for (int i = 0; i < frameCount; ++i) {
+			byte[] payload = new byte[200 + random.nextInt(300)];
+			int frameLength = payload.length + 7;
+
+			// MPEG-4, no CRC | AAC LC, 44.1 kHz, stereo | frame length | buffer fullness, one raw block
+			adts.write(0xFF);
+			adts.write(0xF1);
+			adts.write(0x50);
+			adts.write(0x80 | (frameLength >> 11));
+			adts.write((frameLength >> 3) & 0xFF);
+			adts.write(((frameLength & 7) << 5) | 0x1F);
+			adts.write(0xFC);
+			random.nextBytes(payload);
+			adts.write(payload);
+		}
+		movie.addTrack(new AACTrackImpl(new SteganosMemoryDataSourceImpl(adts.toByteArray())));
+		try {
+			new DefaultMp4Builder().build(movie).writeContainer(fileChannel);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	private TestMovies() {
+	}
+}
@@ -0,0 +1,108 @@
+package com.mharis7y.hushtalk.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CachedBitBufferReaderTest {
+
+	@Test
+	public void readsExpGolombCodes() {
+		// 1 | 010 | 011 | 00100 | 00101 | 0001000 | 1
+		IBitReader reader = new CachedBitBufferReader(bits("1010011001000010100010001"));
+
+		assertEquals(0, reader.readUE());
+		assertEquals(1, reader.readUE());
+		assertEquals(2, reader.readUE());
+		assertEquals(3, reader.readUE());
+		assertEquals(-2, reader.readSE());
+		assertEquals(4, reader.readSE());
+		assertEquals(0, reader.readSE());
+	}
+
+	@Test
+	public void matchesBitBufferReader() {
+		Random random = new Random(5);
+
+		for (int run = 0; run < 200; ++run) {
+			byte[] data = randomData(random, random.nextInt(40));
+
+			compare(random, new BitBufferReader(data), new CachedBitBufferReader(data), "run " + run);
+		}
+	}
+
+	@Test
+	public void readsFromOffsetAndByteBuffer() {
+		Random random = new Random(6);
+		byte[] data = randomData(random, 64);
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+
+		buffer.position(5);
+		compare(new Random(7), new BitBufferReader(Arrays.copyOfRange(data, 5, 64)), new CachedBitBufferReader(buffer), "buffer");
+		compare(new Random(7), new BitBufferReader(Arrays.copyOfRange(data, 5, 40)), new CachedBitBufferReader(data, 5, 35), "offset");
+	}
+
+	// Private methods
+	// Same random operations on both readers, reading past the end of the data
+	private static void compare(Random random, IBitReader expected, IBitReader actual, String name) {
+		int size;
+
+		for (int op = 0; op < 120; ++op) {
+			String step = name + ", operation " + op;
+
+			switch (random.nextInt(6)) {
+			case 0:
+				size = random.nextInt(65);
+				assertEquals(step + ", readNBits(" + size + ")", expected.readNBits(size), actual.readNBits(size));
+				break;
+			case 1:
+				size = 1 + random.nextInt(32);
+				assertEquals(step + ", peekNBits(" + size + ")", expected.peekNBits(size), actual.peekNBits(size));
+				break;
+			case 2:
+				assertEquals(step + ", readUE", expected.readUE(), actual.readUE());
+				break;
+			case 3:
+				assertEquals(step + ", readSE", expected.readSE(), actual.readSE());
+				break;
+			case 4:
+				size = random.nextInt(4);
+				expected.skipBytes(size);
+				actual.skipBytes(size);
+				break;
+			default:
+				size = 1 + random.nextInt(8);
+				assertEquals(step + ", readNBits(" + size + ")", expected.readNBits(size), actual.readNBits(size));
+				break;
+			}
+			assertEquals(step + ", offset", expected.getCurrentOffset(), actual.getCurrentOffset());
+			assertEquals(step + ", bit offset", expected.getCurrentBitOffset(), actual.getCurrentBitOffset());
+			assertEquals(step + ", more data", expected.hasMoreData(), actual.hasMoreData());
+		}
+	}
+
+	// Mostly zero bytes, so that long Exp-Golomb prefixes occur
+	private static byte[] randomData(Random random, int length) {
+		byte[] data = new byte[length];
+
+		for (int i = 0; i < length; ++i) {
+			data[i] = (byte) (random.nextInt(3) == 0 ? random.nextInt(256) : random.nextInt(4));
+		}
+		return data;
+	}
+
+	private static byte[] bits(String bits) {
+		byte[] data = new byte[(bits.length() + 7) / 8];
+
+		for (int i = 0; i < bits.length(); ++i) {
+			if (bits.charAt(i) == '1') {
+				data[i >> 3] |= 0x80 >> (i & 7);
+			}
+		}
+		return data;
+	}
+}
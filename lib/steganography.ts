@@ -7,6 +7,9 @@ type EncodeMessageParams = {
   carrier: string;
   secret: string;
   password?: string;
+  // Videos only: fragment duration in seconds of a fragmented MP4 output, which
+  // bounds the memory used to write long videos. Omitted or 0 keeps a regular MP4.
+  fragmentDuration?: number;
 };
 
 type DecodeMessageParams = {
@@ -14,6 +17,12 @@ type DecodeMessageParams = {
   password?: string;
 };
 
+type ProbeVideoResult = {
+  hasPayload: boolean;
+  payloadBytes: number;
+  bitsPerByte: number;
+};
+
 type EncodeMessageResult = {
   id: string;
   uri: string;
@@ -87,7 +96,7 @@ async function uploadStegImageMetadata(params: {
 export async function encodeMessage(
   params: EncodeMessageParams,
 ): Promise<EncodeMessageResult> {
-  const { carrier, secret, password } = params;
+  const { carrier, secret, password, fragmentDuration } = params;
 
   if (!carrier) {
     throw new Error('No carrier media provided for steganography.');
@@ -115,7 +124,11 @@ export async function encodeMessage(
         password: password ?? null,
       });
 
-      const result = await VideoSteganography.encodeVideo(carrier, payload);
+      const result = await VideoSteganography.encodeVideo(
+        carrier,
+        payload,
+        Math.max(0, Math.floor(fragmentDuration ?? 0)),
+      );
 
       const userId = auth?.currentUser?.uid ?? null;
 
@@ -234,9 +247,30 @@ export async function decodeMessage(
   }
 }
 
+/**
+ * Quickly tell whether a video carries a hidden message, without decoding it.
+ * Only the header stored in the first audio frames is read, so this is cheap
+ * enough to triage many files.
+ */
+export async function probeVideo(carrier: string): Promise<ProbeVideoResult> {
+  if (!carrier) {
+    throw new Error('No carrier media provided for probing.');
+  }
+  if (Platform.OS !== 'android' || !VideoSteganography) {
+    throw new Error('Video probing is only available on Android.');
+  }
+
+  try {
+    return await VideoSteganography.probeVideo(carrier);
+  } catch (error: any) {
+    throw new Error(error.message || 'Video probing failed');
+  }
+}
+
 export default {
   encodeMessage,
   decodeMessage,
+  probeVideo,
 };
 
 